@@ -44,9 +44,6 @@ void setup() {
   double bubbleRadius = 100;
   int nbMass = 500;
   
-  /* Create a mass, connected to fixed points via Spring Dampers */
-  mdl.addMass("ground", new Ground3D(1, new Vect3D(0., 0., 0.)));
-  
   // Create a bunch of masses with randomised spherical coordinates
   for(int i = 0; i < nbMass; i++){
     float rR = random(100.);
@@ -57,14 +54,14 @@ void setup() {
     new Vect3D(rR * sin(rThe)*cos(rPhi), rR * sin(rThe)*sin(rPhi), rR * cos(rThe)), 
     new Vect3D(0., 0., 0.)));
     
-    // Add enclosing "Bubble" interaction to keep masses inside a sphere
-    mdl.addInteraction("bub"+i, new Bubble3D(bubbleRadius, 0.1, 0.01), "ground", "mass"+i);
-    
     // set a driver for each mass in the system
     mdl.addInOut("drive"+i,new Driver3D(),"mass"+i);
 
   }
   
+  // Enclosing sphere keeping all the masses inside (their centers within bubbleRadius)
+  phys.colEngine().addSphereContainer(mdl, new Vect3D(0., 0., 0.), bubbleRadius + 6, 0.1, 0.01);
+  
   if(AUTOCOLLIDER)
     phys.colEngine().addAutoCollision(phys.mdl(),30,20,0.01,0.01);
   else{
@@ -0,0 +1,367 @@
+package miPhysics.Engine;
+
+import miPhysics.Utility.SpacePrint;
+
+import java.util.Arrays;
+
+/**
+ * Dynamic bounding volume tree over a set of boxes (the space prints of physical models), used by
+ * the collision engine to find the pairs of boxes that overlap.
+ *
+ * Each box is a leaf of a balanced binary tree whose inner nodes hold the union of their children.
+ * Leaves are inserted next to the sibling that makes the tree cheapest (smallest surface area), and
+ * moved only when their box changes. Since the space prints are enlarged by a margin, most boxes do
+ * not change from one step to the next, and the tree stays as it is.
+ *
+ * Nodes are stored in arrays and recycled, so updating the tree and querying it do not allocate.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class AABBTree {
+
+    private static final int NULL = -1;
+
+    /* Nodes: box (min x, y, z then max x, y, z), links, height (0 for a leaf, -1 for a free node)
+     * and item of the leaves. Free nodes are chained through m_child1. */
+    private double[] m_box = new double[6 * 16];
+    private int[] m_parent = new int[16];
+    private int[] m_child1 = new int[16];
+    private int[] m_child2 = new int[16];
+    private int[] m_height = new int[16];
+    private int[] m_item = new int[16];
+    private int m_nbNodes = 0;
+    private int m_free = NULL;
+    private int m_root = NULL;
+
+    private int[] m_stack = new int[64];
+    private int[] m_pairs = new int[64];
+
+    /**
+     * Add a box to the tree.
+     * @param item the item identifying the box (reported by findPairs()).
+     * @param sp the box.
+     * @return the leaf holding the box.
+     */
+    int insert(int item, SpacePrint sp){
+        int leaf = allocate();
+        setBox(leaf, sp);
+        m_item[leaf] = item;
+        m_height[leaf] = 0;
+        m_child1[leaf] = NULL;
+        m_child2[leaf] = NULL;
+        insertLeaf(leaf);
+        return leaf;
+    }
+
+    /**
+     * Remove a box from the tree.
+     * @param leaf the leaf holding the box.
+     */
+    void remove(int leaf){
+        removeLeaf(leaf);
+        release(leaf);
+    }
+
+    /**
+     * Check if a leaf holds a given box.
+     * @param leaf the leaf.
+     * @param sp the box.
+     * @return true if the box of the leaf is the same.
+     */
+    boolean matches(int leaf, SpacePrint sp){
+        int b = 6 * leaf;
+        return m_box[b] == sp.getXMin() && m_box[b + 1] == sp.getYMin() && m_box[b + 2] == sp.getZMin()
+                && m_box[b + 3] == sp.getXMax() && m_box[b + 4] == sp.getYMax() && m_box[b + 5] == sp.getZMax();
+    }
+
+    /**
+     * Change the box of a leaf (the leaf is moved to its new place in the tree).
+     * @param leaf the leaf.
+     * @param sp the new box.
+     */
+    void move(int leaf, SpacePrint sp){
+        removeLeaf(leaf);
+        setBox(leaf, sp);
+        insertLeaf(leaf);
+    }
+
+    /**
+     * Find all the pairs of overlapping boxes. Each pair is reported once.
+     * @return the number of pairs (see getPairs()).
+     */
+    int findPairs(){
+        int nbPairs = 0;
+        for(int leaf = 0; leaf < m_nbNodes; leaf++){
+            if(m_height[leaf] != 0)
+                continue;
+            int sp = 0;
+            m_stack[sp++] = m_root;
+            while(sp > 0){
+                int n = m_stack[--sp];
+                if(!overlaps(n, leaf))
+                    continue;
+                if(m_height[n] == 0){
+                    // Report each pair from its lowest leaf only.
+                    if(n > leaf){
+                        if(2 * nbPairs + 2 > m_pairs.length)
+                            m_pairs = Arrays.copyOf(m_pairs, 2 * m_pairs.length);
+                        m_pairs[2 * nbPairs] = m_item[leaf];
+                        m_pairs[2 * nbPairs + 1] = m_item[n];
+                        nbPairs++;
+                    }
+                }
+                else {
+                    if(sp + 2 > m_stack.length)
+                        m_stack = Arrays.copyOf(m_stack, 2 * m_stack.length);
+                    m_stack[sp++] = m_child1[n];
+                    m_stack[sp++] = m_child2[n];
+                }
+            }
+        }
+        return nbPairs;
+    }
+
+    /**
+     * Get the pairs found by the last call to findPairs().
+     * @return the items of the pairs (two consecutive values per pair).
+     */
+    int[] getPairs(){
+        return m_pairs;
+    }
+
+    /* Structure of the tree */
+
+    private void insertLeaf(int leaf){
+        if(m_root == NULL){
+            m_root = leaf;
+            m_parent[leaf] = NULL;
+            return;
+        }
+
+        // Go down the tree towards the cheapest sibling for the new leaf.
+        int index = m_root;
+        while(m_height[index] > 0){
+            int child1 = m_child1[index];
+            int child2 = m_child2[index];
+            double area = area(index, index);
+            double combinedArea = area(index, leaf);
+            // Cost of making the leaf a sibling of this node, and of pushing it further down.
+            double cost = 2 * combinedArea;
+            double inheritance = 2 * (combinedArea - area);
+            double cost1 = descentCost(child1, leaf) + inheritance;
+            double cost2 = descentCost(child2, leaf) + inheritance;
+            if(cost < cost1 && cost < cost2)
+                break;
+            index = cost1 < cost2 ? child1 : child2;
+        }
+        int sibling = index;
+
+        int oldParent = m_parent[sibling];
+        int newParent = allocate();
+        m_parent[newParent] = oldParent;
+        m_item[newParent] = -1;
+        union(newParent, leaf, sibling);
+        m_height[newParent] = m_height[sibling] + 1;
+        m_child1[newParent] = sibling;
+        m_child2[newParent] = leaf;
+        m_parent[sibling] = newParent;
+        m_parent[leaf] = newParent;
+        if(oldParent != NULL){
+            if(m_child1[oldParent] == sibling)
+                m_child1[oldParent] = newParent;
+            else
+                m_child2[oldParent] = newParent;
+        }
+        else
+            m_root = newParent;
+
+        refitFrom(m_parent[leaf]);
+    }
+
+    private void removeLeaf(int leaf){
+        if(leaf == m_root){
+            m_root = NULL;
+            return;
+        }
+        int parent = m_parent[leaf];
+        int grandParent = m_parent[parent];
+        int sibling = m_child1[parent] == leaf ? m_child2[parent] : m_child1[parent];
+
+        if(grandParent != NULL){
+            if(m_child1[grandParent] == parent)
+                m_child1[grandParent] = sibling;
+            else
+                m_child2[grandParent] = sibling;
+            m_parent[sibling] = grandParent;
+            release(parent);
+            refitFrom(grandParent);
+        }
+        else {
+            m_root = sibling;
+            m_parent[sibling] = NULL;
+            release(parent);
+        }
+    }
+
+    // Rebalance and update the boxes and heights from a node up to the root.
+    private void refitFrom(int index){
+        while(index != NULL){
+            index = balance(index);
+            int child1 = m_child1[index];
+            int child2 = m_child2[index];
+            m_height[index] = 1 + Math.max(m_height[child1], m_height[child2]);
+            union(index, child1, child2);
+            index = m_parent[index];
+        }
+    }
+
+    // Rotate the tree at node a if its subtrees differ in height by more than one.
+    private int balance(int a){
+        if(m_height[a] < 2)
+            return a;
+        int b = m_child1[a];
+        int c = m_child2[a];
+        int diff = m_height[c] - m_height[b];
+
+        if(diff > 1){
+            // Promote c.
+            int f = m_child1[c];
+            int g = m_child2[c];
+            m_child1[c] = a;
+            m_parent[c] = m_parent[a];
+            m_parent[a] = c;
+            replaceChild(m_parent[c], a, c);
+            if(m_height[f] > m_height[g]){
+                m_child2[c] = f;
+                m_child2[a] = g;
+                m_parent[g] = a;
+                union(a, b, g);
+                union(c, a, f);
+                m_height[a] = 1 + Math.max(m_height[b], m_height[g]);
+                m_height[c] = 1 + Math.max(m_height[a], m_height[f]);
+            }
+            else {
+                m_child2[c] = g;
+                m_child2[a] = f;
+                m_parent[f] = a;
+                union(a, b, f);
+                union(c, a, g);
+                m_height[a] = 1 + Math.max(m_height[b], m_height[f]);
+                m_height[c] = 1 + Math.max(m_height[a], m_height[g]);
+            }
+            return c;
+        }
+        if(diff < -1){
+            // Promote b.
+            int d = m_child1[b];
+            int e = m_child2[b];
+            m_child1[b] = a;
+            m_parent[b] = m_parent[a];
+            m_parent[a] = b;
+            replaceChild(m_parent[b], a, b);
+            if(m_height[d] > m_height[e]){
+                m_child2[b] = d;
+                m_child1[a] = e;
+                m_parent[e] = a;
+                union(a, c, e);
+                union(b, a, d);
+                m_height[a] = 1 + Math.max(m_height[c], m_height[e]);
+                m_height[b] = 1 + Math.max(m_height[a], m_height[d]);
+            }
+            else {
+                m_child2[b] = e;
+                m_child1[a] = d;
+                m_parent[d] = a;
+                union(a, c, d);
+                union(b, a, e);
+                m_height[a] = 1 + Math.max(m_height[c], m_height[d]);
+                m_height[b] = 1 + Math.max(m_height[a], m_height[e]);
+            }
+            return b;
+        }
+        return a;
+    }
+
+    private void replaceChild(int parent, int oldChild, int newChild){
+        if(parent == NULL)
+            m_root = newChild;
+        else if(m_child1[parent] == oldChild)
+            m_child1[parent] = newChild;
+        else
+            m_child2[parent] = newChild;
+    }
+
+    /* Node storage */
+
+    private int allocate(){
+        int n;
+        if(m_free != NULL){
+            n = m_free;
+            m_free = m_child1[n];
+        }
+        else {
+            if(m_nbNodes == m_parent.length){
+                int cap = 2 * m_parent.length;
+                m_box = Arrays.copyOf(m_box, 6 * cap);
+                m_parent = Arrays.copyOf(m_parent, cap);
+                m_child1 = Arrays.copyOf(m_child1, cap);
+                m_child2 = Arrays.copyOf(m_child2, cap);
+                m_height = Arrays.copyOf(m_height, cap);
+                m_item = Arrays.copyOf(m_item, cap);
+            }
+            n = m_nbNodes++;
+        }
+        return n;
+    }
+
+    private void release(int n){
+        m_height[n] = -1;
+        m_child1[n] = m_free;
+        m_free = n;
+    }
+
+    /* Boxes */
+
+    private void setBox(int n, SpacePrint sp){
+        int b = 6 * n;
+        m_box[b] = sp.getXMin();
+        m_box[b + 1] = sp.getYMin();
+        m_box[b + 2] = sp.getZMin();
+        m_box[b + 3] = sp.getXMax();
+        m_box[b + 4] = sp.getYMax();
+        m_box[b + 5] = sp.getZMax();
+    }
+
+    private void union(int n, int n1, int n2){
+        int b = 6 * n, b1 = 6 * n1, b2 = 6 * n2;
+        for(int k = 0; k < 3; k++){
+            m_box[b + k] = Math.min(m_box[b1 + k], m_box[b2 + k]);
+            m_box[b + 3 + k] = Math.max(m_box[b1 + 3 + k], m_box[b2 + 3 + k]);
+        }
+    }
+
+    // Surface area of the union of the boxes of two nodes.
+    private double area(int n1, int n2){
+        int b1 = 6 * n1, b2 = 6 * n2;
+        double dx = Math.max(m_box[b1 + 3], m_box[b2 + 3]) - Math.min(m_box[b1], m_box[b2]);
+        double dy = Math.max(m_box[b1 + 4], m_box[b2 + 4]) - Math.min(m_box[b1 + 1], m_box[b2 + 1]);
+        double dz = Math.max(m_box[b1 + 5], m_box[b2 + 5]) - Math.min(m_box[b1 + 2], m_box[b2 + 2]);
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    // Cost of inserting a leaf below a child node.
+    private double descentCost(int child, int leaf){
+        if(m_height[child] == 0)
+            return area(child, leaf);
+        return area(child, leaf) - area(child, child);
+    }
+
+    // Same test as SpacePrint.intersection(): boxes that touch overlap.
+    private boolean overlaps(int n1, int n2){
+        int b1 = 6 * n1, b2 = 6 * n2;
+        return !(m_box[b2] > m_box[b1 + 3] || m_box[b2 + 3] < m_box[b1]
+                || m_box[b2 + 1] > m_box[b1 + 4] || m_box[b2 + 4] < m_box[b1 + 1]
+                || m_box[b2 + 2] > m_box[b1 + 5] || m_box[b2 + 5] < m_box[b1 + 2]);
+    }
+}
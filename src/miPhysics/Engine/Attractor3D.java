@@ -32,10 +32,10 @@ public class Attractor3D extends Interaction {
         switch(p){
             case ATTRACTION:
                 this.m_attrFactor = val;
-                return 0;
+                return paramChanged();
             case DISTANCE:
                 this.changeDRest(val);
-                return 0;
+                return paramChanged();
             default:
                 System.out.println("Cannot apply param " + val + " for "
                         + this + ": no " + p + " parameter");
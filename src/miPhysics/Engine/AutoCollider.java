@@ -2,318 +2,432 @@ package miPhysics.Engine;
 import miPhysics.Utility.SpacePrint;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-
-/* This can certainly be optimised! */
-/* ported from some pretty early code */
-
-//TODO : If you change the underlying physical model during simulation, it will break! Make safer
+import java.util.Arrays;
 
 /**
- * Autocollision handling mechanism for a physical model
+ * Autocollision handling mechanism for a physical model.
+ *
+ * Space is divided into cubic cells with no fixed bounds: each mass is tagged with the cells its
+ * bounding box overlaps, and only the masses sharing a cell are tested against each other. Cells are
+ * hashed into buckets, and the tags are grouped by bucket with a counting sort, so the memory used
+ * only depends on the number of masses (not on the extent of the scene or on the number of pairs).
+ *
+ * The cell size is derived from the radii of the masses (two diameters of a large mass), and
+ * follows the model when masses are added or removed. A pair of masses sharing several cells is
+ * only computed once per step, in the first bucket they share: buckets can be computed in any
+ * order (or concurrently) without changing the contacts found by each of them.
  */
-public class AutoCollider {
+public class AutoCollider implements Collider {
 
     PhyModel m_model;
-    ArrayList<MatCol> m_colliders = new ArrayList<>();
-
-    private double m_vSize;
-    private Vect3D m_bounds;
-
-    private int m_dimX = 1;
-    private int m_dimY = 1;
-    private int m_dimZ = 1;
 
     double m_K = 0;
     double m_Z = 0;
 
-    private float m_radius = 10 ;
-
-    private boolean [][] m_colTable;
-    private ArrayList<Pair> m_activeCols = new ArrayList<Pair>();
-
-    private Voxel[][][] m_boxes;
-    private ArrayList<Voxel> m_actives;
-
-    private Contact3D contactLink = new Contact3D(0., 0);
-
-
-    private class Voxel {
-        Voxel(int x, int y, int z) {
-            idX = x;
-            idY = y;
-            idZ = z;
-        }
-
-        HashMap<Integer, Mass> getParticleList() {
-            return this.m_particleMap;
-        }
-
-        int getNumberOfParticles() {
-            return this.m_particleMap.size();
-        }
-
-        void clearParticles() {
-            m_particleMap.clear();
-        }
-
-        void addParticle(Mass p, int i) {
-            m_particleMap.put(i, p);
-            //m_particleMap.add(new HashMap<Integer, Mass>(m_particleMap.size(), p));
-        }
-
-        int idX;
-        int idY;
-        int idZ;
-
-        private HashMap<Integer, Mass> m_particleMap = new HashMap<>();
-    }
-
-    private class MatCol {
-
-        private Mass m_mass;
-        private ArrayList<Voxel> m_activeVoxels = new ArrayList<>();
-
-        int m_idx;
-
-        boolean m_Out = false;
-        boolean m_Inter = false;
-
-        MatCol(Mass m, int i) {
-            this.m_mass = m;
-            this.m_idx = i;
-        }
-
-        public int getIndex(){
-            return m_idx;
-        }
-
-        public Mass getMass(){
-            return m_mass;
-        }
-
-        public ArrayList<Voxel> getActiveVoxList() {
-            return m_activeVoxels;
-        }
-        public int getNbActiveVoxels() {
-            return m_activeVoxels.size();
-        }
-
-
-        void clearVoxels() {
-            m_activeVoxels.clear();
-        }
-
-        void addVoxel(Voxel hash) {
-            m_activeVoxels.add(hash);
-        }
-    }
-
-    private class Pair {
+    /* Cell size, and topology version of the model it was chosen for */
+    private double m_cellSize = 0;
+    private int m_cellVersion = -1;
+
+    /* Tags of the current step (bucket and mass of each), grouped by bucket: masses of bucket b are
+     * m_sortedMass[m_bucketStart[b]] to m_sortedMass[m_bucketStart[b+1] - 1], in increasing order */
+    private int[] m_tagBucket = new int[64];
+    private int[] m_tagMass = new int[64];
+    private int m_nbTags = 0;
+    /* Tags of mass i are m_tagFirst[i] to m_tagFirst[i+1] - 1 */
+    private int[] m_tagFirst = new int[17];
+    private int[] m_sortedMass = new int[64];
+    private int[] m_bucketStart = new int[17];
+    private int m_nbBuckets = 0;
+    /* Occupied buckets and pairs of tags sharing a bucket at the last tagging (statistics) */
+    private int m_nbOccupied = 0;
+    private long m_nbBucketPairs = 0;
+
+    /* Contact buffers of the chunks of buckets, and step of the collider (for their contacts history) */
+    private ArrayList<ContactBuffer> m_buffers = new ArrayList<>();
+    private long m_step = 0;
+
+    /* Neighbour list mode (skin > 0): pairs closer than their contact distance plus the skin, kept
+     * until a mass has moved by half the skin. m_listed tells if the rows of this step are the rows
+     * of the list (masses) rather than buckets. */
+    private double m_skin = 0;
+    private NeighbourList m_list;
+    private boolean m_listed = false;
+
+    /* Pairs of masses joined by at most m_hops interactions, which do not collide (none if 0) */
+    private int m_hops = 0;
+    private ExclusionList m_excluded;
+
+    private final CollisionStats m_stats = new CollisionStats();
+
+    /* Largest cell size relative to the radius used to choose it (two diameters) */
+    private static final double CELL_RADII = 4;
 
-        int p1;
-        int p2;
-
-        Pair(int a, int b) {
-            p1 = a;
-            p2 = b;
-        }
+    /**
+     * Setup an auto-collider system for a given physical model.
+     * @param mdl the model.
+     * @param K stiffness of autocollision interactions
+     * @param Z damping of autocollision interactions
+     */
+    public AutoCollider(PhyModel mdl, double K, double Z){
+        // save the model reference
+        this.m_model = mdl;
+        m_K = K;
+        m_Z = Z;
     }
 
     /**
      * Setup an auto-collider system for a given physical model.
+     * The grid of cells is now unbounded and sized from the radii of the masses: the voxel size and
+     * dimensions are no longer used.
      * @param mdl the model.
-     * @param size the size of individual voxels
-     * @param nbX voxels along X dimension
-     * @param nbY voxels along Y dimension
-     * @param nbZ voxels along Z dimension
+     * @param size the size of individual voxels (unused)
+     * @param nbX voxels along X dimension (unused)
+     * @param nbY voxels along Y dimension (unused)
+     * @param nbZ voxels along Z dimension (unused)
      * @param K stiffness of autocollision interactions
      * @param Z damping of autocollision interactions
      */
     public AutoCollider(PhyModel mdl, double size, int nbX, int nbY, int nbZ, double K, double Z){
-        // save the model reference
-        this.m_model = mdl;
+        this(mdl, K, Z);
+    }
 
-        int nbMat = m_model.getNumberOfMasses();
+    /**
+     * Set the skin of the neighbour list: the pairs of masses closer than their contact distance
+     * plus the skin are gathered once, and only their contacts are computed until a mass has moved
+     * by half the skin. A larger skin means fewer rebuilds, but more pairs to compute at each step.
+     * @param skin the skin distance (0 to detect the collisions at each step).
+     */
+    public void setSkin(double skin){
+        m_skin = Math.max(0, skin);
+        if(m_skin > 0 && m_list == null)
+            m_list = new NeighbourList();
+        if(m_list != null)
+            m_list.invalidate();
+        // (the cells are sized for the enlarged masses)
+        m_cellVersion = -1;
+    }
 
-        // create collider structures for all mats
-        int counter = 0;
-        for(Mass m : mdl.getMassList()){
-            this.m_colliders.add(new MatCol(m, counter++));
-        }
+    /**
+     * Get the skin of the neighbour list.
+     * @return the skin distance (0 if collisions are detected at each step).
+     */
+    public double getSkin(){
+        return m_skin;
+    }
 
-        // Store dimension of the whole scene and voxel size as two PVectors
-        m_vSize = size;
-        m_bounds = new Vect3D(m_vSize * nbX, m_vSize * nbY, m_vSize * nbZ);
+    /**
+     * Exclude the pairs of masses joined by a chain of at most a number of interactions (springs of
+     * a mesh...) from the collisions. The pairs are found again when the topology changes.
+     * @param hops the number of interactions of the chains (0 to compute all pairs).
+     */
+    public void setExclusionHops(int hops){
+        m_hops = Math.max(0, hops);
+        if(m_hops > 0 && m_excluded == null)
+            m_excluded = new ExclusionList();
+        if(m_list != null)
+            m_list.invalidate();
+    }
 
-        m_dimX = nbX;
-        m_dimY = nbY;
-        m_dimZ = nbZ;
+    /**
+     * Get the number of interactions of the chains joining the masses excluded from the collisions.
+     * @return the number of interactions (0 if all pairs are computed).
+     */
+    public int getExclusionHops(){
+        return m_hops;
+    }
 
-        m_K = K;
-        m_Z = Z;
+    public CollisionStats getStats(){
+        return m_stats;
+    }
 
-        m_boxes = new Voxel[m_dimX][m_dimY][m_dimZ];
-        m_actives = new ArrayList<>();
+    public PhyModel getFirstModel(){
+        return m_model;
+    }
 
-        for (int i = 0; i < m_dimX; i++)
-            for (int j = 0; j < m_dimY; j++)
-                for (int k = 0; k < m_dimZ; k++)
-                    m_boxes[i][j][k] = new Voxel(i, j, k);
+    public PhyModel getSecondModel(){
+        return m_model;
+    }
 
+    /**
+     * Get the size of the cells (0 until the masses are first tagged).
+     * @return the cell size.
+     */
+    double getCellSize(){
+        return m_cellSize;
+    }
 
-        m_colTable = new boolean[nbMat][nbMat];
-        for (int i = 0; i < nbMat; i++)
-            for (int j = 0; j < nbMat; j++)
-                m_colTable[i][j] = false;
+    public void runCollisions(){
+        generateSpaceTags();
+        computeCollisions();
+    }
 
+    public int detectContacts(){
+        generateSpaceTags();
+        return getNumberOfRows();
     }
 
+    /**
+     * Get the cells currently holding masses (for display).
+     * @return a space print per cell.
+     */
     public ArrayList<SpacePrint> activeVoxelSpacePrints(){
         ArrayList<SpacePrint> spa = new ArrayList<>();
-        for (Voxel vox : m_actives) {
-            SpacePrint tmp = new SpacePrint();
-            tmp.set((vox.idX  - Math.floor(m_dimX*0.5)) * m_vSize,
-                    (vox.idX + 1 - Math.floor(m_dimX*0.5)) * m_vSize,
-                    (vox.idY  - Math.floor(m_dimY*0.5)) * m_vSize,
-                    (vox.idY + 1 - Math.floor(m_dimY*0.5)) * m_vSize,
-                    (vox.idZ -  Math.floor(m_dimZ*0.5)) * m_vSize,
-                    (vox.idZ + 1 - Math.floor(m_dimZ*0.5)) * m_vSize);
-            spa.add(tmp);
+        if(!(m_cellSize > 0))
+            return spa;
+        LongHashSet cells = new LongHashSet();
+        for(Mass m : m_model.getMassList()){
+            Vect3D pos = m.getPos();
+            double r = m.m_size;
+            for(long i = cell(pos.x - r); i <= cell(pos.x + r); i++)
+                for(long j = cell(pos.y - r); j <= cell(pos.y + r); j++)
+                    for(long k = cell(pos.z - r); k <= cell(pos.z + r); k++)
+                        if(cells.add((i & 0x1FFFFF) << 42 | (j & 0x1FFFFF) << 21 | (k & 0x1FFFFF))){
+                            SpacePrint tmp = new SpacePrint();
+                            tmp.set(i * m_cellSize, (i + 1) * m_cellSize,
+                                    j * m_cellSize, (j + 1) * m_cellSize,
+                                    k * m_cellSize, (k + 1) * m_cellSize);
+                            spa.add(tmp);
+                        }
         }
         return spa;
     }
 
+    /**
+     * Tag each mass with the cells overlapped by its bounding box, and group the tags by cell.
+     * In neighbour list mode, this is only done when the list has to be built again.
+     */
     public void generateSpaceTags() {
+        long start = System.nanoTime();
+        boolean tagged = tagMasses();
+        if(tagged)
+            m_stats.addDetection(m_nbBucketPairs, m_nbOccupied, System.nanoTime() - start);
+        else
+            m_stats.addDetection(m_listed ? m_list.getNumberOfPairs() : 0, 0, System.nanoTime() - start);
+    }
 
-        for (Voxel vox : m_actives) {
-            vox.clearParticles();
+    // Tagging of generateSpaceTags() (false if the masses were not tagged at this step).
+    private boolean tagMasses() {
+        ArrayList<Mass> masses = m_model.getMassList();
+        m_step++;
+        if(m_cellVersion != m_model.getTopologyVersion()){
+            m_cellSize = chooseCellSize(masses, m_skin / 2);
+            m_cellVersion = m_model.getTopologyVersion();
+            // (masses may have been replaced: the contacts history is dropped)
+            m_step++;
+            if(m_list != null)
+                m_list.invalidate();
         }
-        m_actives.clear();
-
-        for (int cur = 0; cur < m_model.getNumberOfMasses(); cur++) {
-
-            MatCol current = this.m_colliders.get(cur);
-            current.m_Out = false;
-            current.m_Inter = false;
-            current.clearVoxels();
-
-            Vect3D pos = current.getMass().getPos();
-            double radius = current.getMass().getParam(param.RADIUS);
-
-            int p_min = (int)Math.floor((pos.x - radius + m_bounds.x * 0.5)/m_vSize);
-            int r_min = (int)Math.floor((pos.y - radius + m_bounds.y * 0.5)/m_vSize);
-            int c_min = (int)Math.floor((pos.z - radius + m_bounds.z * 0.5)/m_vSize);
-            int p_max = (int)Math.floor((pos.x + radius + m_bounds.x*0.5)/m_vSize);
-            int r_max = (int)Math.floor((pos.y + radius + m_bounds.y*0.5)/m_vSize);
-            int c_max = (int)Math.floor((pos.z + radius + m_bounds.z*0.5)/m_vSize);
-
-            // If entirely out of bounds, skip test
-            if ((p_max < 0) || (p_min > m_dimX-1) ||
-                    (r_max < 0) || (r_min > m_dimY-1) ||
-                    (c_max < 0) || (c_min > m_dimZ-1)) {
-                //println("Is outside of scope, skipping : " + cur + ", " + pos);
-                current.m_Out = true;
-            } else if ((p_max >= m_dimX) || (p_min < 0) ||
-                    (r_max >= m_dimY) || (r_min < 0) ||
-                    (c_max >= m_dimZ) || (c_min < 0)) {
-                //println("Intersects with a border, be careful: " + cur + ", " + pos);
-                current.m_Inter = true;
-            }
-
-
-            if (!current.m_Out) {
-                for (int i = Math.max(p_min, 0); i <= Math.min(p_max, m_dimX-1); i++) {
-                    for (int j = Math.max(r_min, 0); j <= Math.min(r_max, m_dimY-1); j++) {
-                        for (int k = Math.max(c_min, 0); k <= Math.min(c_max, m_dimZ-1); k++) {
-
+        if(m_hops > 0 && !m_excluded.isValid(m_model.getRootModel(), m_hops)){
+            m_excluded.build(m_model.getRootModel(), masses, masses, m_hops);
+            if(m_list != null)
+                m_list.invalidate();
+        }
+        m_listed = m_skin > 0 && m_cellSize > 0;
+        if(m_listed && m_list.isValid(m_skin))
+            return false;
+        m_nbTags = 0;
+        m_nbBuckets = 0;
+        if(!(m_cellSize > 0))
+            return false;
+        // (masses enlarged by half the skin for the neighbour list)
+        double inflate = m_listed ? m_skin / 2 : 0;
+
+        if(m_tagFirst.length < masses.size() + 1)
+            m_tagFirst = new int[masses.size() + 1];
+        for(int cur = 0; cur < masses.size(); cur++){
+            m_tagFirst[cur] = m_nbTags;
+            Mass m = masses.get(cur);
+            Vect3D pos = m.m_pos;
+            double r = m.m_size + inflate;
+            long iMax = cell(pos.x + r), jMax = cell(pos.y + r), kMax = cell(pos.z + r);
+            for(long i = cell(pos.x - r); i <= iMax; i++)
+                for(long j = cell(pos.y - r); j <= jMax; j++)
+                    for(long k = cell(pos.z - r); k <= kMax; k++)
+                        addTag(i, j, k, cur);
+        }
+        m_tagFirst[masses.size()] = m_nbTags;
+
+        // Buckets: a power of two, about twice the number of tags (rehashed into at every step).
+        int nbBuckets = 16;
+        while(nbBuckets < 2 * m_nbTags)
+            nbBuckets <<= 1;
+        m_nbBuckets = nbBuckets;
+        if(m_bucketStart.length < nbBuckets + 1)
+            m_bucketStart = new int[nbBuckets + 1];
+        if(m_sortedMass.length < m_nbTags)
+            m_sortedMass = new int[m_tagMass.length];
+
+        // Counting sort of the tags by bucket (stable: masses stay in increasing order within a bucket).
+        Arrays.fill(m_bucketStart, 0, nbBuckets + 1, 0);
+        for(int t = 0; t < m_nbTags; t++)
+            m_tagBucket[t] &= nbBuckets - 1;
+        for(int t = 0; t < m_nbTags; t++)
+            m_bucketStart[m_tagBucket[t] + 1]++;
+        m_nbOccupied = 0;
+        m_nbBucketPairs = 0;
+        for(int b = 0; b < nbBuckets; b++){
+            long nb = m_bucketStart[b + 1];
+            if(nb > 0)
+                m_nbOccupied++;
+            m_nbBucketPairs += nb * (nb - 1) / 2;
+            m_bucketStart[b + 1] += m_bucketStart[b];
+        }
+        for(int t = 0; t < m_nbTags; t++){
+            int b = m_tagBucket[t];
+            // (m_bucketStart[b] is used as the insertion point, then shifted back below)
+            m_sortedMass[m_bucketStart[b]++] = m_tagMass[t];
+        }
+        for(int b = nbBuckets; b > 0; b--)
+            m_bucketStart[b] = m_bucketStart[b - 1];
+        m_bucketStart[0] = 0;
 
-                            //println(i + ", " + j + ", " + k);
+        if(m_listed)
+            buildList(masses);
+        return true;
+    }
 
-                            //current.addVoxel(new SpatHash(i, j, k));
-                            current.addVoxel(m_boxes[i][j][k]);
+    void computeCollisions() {
+        computeAllContacts(getNumberOfRows());
+    }
 
-                            //System.out.println("Mat nb: " + cur + ". " +i + ", "+ j +", " + k);
+    // Rows of this step: masses of the neighbour list, or buckets.
+    private int getNumberOfRows(){
+        return m_listed ? m_list.getNumberOfRows() : m_nbBuckets;
+    }
 
-                            m_boxes[i][j][k].addParticle(current.getMass(), cur);
+    public ContactBuffer getBuffer(int chunk){
+        while(m_buffers.size() <= chunk)
+            m_buffers.add(new ContactBuffer());
+        return m_buffers.get(chunk);
+    }
 
-                            if (!m_actives.contains(m_boxes[i][j][k]))
-                                m_actives.add(m_boxes[i][j][k]);
-                        }
+    public void computeContacts(int from, int to, ContactBuffer out) {
+        ArrayList<Mass> masses = m_model.getMassList();
+        out.begin(m_step);
+        int tested = 0;
+
+        if(m_listed){
+            for(int i = from; i < to; i++){
+                Mass m1 = masses.get(i);
+                for(int p = m_list.rowStart(i); p < m_list.rowEnd(i); p++){
+                    // (excluded pairs are not listed, but groups may have changed since the build)
+                    Mass m2 = masses.get(m_list.getCol(p));
+                    if(m1.canCollideWith(m2)){
+                        tested++;
+                        out.add(m1, m2, m_K, m_Z);
                     }
                 }
             }
-            // Enf of per-mass loop
+            out.addTested(tested);
+            return;
         }
-        // End of SpaceTags method
-    }
-
-    void computeCollisions() {
 
-        //MatCol current;
-        boolean padding = false;
-
-        for (Pair p : m_activeCols) {
-            m_colTable[p.p1][p.p2] = false;
+        for(int b = from; b < to; b++){
+            int start = m_bucketStart[b];
+            int end = m_bucketStart[b + 1];
+            // If there is only one particle in the cell, no collisions to run
+            for(int s1 = start; s1 < end - 1; s1++){
+                int cur = m_sortedMass[s1];
+                // (a mass tagged in several cells of the bucket is listed several times in a row)
+                if(s1 > start && cur == m_sortedMass[s1 - 1])
+                    continue;
+                Mass m1 = masses.get(cur);
+                for(int s2 = s1 + 1; s2 < end; s2++){
+                    int second = m_sortedMass[s2];
+                    if(second == m_sortedMass[s2 - 1])
+                        continue;
+                    Mass m2 = masses.get(second);
+                    if(!m1.canCollideWith(m2))
+                        continue;
+                    tested++;
+                    // Only touching masses are computed, and only once (they may share several buckets).
+                    double d = m1.m_size + m2.m_size;
+                    if(m1.m_pos.sqDist(m2.m_pos) >= d * d)
+                        continue;
+                    // (joined masses are only looked up once touching: most candidates are not)
+                    if(m_hops > 0 && m_excluded.contains(m1, m2))
+                        continue;
+                    if(sharedBefore(cur, second, b))
+                        continue;
+                    out.add(m1, m2, m_K, m_Z);
+                }
+            }
         }
-        m_activeCols.clear();
-
-
-        for(MatCol current : m_colliders){
-            // For each SpaceHash associated to this MAT
-            for (Voxel curVox : current.getActiveVoxList()) {
-
-                // Create some "soft" borders to avoid crazy behaviour
-                if ((curVox.idX<= 0)||(curVox.idX >= m_dimX-1) ||
-                        (curVox.idY<= 0)||(curVox.idY >= m_dimY-1) ||
-                        (curVox.idZ<= 0)||(curVox.idZ >= m_dimZ-1)) {
-                    padding = true;
-                    contactLink.setParam(param.STIFFNESS, 0.001 * m_K);
-                    contactLink.setParam(param.DAMPING, 0.001 * m_Z);
-                } else {
+        out.addTested(tested);
+    }
 
-                    padding = false;
-                    contactLink.setParam(param.STIFFNESS,  m_K);
-                    contactLink.setParam(param.DAMPING, m_Z);
+    // Gather the pairs closer than their contact distance plus the skin (each once, as in
+    // computeContacts()), and track the masses.
+    private void buildList(ArrayList<Mass> masses){
+        m_list.clear();
+        for(int b = 0; b < m_nbBuckets; b++){
+            int start = m_bucketStart[b];
+            int end = m_bucketStart[b + 1];
+            for(int s1 = start; s1 < end - 1; s1++){
+                int cur = m_sortedMass[s1];
+                if(s1 > start && cur == m_sortedMass[s1 - 1])
+                    continue;
+                Mass m1 = masses.get(cur);
+                for(int s2 = s1 + 1; s2 < end; s2++){
+                    int second = m_sortedMass[s2];
+                    if(second == m_sortedMass[s2 - 1])
+                        continue;
+                    Mass m2 = masses.get(second);
+                    if(m_hops > 0 && m_excluded.contains(m1, m2))
+                        continue;
+                    double d = m1.m_size + m2.m_size + m_skin;
+                    if(m1.m_pos.sqDist(m2.m_pos) >= d * d)
+                        continue;
+                    if(sharedBefore(cur, second, b))
+                        continue;
+                    m_list.add(cur, second);
                 }
+            }
+        }
+        m_list.build(masses.size());
+        m_list.track(masses);
+    }
 
+    // Check if two masses share a bucket lower than a given one.
+    private boolean sharedBefore(int m1, int m2, int bucket){
+        for(int t1 = m_tagFirst[m1]; t1 < m_tagFirst[m1 + 1]; t1++){
+            int b = m_tagBucket[t1];
+            if(b >= bucket)
+                continue;
+            for(int t2 = m_tagFirst[m2]; t2 < m_tagFirst[m2 + 1]; t2++)
+                if(m_tagBucket[t2] == b)
+                    return true;
+        }
+        return false;
+    }
 
-                // If there is only one particle in the voxel, no collisions to run
-                if (curVox.getNumberOfParticles() < 2) {
-                    //System.out.println("\t Single particle, nothing to do: " + curVox.getNumberOfParticles());
-                }
-                // Otherwise we need to calculate some things
-                else {
-                    //println("\tFound several particles, looking into it : " + curVox.getNumberOfParticles());
-                    // Go through all MAT indexes associated with this Voxel
-
-                    for(Map.Entry<Integer, Mass> entry : curVox.getParticleList().entrySet()){
-                        int second = entry.getKey();
-                        Mass m2 = entry.getValue();
-
-                        int cur = current.getIndex();
-
-                        if(second > cur){
-                            //println("\t\t This seems valid");
-                            if (!m_colTable[cur][second]) {
-
-                                //System.out.println("\t\t Not yet been calculated, lets GO !");
-                                m_activeCols.add(new Pair(cur, second));
-                                m_colTable[cur][second] = true;
-
-                                contactLink.connect(current.getMass(), m2);
-                                contactLink.forceRecalculateVelocity();
-                                contactLink.compute();
-                            } else {
-                                //System.out.println("\t\t This collision has already been taken care of");
-                            }
-                        }
-
-                    }
-                }
-            }
+    private void addTag(long i, long j, long k, int mass){
+        if(m_nbTags == m_tagMass.length){
+            m_tagMass = Arrays.copyOf(m_tagMass, 2 * m_nbTags);
+            m_tagBucket = Arrays.copyOf(m_tagBucket, 2 * m_nbTags);
         }
+        m_tagBucket[m_nbTags] = (int)(i * 73856093L ^ j * 19349663L ^ k * 83492791L) & 0x7FFFFFFF;
+        m_tagMass[m_nbTags++] = mass;
     }
 
+    private long cell(double v){
+        return (long)Math.floor(v / m_cellSize);
+    }
+
+    /*
+     * Cells of two diameters of the radius reached by 90% of the masses (enlarged by a margin): most
+     * masses overlap one to eight cells, and the few larger ones are tagged in as many cells as needed.
+     */
+    private static double chooseCellSize(ArrayList<Mass> masses, double margin){
+        double[] radii = new double[masses.size()];
+        int nb = 0;
+        for(Mass m : masses)
+            if(m.m_size > 0)
+                radii[nb++] = m.m_size;
+        // Masses without radius never touch anything.
+        if(nb == 0)
+            return 0;
+        Arrays.sort(radii, 0, nb);
+        return CELL_RADII * (radii[(int)(0.9 * (nb - 1))] + margin);
+    }
 }
@@ -0,0 +1,117 @@
+package miPhysics.Engine;
+
+/**
+ * Worker pool whose threads sleep on a monitor between tasks.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class BlockingWorkerPool implements WorkerPool {
+
+    private final Thread[] m_threads;
+    private final Object m_lock = new Object();
+
+    private WorkerPool.Task m_task;
+    private long m_generation = 0;
+    private int m_pending = 0;
+    private boolean m_shutdown = false;
+    private Throwable m_error;
+
+    /**
+     * Create a worker pool.
+     * @param nbWorkers number of workers, including the thread that will call execute().
+     */
+    BlockingWorkerPool(int nbWorkers){
+        m_threads = new Thread[Math.max(nbWorkers, 1) - 1];
+        for(int i = 0; i < m_threads.length; i++){
+            final int worker = i + 1;
+            m_threads[i] = new Thread(() -> work(worker), "miPhysics-worker-" + worker);
+            m_threads[i].setDaemon(true);
+            m_threads[i].start();
+        }
+    }
+
+    public int getNumberOfWorkers(){
+        return m_threads.length + 1;
+    }
+
+    public int getMinimumTaskSize(){
+        return 512;
+    }
+
+    public void execute(WorkerPool.Task task){
+        synchronized (m_lock){
+            m_task = task;
+            m_pending = m_threads.length;
+            m_error = null;
+            m_generation++;
+            m_lock.notifyAll();
+        }
+
+        Throwable error = null;
+        try {
+            task.run(0, getNumberOfWorkers());
+        } catch (Throwable t) {
+            error = t;
+        }
+
+        synchronized (m_lock){
+            boolean interrupted = false;
+            while(m_pending > 0) {
+                try {
+                    m_lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted)
+                Thread.currentThread().interrupt();
+            if(error == null)
+                error = m_error;
+            m_task = null;
+        }
+        if(error != null)
+            throw new RuntimeException("Error in parallel computation: " + error, error);
+    }
+
+    public void shutdown(){
+        synchronized (m_lock){
+            m_shutdown = true;
+            m_lock.notifyAll();
+        }
+    }
+
+    private void work(int worker){
+        long seen = 0;
+        while(true){
+            WorkerPool.Task task;
+            synchronized (m_lock){
+                while(m_generation == seen && !m_shutdown){
+                    try {
+                        m_lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(m_shutdown)
+                    return;
+                seen = m_generation;
+                task = m_task;
+            }
+
+            Throwable error = null;
+            try {
+                task.run(worker, getNumberOfWorkers());
+            } catch (Throwable t) {
+                error = t;
+            }
+
+            synchronized (m_lock){
+                if(error != null && m_error == null)
+                    m_error = error;
+                if(--m_pending == 0)
+                    m_lock.notifyAll();
+            }
+        }
+    }
+}
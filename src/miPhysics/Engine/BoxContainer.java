@@ -0,0 +1,83 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+
+/**
+ * Box container: six axis-aligned walls keeping masses inside a box.
+ * Same force as six PlaneContact3D interactions on each mass.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class BoxContainer extends Container {
+
+    private Vect3D m_min = new Vect3D();
+    private Vect3D m_max = new Vect3D();
+
+    /**
+     * Create a box container for all the masses of a physical model.
+     * @param mdl the physical model.
+     * @param min lower corner of the box.
+     * @param max upper corner of the box.
+     * @param K_param stiffness of the walls.
+     * @param Z_param damping of the walls.
+     */
+    public BoxContainer(PhyModel mdl, Vect3D min, Vect3D max, double K_param, double Z_param){
+        super(mdl, K_param, Z_param);
+        setBounds(min, max);
+    }
+
+    /**
+     * Create a box container for a set of masses.
+     * @param masses the masses.
+     * @param min lower corner of the box.
+     * @param max upper corner of the box.
+     * @param K_param stiffness of the walls.
+     * @param Z_param damping of the walls.
+     */
+    public BoxContainer(ArrayList<Mass> masses, Vect3D min, Vect3D max, double K_param, double Z_param){
+        super(masses, K_param, Z_param);
+        setBounds(min, max);
+    }
+
+    /**
+     * Move the walls.
+     * @param min lower corner of the box.
+     * @param max upper corner of the box.
+     */
+    public void setBounds(Vect3D min, Vect3D max){
+        m_min.set(min);
+        m_max.set(max);
+    }
+
+    public Vect3D getMin(){
+        return new Vect3D(m_min);
+    }
+    public Vect3D getMax(){
+        return new Vect3D(m_max);
+    }
+
+    void apply(ArrayList<Mass> masses){
+        for(int i = 0; i < masses.size(); i++){
+            Mass m = masses.get(i);
+            Vect3D pos = m.m_pos;
+            Vect3D posR = m.m_posR;
+            double r = m.m_size;
+            m.m_frc.x += wallForce(pos.x, posR.x, r, m_min.x, m_max.x);
+            m.m_frc.y += wallForce(pos.y, posR.y, r, m_min.y, m_max.y);
+            m.m_frc.z += wallForce(pos.z, posR.z, r, m_min.z, m_max.z);
+        }
+    }
+
+    // Force of the lower and upper walls of one axis on a mass.
+    private double wallForce(double pos, double posR, double r, double lo, double hi){
+        double frc = 0;
+        double threshold = pos - lo - r;
+        if(threshold < 0)
+            frc += -threshold * m_K - (pos - posR) * m_Z;
+        threshold = hi - pos - r;
+        if(threshold < 0)
+            frc -= -threshold * m_K + (pos - posR) * m_Z;
+        return frc;
+    }
+}
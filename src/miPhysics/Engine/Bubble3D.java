@@ -8,7 +8,7 @@ package miPhysics.Engine;
  *
  */
 public class Bubble3D extends Interaction {
-    private boolean prev_state = false;
+    boolean prev_state = false;
     /**
      * Create the Bubble Interaction.
      * @param distance distance (radius) between both Mats.
@@ -45,13 +45,13 @@ public class Bubble3D extends Interaction {
         switch(p){
             case STIFFNESS:
                 this.m_K = val;
-                return 0;
+                return paramChanged();
             case DAMPING:
                 this.m_Z = val;
-                return 0;
+                return paramChanged();
             case DISTANCE:
                 this.changeDRest(val);
-                return 0;
+                return paramChanged();
             default:
                 System.out.println("Cannot apply param " + val + " for "
                         + this + ": no " + p + " parameter");
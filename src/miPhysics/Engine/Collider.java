@@ -0,0 +1,76 @@
+package miPhysics.Engine;
+
+/**
+ * Common interface of the colliders run by the collision engine.
+ *
+ * Besides running its collisions directly, a collider can compute them in stages: it first finds
+ * the candidate masses, then computes the contacts of its "rows" (parts of its candidates) into
+ * contact buffers, which the engine applies to the masses afterwards. Rows are computed by chunks of
+ * ContactBuffer.ROWS rows, each chunk into its own buffer; chunks can be computed concurrently,
+ * since they only read the masses.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+interface Collider {
+
+    /**
+     * Detect and compute the collisions for the current step.
+     */
+    void runCollisions();
+
+    /**
+     * Find the candidate masses for the current step (first stage).
+     * @return the number of rows to compute.
+     */
+    int detectContacts();
+
+    /**
+     * Compute the contacts of a range of rows (second stage), without applying their forces.
+     * @param from first row.
+     * @param to row after the last one.
+     * @param out the buffer receiving the contacts, in the order in which they must be applied.
+     */
+    void computeContacts(int from, int to, ContactBuffer out);
+
+    /**
+     * Get the buffer of a chunk of rows. A chunk always uses the same buffer, which keeps its
+     * contacts from one step to the next. Buffers are created on demand: not to be called concurrently.
+     * @param chunk the chunk (rows from chunk * ContactBuffer.ROWS).
+     * @return the buffer.
+     */
+    ContactBuffer getBuffer(int chunk);
+
+    /**
+     * Compute the contacts of all rows and apply their forces, chunk after chunk.
+     * @param rows the number of rows.
+     */
+    default void computeAllContacts(int rows){
+        CollisionStats stats = getStats();
+        for(int from = 0; from < rows; from += ContactBuffer.ROWS){
+            long start = System.nanoTime();
+            ContactBuffer out = getBuffer(from / ContactBuffer.ROWS);
+            computeContacts(from, Math.min(rows, from + ContactBuffer.ROWS), out);
+            out.apply();
+            stats.addResponse(out.getTested(), out.size(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the counters of this collider (updated by the collision engine at the end of each step).
+     * @return the counters.
+     */
+    CollisionStats getStats();
+
+    /**
+     * Get the models whose masses are affected by this collider.
+     * @return the first model.
+     */
+    PhyModel getFirstModel();
+
+    /**
+     * Get the models whose masses are affected by this collider (same as the first one for auto-collisions).
+     * @return the second model.
+     */
+    PhyModel getSecondModel();
+}
@@ -1,15 +1,68 @@
 package miPhysics.Engine;
 
+import miPhysics.Utility.SpacePrint;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The global collision engine for the physics context. It can handle both collisions between
  * two sub-models (physical models) and auto-collision of the masses inside a physical model.
+ *
+ * Collisions between models go through a broadphase: a tree over the space prints of the models
+ * gives the pairs of models that overlap at each step, and only the colliders of these pairs look
+ * for colliding masses. Colliders are still run in the order in which they were created.
+ *
+ * With a worker pool, collisions are computed in three stages: the colliders find their candidate
+ * masses concurrently, then the contacts are computed concurrently into buffers (one per chunk of
+ * rows of a collider, chunks of a fixed size), and the buffers are finally applied to the masses
+ * in order. The forces are summed in the same order as by the serial computation, so the result
+ * does not depend on the number of threads.
  */
 public class CollisionEngine {
 
     ArrayList<MassCollider> m_colliders = new ArrayList<>();
     ArrayList<AutoCollider> m_autoColliders = new ArrayList<>();
+    ArrayList<Container> m_containers = new ArrayList<>();
+
+    /* Parallel computation: colliders run at this step (and their number of rows), chunks of rows
+     * (collider, first row, row after the last) and the contact buffer of each chunk (owned by its
+     * collider) */
+    private Collider[] m_running = new Collider[16];
+    private int[] m_rows = new int[16];
+    private int m_nbRunning;
+    private int[] m_chunks = new int[3 * 16];
+    private ContactBuffer[] m_buffers = new ContactBuffer[16];
+    private long[] m_chunkNanos = new long[16];
+    private int m_nbChunks;
+    private final AtomicInteger m_cursor = new AtomicInteger();
+    private final WorkerPool.Task m_detectTask = this::detectTask;
+    private final WorkerPool.Task m_contactTask = this::contactTask;
+
+    /* Broadphase (built lazily): tree over the space prints of the models of the colliders, the
+     * colliders of each model pair (sorted by pair key), and the colliders whose models overlap at
+     * the current step (m_active, sorted) */
+    private AABBTree m_tree;
+    private PhyModel[] m_treeModels;
+    private int[] m_treeLeaf;
+    private long[] m_pairKeys;
+    private int[] m_pairColliders;
+    private boolean[] m_overlapping;
+    private int[] m_active;
+    private int[] m_prevActive;
+    private int m_nbActive;
+
+    /* Totals of all colliders over the last step, and number of steps kept by the histories */
+    private final CollisionStats m_stats = new CollisionStats();
+    private int m_historySteps = 0;
+
+    /* Skin of the neighbour lists of the colliders (0: collisions detected at each step) */
+    private double m_skin = 0;
+
+    /* Pairs of masses joined by at most m_hops interactions are not collided (none if 0) */
+    private int m_hops = 0;
 
     public CollisionEngine(){
 
@@ -25,6 +78,7 @@ public class CollisionEngine {
     public void addCollision(PhyModel m1, PhyModel m2, double stiffness, double damping){
 
         recursiveColliders(m1, m2, stiffness, damping,  m_colliders);
+        m_tree = null;
 
         //MassCollider mc = new MassCollider(m1, m2);
         //mc.setStiffness(stiffness);
@@ -35,15 +89,174 @@ public class CollisionEngine {
     /**
      * Register auto-collision between the masses of a physical model.
      * @param mdl the physical model.
-     * @param size size of the auto-collision voxels.
-     * @param dim gid size (number of voxels).
+     * @param stiffness stiffness of collisions.
+     * @param damping damping of collisions.
+     */
+    public void addAutoCollision(PhyModel mdl, double stiffness, double damping){
+        AutoCollider ac = new AutoCollider(mdl, stiffness, damping);
+        ac.setSkin(m_skin);
+        ac.setExclusionHops(m_hops);
+        ac.getStats().enableHistory(m_historySteps);
+        m_autoColliders.add(ac);
+    }
+
+    /**
+     * Register auto-collision between the masses of a physical model.
+     * The auto-collision grid is now unbounded and sized from the radii of the masses: the voxel
+     * size and grid size are no longer used.
+     * @param mdl the physical model.
+     * @param size size of the auto-collision voxels (unused).
+     * @param dim gid size (number of voxels, unused).
      * @param stiffness stiffness of collisions.
      * @param damping damping of collisions.
      */
     public void addAutoCollision(PhyModel mdl, double size, int dim, double stiffness, double damping){
-        m_autoColliders.add(new AutoCollider(mdl, size, dim, dim, dim, stiffness, damping));
+        addAutoCollision(mdl, stiffness, damping);
+    }
+
+
+    /**
+     * Register an analytic container (half-space, box, sphere...), applied to its masses after the
+     * collisions.
+     * @param c the container.
+     * @return the container.
+     */
+    public Container addContainer(Container c){
+        m_containers.add(c);
+        return c;
+    }
+
+    /**
+     * Keep all the masses of a physical model on one side of a plane.
+     * @param mdl the physical model.
+     * @param normal normal of the plane, pointing to the inside.
+     * @param offset position of the plane along its normal.
+     * @param stiffness stiffness of the wall.
+     * @param damping damping of the wall.
+     * @return the container.
+     */
+    public HalfSpaceContainer addHalfSpace(PhyModel mdl, Vect3D normal, double offset, double stiffness, double damping){
+        HalfSpaceContainer c = new HalfSpaceContainer(mdl, normal, offset, stiffness, damping);
+        m_containers.add(c);
+        return c;
+    }
+
+    /**
+     * Keep all the masses of a physical model inside an axis-aligned box.
+     * @param mdl the physical model.
+     * @param min lower corner of the box.
+     * @param max upper corner of the box.
+     * @param stiffness stiffness of the walls.
+     * @param damping damping of the walls.
+     * @return the container.
+     */
+    public BoxContainer addBoxContainer(PhyModel mdl, Vect3D min, Vect3D max, double stiffness, double damping){
+        BoxContainer c = new BoxContainer(mdl, min, max, stiffness, damping);
+        m_containers.add(c);
+        return c;
+    }
+
+    /**
+     * Keep all the masses of a physical model inside a sphere.
+     * @param mdl the physical model.
+     * @param center center of the sphere.
+     * @param radius radius of the sphere.
+     * @param stiffness stiffness of the wall.
+     * @param damping damping of the wall.
+     * @return the container.
+     */
+    public SphereContainer addSphereContainer(PhyModel mdl, Vect3D center, double radius, double stiffness, double damping){
+        SphereContainer c = new SphereContainer(mdl, center, radius, stiffness, damping);
+        m_containers.add(c);
+        return c;
+    }
+
+    /**
+     * Remove a container.
+     * @param c the container.
+     * @return 0 if success, -1 otherwise.
+     */
+    public int removeContainer(Container c){
+        return m_containers.remove(c) ? 0 : -1;
+    }
+
+    /**
+     * Set the skin of the neighbour lists of all colliders (current and future ones). With a skin,
+     * each collider gathers the pairs of masses closer than their contact distance plus the skin,
+     * and only computes these pairs until one of its masses has moved by half the skin: collisions
+     * are then only detected every few steps.
+     * @param skin the skin distance (0 to detect the collisions at each step).
+     */
+    public void setNeighbourSkin(double skin){
+        m_skin = Math.max(0, skin);
+        for(MassCollider mc : m_colliders)
+            mc.setSkin(m_skin);
+        for(AutoCollider ac : m_autoColliders)
+            ac.setSkin(m_skin);
+    }
+
+    /**
+     * Get the skin of the neighbour lists of the colliders.
+     * @return the skin distance (0 if collisions are detected at each step).
+     */
+    public double getNeighbourSkin(){
+        return m_skin;
+    }
+
+    /**
+     * Exclude the pairs of masses joined by a chain of at most a number of interactions (springs of
+     * a mesh...) from all colliders (current and future ones). The pairs are found from the topology
+     * of the models, and only found again when it changes.
+     * @param hops the number of interactions of the chains (0 to compute all pairs).
+     */
+    public void setExclusionHops(int hops){
+        m_hops = Math.max(0, hops);
+        for(MassCollider mc : m_colliders)
+            mc.setExclusionHops(m_hops);
+        for(AutoCollider ac : m_autoColliders)
+            ac.setExclusionHops(m_hops);
+    }
+
+    /**
+     * Get the number of interactions of the chains joining the masses excluded from the collisions.
+     * @return the number of interactions (0 if all pairs are computed).
+     */
+    public int getExclusionHops(){
+        return m_hops;
+    }
+
+    /**
+     * Get the counters of all the colliders over the last step (totals): pairs of masses at each phase,
+     * contacts, occupied cells, and time spent in detection (broadphase included) and in response
+     * (containers included). The counters of each collider are given by its getStats().
+     * @return the counters.
+     */
+    public CollisionStats getStats(){
+        return m_stats;
+    }
+
+    /**
+     * Keep histograms of the last steps in the counters of the engine and of all colliders (current
+     * and future ones).
+     * @param steps number of steps kept (0 to drop the histograms).
+     */
+    public void enableStatsHistory(int steps){
+        m_historySteps = Math.max(0, steps);
+        m_stats.enableHistory(m_historySteps);
+        for(MassCollider mc : m_colliders)
+            mc.getStats().enableHistory(m_historySteps);
+        for(AutoCollider ac : m_autoColliders)
+            ac.getStats().enableHistory(m_historySteps);
     }
 
+    /**
+     * Get the number of colliders whose models overlapped at the last step (pairs of models found by
+     * the broadphase).
+     * @return number of colliders.
+     */
+    public int getNumberOfOverlappingColliders(){
+        return m_nbActive;
+    }
 
     private void recursiveColliders(PhyModel m1, PhyModel m2, double K, double Z,  ArrayList<MassCollider> colList){
         for(PhyModel pm1 : m1.getSubModels()){
@@ -57,28 +270,284 @@ public class CollisionEngine {
             MassCollider mc = new MassCollider(m1, m2);
             mc.setStiffness(K);
             mc.setDamping(Z);
+            mc.setSkin(m_skin);
+            mc.setExclusionHops(m_hops);
+            mc.getStats().enableHistory(m_historySteps);
             colList.add(mc);
         }
     }
 
     /**
-     * Compute all collusions and auto-collisions.
+     * Compute all collusions and auto-collisions, and apply the containers.
      */
     public void runCollisions(){
-        for(MassCollider mc : m_colliders){
+        runCollisions(null, null);
+    }
+
+    /**
+     * Compute all collisions and auto-collisions, distributing the detection and the contacts over
+     * the workers. The result is the same as with runCollisions(), whatever the number of workers.
+     * @param workers the worker pool (null to compute serially).
+     * @param kernel the compiled model holding the state of the masses (null if computed as objects):
+     * only the masses that the colliders and containers work on are handed over to the objects.
+     */
+    void runCollisions(WorkerPool workers, CompiledModel kernel){
+        long start = System.nanoTime();
+        updateBroadphase();
+        if(kernel != null)
+            handOver(kernel);
+        m_stats.addDetection(0, 0, System.nanoTime() - start);
+        if(workers == null)
+            computeCollisions();
+        else
+            computeCollisions(workers);
+        applyContainers();
+        if(kernel != null)
+            kernel.takeBack();
+        endStep();
+    }
+
+    // Masses of the overlapping colliders, of the auto-colliders and of the containers.
+    private void handOver(CompiledModel kernel){
+        for(int k = 0; k < m_nbActive; k++){
+            MassCollider mc = m_colliders.get(m_active[k]);
+            kernel.handOver(mc.getFirstModel());
+            kernel.handOver(mc.getSecondModel());
+        }
+        for(int i = 0; i < m_autoColliders.size(); i++)
+            kernel.handOver(m_autoColliders.get(i).getFirstModel());
+        for(int i = 0; i < m_containers.size(); i++)
+            kernel.handOver(m_containers.get(i).getMasses());
+    }
+
+    private void computeCollisions(){
+        for(int k = 0; k < m_nbActive; k++){
+            MassCollider mc = m_colliders.get(m_active[k]);
             mc.detectCollisions();
             mc.computeCollisions();
         }
-        for(AutoCollider ac : m_autoColliders){
+        for(int i = 0; i < m_autoColliders.size(); i++){
+            AutoCollider ac = m_autoColliders.get(i);
             ac.generateSpaceTags();
             ac.computeCollisions();
         }
     }
 
+    private void computeCollisions(WorkerPool workers){
+        // Candidate masses of each collider.
+        int nb = m_nbActive + m_autoColliders.size();
+        if(m_running.length < nb){
+            m_running = new Collider[2 * nb];
+            m_rows = new int[2 * nb];
+        }
+        m_nbRunning = 0;
+        for(int k = 0; k < m_nbActive; k++)
+            m_running[m_nbRunning++] = m_colliders.get(m_active[k]);
+        for(int i = 0; i < m_autoColliders.size(); i++)
+            m_running[m_nbRunning++] = m_autoColliders.get(i);
+        if(m_nbRunning > 1){
+            m_cursor.set(0);
+            workers.execute(m_detectTask);
+        }
+        else if(m_nbRunning == 1)
+            m_rows[0] = m_running[0].detectContacts();
+
+        // Contacts, by chunks of rows.
+        m_nbChunks = 0;
+        int totalRows = 0;
+        for(int c = 0; c < m_nbRunning; c++){
+            for(int from = 0; from < m_rows[c]; from += ContactBuffer.ROWS)
+                addChunk(c, from, Math.min(m_rows[c], from + ContactBuffer.ROWS));
+            totalRows += m_rows[c];
+        }
+        m_cursor.set(0);
+        if(m_nbChunks > 1 && totalRows >= workers.getMinimumTaskSize())
+            workers.execute(m_contactTask);
+        else
+            contactTask(0, 1);
+
+        // Forces, in the order of the serial computation.
+        for(int k = 0; k < m_nbChunks; k++){
+            long start = System.nanoTime();
+            ContactBuffer buffer = m_buffers[k];
+            buffer.apply();
+            m_running[m_chunks[3 * k]].getStats().addResponse(buffer.getTested(), buffer.size(),
+                    m_chunkNanos[k] + System.nanoTime() - start);
+        }
+        Arrays.fill(m_running, 0, m_nbRunning, null);
+        Arrays.fill(m_buffers, 0, m_nbChunks, null);
+    }
+
+    // Containers, one pass each over their masses (after the collisions, in creation order).
+    private void applyContainers(){
+        if(m_containers.isEmpty())
+            return;
+        long start = System.nanoTime();
+        for(int i = 0; i < m_containers.size(); i++)
+            m_containers.get(i).apply();
+        m_stats.addResponse(0, 0, System.nanoTime() - start);
+    }
+
+    // Finish the counters of the step (colliders that did not run count nothing).
+    private void endStep(){
+        for(int i = 0; i < m_colliders.size(); i++){
+            CollisionStats s = m_colliders.get(i).getStats();
+            s.endStep();
+            m_stats.addLast(s);
+        }
+        for(int i = 0; i < m_autoColliders.size(); i++){
+            CollisionStats s = m_autoColliders.get(i).getStats();
+            s.endStep();
+            m_stats.addLast(s);
+        }
+        m_stats.endStep();
+    }
+
+    private void detectTask(int worker, int nbWorkers){
+        int c;
+        while((c = m_cursor.getAndIncrement()) < m_nbRunning)
+            m_rows[c] = m_running[c].detectContacts();
+    }
+
+    private void contactTask(int worker, int nbWorkers){
+        int k;
+        while((k = m_cursor.getAndIncrement()) < m_nbChunks){
+            long start = System.nanoTime();
+            m_running[m_chunks[3 * k]].computeContacts(m_chunks[3 * k + 1], m_chunks[3 * k + 2], m_buffers[k]);
+            m_chunkNanos[k] = System.nanoTime() - start;
+        }
+    }
+
+    private void addChunk(int collider, int from, int to){
+        if(3 * m_nbChunks + 3 > m_chunks.length)
+            m_chunks = Arrays.copyOf(m_chunks, 2 * m_chunks.length);
+        if(m_nbChunks == m_buffers.length){
+            m_buffers = Arrays.copyOf(m_buffers, 2 * m_nbChunks);
+            m_chunkNanos = Arrays.copyOf(m_chunkNanos, 2 * m_nbChunks);
+        }
+        m_buffers[m_nbChunks] = m_running[collider].getBuffer(from / ContactBuffer.ROWS);
+        m_chunks[3 * m_nbChunks] = collider;
+        m_chunks[3 * m_nbChunks + 1] = from;
+        m_chunks[3 * m_nbChunks + 2] = to;
+        m_nbChunks++;
+    }
+
+    /**
+     * Find the colliders whose models have overlapping space prints at this step (m_active), and
+     * clear the ones that stopped overlapping.
+     */
+    private void updateBroadphase(){
+        if(m_tree == null || m_overlapping.length != m_colliders.size())
+            buildBroadphase();
+
+        // Leaves are only moved when the space print of their model has been refitted.
+        for(int i = 0; i < m_treeModels.length; i++){
+            SpacePrint sp = m_treeModels[i].getSpacePrint();
+            int leaf = m_treeLeaf[i];
+            if(!sp.isValid()){
+                if(leaf >= 0)
+                    m_tree.remove(leaf);
+                m_treeLeaf[i] = -1;
+            }
+            else if(leaf < 0)
+                m_treeLeaf[i] = m_tree.insert(i, sp);
+            else if(!m_tree.matches(leaf, sp))
+                m_tree.move(leaf, sp);
+        }
+
+        int[] prev = m_prevActive;
+        int nbPrev = m_nbActive;
+        m_prevActive = m_active;
+        m_active = prev;
+        for(int k = 0; k < nbPrev; k++)
+            m_overlapping[m_prevActive[k]] = false;
+
+        int nbPairs = m_tree.findPairs();
+        int[] pairs = m_tree.getPairs();
+        m_nbActive = 0;
+        for(int p = 0; p < nbPairs; p++){
+            long key = pairKey(pairs[2 * p], pairs[2 * p + 1]);
+            int k = Arrays.binarySearch(m_pairKeys, key);
+            if(k < 0)
+                continue;
+            // Several colliders may share a pair of models.
+            while(k > 0 && m_pairKeys[k - 1] == key)
+                k--;
+            for(; k < m_pairKeys.length && m_pairKeys[k] == key; k++){
+                m_active[m_nbActive++] = m_pairColliders[k];
+                m_overlapping[m_pairColliders[k]] = true;
+            }
+        }
+        if(m_nbActive > 1)
+            Arrays.sort(m_active, 0, m_nbActive);
+
+        for(int k = 0; k < nbPrev; k++)
+            if(!m_overlapping[m_prevActive[k]])
+                m_colliders.get(m_prevActive[k]).clearCollisions();
+    }
+
+    private void buildBroadphase(){
+        IdentityHashMap<PhyModel, Integer> index = new IdentityHashMap<>();
+        ArrayList<PhyModel> models = new ArrayList<>();
+        int nb = m_colliders.size();
+        long[] keys = new long[nb];
+        for(int c = 0; c < nb; c++){
+            MassCollider mc = m_colliders.get(c);
+            int i1 = modelIndex(mc.getFirstModel(), index, models);
+            int i2 = modelIndex(mc.getSecondModel(), index, models);
+            keys[c] = pairKey(i1, i2);
+        }
+        Integer[] order = new Integer[nb];
+        for(int c = 0; c < nb; c++)
+            order[c] = c;
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+        m_pairKeys = new long[nb];
+        m_pairColliders = new int[nb];
+        for(int k = 0; k < nb; k++){
+            m_pairKeys[k] = keys[order[k]];
+            m_pairColliders[k] = order[k];
+        }
+        m_treeModels = models.toArray(new PhyModel[0]);
+        m_treeLeaf = new int[m_treeModels.length];
+        Arrays.fill(m_treeLeaf, -1);
+        m_overlapping = new boolean[nb];
+        m_active = new int[nb];
+        m_prevActive = new int[nb];
+        m_nbActive = 0;
+        m_tree = new AABBTree();
+    }
+
+    private static int modelIndex(PhyModel mdl, IdentityHashMap<PhyModel, Integer> index, ArrayList<PhyModel> models){
+        Integer i = index.get(mdl);
+        if(i == null){
+            i = models.size();
+            index.put(mdl, i);
+            models.add(mdl);
+        }
+        return i;
+    }
+
+    private static long pairKey(int i1, int i2){
+        return ((long)Math.min(i1, i2) << 32) | Math.max(i1, i2);
+    }
+
+    /**
+     * Check if any collision or auto-collision has been registered.
+     * @return true if there are collisions to compute.
+     */
+    boolean hasColliders(){
+        return !m_colliders.isEmpty() || !m_autoColliders.isEmpty() || !m_containers.isEmpty();
+    }
+
     public ArrayList<MassCollider> getMassColliders(){
         return m_colliders;
     }
 
+    public ArrayList<Container> getContainers(){
+        return m_containers;
+    }
+
     public ArrayList<AutoCollider> getAutoColliders(){
         return m_autoColliders;
     }
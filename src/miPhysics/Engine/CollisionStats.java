@@ -0,0 +1,149 @@
+package miPhysics.Engine;
+
+/**
+ * Counters of a collider (or of the whole collision engine) over the last step: how many pairs of
+ * masses went through each phase of the collisions, and the time spent finding them and computing
+ * their contacts. Can also keep rolling histograms of the last steps (see enableHistory()).
+ *
+ * Broadphase pairs are the pairs of masses left by the broad phase: sharing a cell of the grid of
+ * an auto-collider, or both inside the intersection of the models of a collider (the listed pairs
+ * when a neighbour list is kept). Candidate pairs are the pairs whose distance is actually tested,
+ * and contacts the pairs found touching. Times are summed over the threads.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class CollisionStats {
+
+    /* Counters of the current step, and of the last finished one */
+    private long m_broadphase, m_candidates, m_contacts, m_cells, m_detectNanos, m_responseNanos;
+    private long m_lastBroadphase, m_lastCandidates, m_lastContacts, m_lastCells, m_lastDetectNanos, m_lastResponseNanos;
+    private long m_steps = 0;
+
+    /* Histories (null unless enabled) */
+    private RollingHistogram m_candidatesHist;
+    private RollingHistogram m_contactsHist;
+    private RollingHistogram m_detectHist;
+    private RollingHistogram m_responseHist;
+
+    /**
+     * Keep histograms of the last steps (candidate pairs, contacts, detection and response times).
+     * @param steps number of steps kept (0 to drop the histograms).
+     */
+    public void enableHistory(int steps){
+        if(steps <= 0){
+            m_candidatesHist = m_contactsHist = m_detectHist = m_responseHist = null;
+            return;
+        }
+        m_candidatesHist = new RollingHistogram(steps);
+        m_contactsHist = new RollingHistogram(steps);
+        m_detectHist = new RollingHistogram(steps);
+        m_responseHist = new RollingHistogram(steps);
+    }
+
+    public long getBroadphasePairs(){
+        return m_lastBroadphase;
+    }
+    public long getCandidatePairs(){
+        return m_lastCandidates;
+    }
+    public long getContacts(){
+        return m_lastContacts;
+    }
+    /**
+     * Get the number of occupied cells of the grids (auto-collider grid, spatial hash of a collider).
+     * @return the number of cells.
+     */
+    public long getOccupiedCells(){
+        return m_lastCells;
+    }
+    public long getDetectionNanos(){
+        return m_lastDetectNanos;
+    }
+    public long getResponseNanos(){
+        return m_lastResponseNanos;
+    }
+    /**
+     * Get the number of steps counted since the creation of the collider.
+     * @return the number of steps.
+     */
+    public long getSteps(){
+        return m_steps;
+    }
+
+    public RollingHistogram getCandidatesHistory(){
+        return m_candidatesHist;
+    }
+    public RollingHistogram getContactsHistory(){
+        return m_contactsHist;
+    }
+    public RollingHistogram getDetectionHistory(){
+        return m_detectHist;
+    }
+    public RollingHistogram getResponseHistory(){
+        return m_responseHist;
+    }
+
+    /**
+     * Get a one-line summary of the last step (for logs).
+     * @return the summary.
+     */
+    public String toString(){
+        return "broadphase " + m_lastBroadphase + ", candidates " + m_lastCandidates + ", contacts " + m_lastContacts
+                + ", cells " + m_lastCells + String.format(", detection %.3f ms, response %.3f ms",
+                m_lastDetectNanos / 1e6, m_lastResponseNanos / 1e6);
+    }
+
+    /**
+     * Record the detection phase of the current step.
+     * @param broadphase the broadphase pairs.
+     * @param cells the occupied cells.
+     * @param nanos the time spent.
+     */
+    void addDetection(long broadphase, long cells, long nanos){
+        m_broadphase += broadphase;
+        m_cells += cells;
+        m_detectNanos += nanos;
+    }
+
+    /**
+     * Record contacts computed at the current step (a chunk of them, or all).
+     * @param candidates the candidate pairs.
+     * @param contacts the contacts found.
+     * @param nanos the time spent.
+     */
+    void addResponse(long candidates, long contacts, long nanos){
+        m_candidates += candidates;
+        m_contacts += contacts;
+        m_responseNanos += nanos;
+    }
+
+    /**
+     * Add the counters of the current step of other stats (engine totals).
+     * @param s the other stats (whose step is finished).
+     */
+    void addLast(CollisionStats s){
+        addDetection(s.m_lastBroadphase, s.m_lastCells, s.m_lastDetectNanos);
+        addResponse(s.m_lastCandidates, s.m_lastContacts, s.m_lastResponseNanos);
+    }
+
+    /**
+     * Finish the current step: its counters become the last ones, and go to the histograms.
+     */
+    void endStep(){
+        m_lastBroadphase = m_broadphase;
+        m_lastCandidates = m_candidates;
+        m_lastContacts = m_contacts;
+        m_lastCells = m_cells;
+        m_lastDetectNanos = m_detectNanos;
+        m_lastResponseNanos = m_responseNanos;
+        m_broadphase = m_candidates = m_contacts = m_cells = m_detectNanos = m_responseNanos = 0;
+        m_steps++;
+        if(m_contactsHist != null){
+            m_candidatesHist.add(m_lastCandidates);
+            m_contactsHist.add(m_lastContacts);
+            m_detectHist.add(m_lastDetectNanos);
+            m_responseHist.add(m_lastResponseNanos);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package miPhysics.Engine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Queue of commands posted by any number of threads and applied by the simulation thread.
+ *
+ * Posting a command is wait-free: a single atomic exchange on the tail of a linked list, whatever
+ * the other threads are doing. A command whose posting is still in progress (between the exchange
+ * and the link to its predecessor) is seen by the simulation thread at its following poll.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class CommandQueue {
+
+    private static final class Node {
+        Runnable m_command;
+        volatile Node m_next;
+
+        Node(Runnable command){
+            m_command = command;
+        }
+    }
+
+    /* Last node posted (shared by the producers), and last node consumed (simulation thread only) */
+    private final AtomicReference<Node> m_tail;
+    private Node m_head;
+
+    CommandQueue(){
+        m_head = new Node(null);
+        m_tail = new AtomicReference<>(m_head);
+    }
+
+    /**
+     * Post a command (from any thread).
+     * @param command the command.
+     */
+    void offer(Runnable command){
+        Node node = new Node(command);
+        Node prev = m_tail.getAndSet(node);
+        prev.m_next = node;
+    }
+
+    /**
+     * Take the oldest command (simulation thread only).
+     * @return the command, or null if there is none.
+     */
+    Runnable poll(){
+        Node next = m_head.m_next;
+        if(next == null)
+            return null;
+        m_head = next;
+        Runnable command = next.m_command;
+        next.m_command = null;
+        return command;
+    }
+
+    /**
+     * Check if there are commands to apply (simulation thread only).
+     * @return true if no command is waiting.
+     */
+    boolean isEmpty(){
+        return m_head.m_next == null;
+    }
+}
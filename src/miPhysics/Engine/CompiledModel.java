@@ -0,0 +1,1834 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import miPhysics.Utility.SpacePrint;
+
+/**
+ * Compiled (flattened) version of a physical model hierarchy.
+ *
+ * The state of all masses (positions, delayed positions, forces, inverse masses) and of all
+ * interactions (connected mass indexes, parameters, stored distances) is held in primitive arrays,
+ * and a simulation step runs a few tight loops over these arrays instead of walking the PhyModel tree.
+ *
+ * The Mass and Interaction objects stay valid as views on the compiled state: their accessors
+ * (getPos(), getFrc(), setPos(), applyForce(), setParam(), ...) read from and write to the arrays.
+ * Modules with no compiled implementation (oscillators, position inputs, user-defined modules...)
+ * are still computed by their own compute() method: the arrays hand their state over to the object
+ * for the duration of the call.
+ *
+ * In single precision mode, the state of the masses and the parameters and state of the compiled
+ * interactions are stored as floats and computed in single precision: this halves the memory traffic
+ * of the step loops on large models, at the cost of precision.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class CompiledModel {
+
+    /* Mass kinds (M_OBJECT: computed by the module itself) */
+    static final int M_OBJECT = 0;
+    static final int M_MASS3D = 1;
+    static final int M_MASS2DPLANE = 2;
+    static final int M_MASS1D = 3;
+    static final int M_GROUND = 4;
+
+    /* Number of masses whose coordinates are integrated one after the other (so that their
+     * coefficients are still in the L1 cache for the second and third coordinates) */
+    private static final int BLOCK = 512;
+
+    /* Interaction kinds (I_OBJECT: computed by the module itself) */
+    static final int I_OBJECT = 0;
+    static final int I_SPRINGDAMPER3D = 1;
+    static final int I_ROPE3D = 2;
+    static final int I_CONTACT3D = 3;
+    static final int I_SPRINGDAMPER1D = 4;
+
+    private boolean m_valid = false;
+    private boolean m_single = false;
+    private long m_steps = 0;
+
+    /* Mass state */
+    private int m_nbMasses;
+    private Mass[] m_masses;
+    private int[] m_massKind;
+    private int[] m_massMedium;
+
+    double[] m_px, m_py, m_pz;
+    double[] m_rx, m_ry, m_rz;
+    double[] m_fx, m_fy, m_fz;
+    double[] m_invMass;
+    double[] m_size;
+
+    /* Verlet coefficients of each mass in its medium (2 - invMass * friction, 1 - invMass * friction),
+     * refreshed with the mass parameters and when the medium changes */
+    private double[] m_ca, m_cb;
+    private float[] m_sinv, m_scb;
+
+    /* Single precision mass state (replaces the double arrays above in single precision mode) */
+    private float[] m_spx, m_spy, m_spz;
+    private float[] m_srx, m_sry, m_srz;
+    private float[] m_sfx, m_sfy, m_sfz;
+
+    /* Media used by the masses (values are refreshed when the version of the medium changes) */
+    private Medium[] m_media;
+    private int[] m_mediaVersion;
+    private double[] m_fric;
+    private double[] m_gx, m_gy, m_gz;
+    private float[] m_sgx, m_sgy, m_sgz;
+
+    /* Interaction state */
+    private int m_nbInter;
+    private Interaction[] m_inters;
+    private int[] m_interKind;
+
+    int[] m_mat1, m_mat2;
+    private double[] m_K, m_Z;
+    private double[] m_dRest, m_dRsquared;
+    private double[] m_dist, m_prevDist;
+    private boolean[] m_active;
+
+    /* Single precision interaction parameters and state (same) */
+    private float[] m_sK, m_sZ;
+    private float[] m_sdRest, m_sdRsquared;
+    private float[] m_sdist, m_sprevDist;
+
+    /* Interactions are computed in segments (one per model, in the same order as PhyModel.compute()),
+     * each segment being followed by the InOut modules of its model. */
+    private int[] m_segEnd;
+    private InOut[][] m_segInOuts;
+
+    /* PhyModel.compute() integrates the masses of a model just before its sub-models, so a segment
+     * comes after the masses of the models up to the end of its sub-models only (m_segMassEnd). Masses
+     * are all integrated before the segments, unless a segment reaches a mass past that point (a mass
+     * of a following sibling model): m_ordered, the masses are then integrated segment by segment. */
+    private int[] m_segMassEnd;
+    private boolean m_ordered;
+
+    /* Masses and interactions are computed in runs of consecutive elements of the same kind
+     * (interaction runs never cross a segment end). m_massRunMedium: medium shared by all the masses
+     * of a run, or -1. */
+    private int[] m_massRunKind, m_massRunEnd;
+    private int[] m_massRunMedium;
+    private int[] m_interRunKind, m_interRunEnd;
+    private int[] m_segRunEnd;
+    private int[] m_objectMasses;
+    private boolean m_runsDirty;
+
+    /* Parallel computation: the interactions of each segment are grouped in colours (no two
+     * interactions of a colour share a mass, so a colour can be split between workers), and the
+     * interactions that could not be coloured are computed serially after the colours. */
+    private WorkerPool m_workers;
+    private int[] m_colourOrder;
+    private int[] m_colourEnd;
+    private int[] m_segColourEnd;
+    private int[] m_serialOrder;
+    private int[] m_segSerialEnd;
+    private int m_colourStart, m_colourStop;
+    private final WorkerPool.Task m_massTask = this::computeMassChunk;
+    private final WorkerPool.Task m_colourTask = this::computeColourChunk;
+
+    /* Segment dependency levels: the segments of a level share no mass with each other, and only
+     * depend on segments of the previous levels. m_levelSegs lists the segments level by level. */
+    private int[] m_levelSegs;
+    private int[] m_levelEnd;
+    private int m_levelStop;
+    private final AtomicInteger m_segCursor = new AtomicInteger();
+    private final WorkerPool.Task m_segmentTask = this::computeSegmentTask;
+
+    /* Sleeping islands (null when disabled) */
+    private Islands m_islands;
+    private double m_sleepThreshold;
+    private int m_sleepSteps;
+
+    /* Masses handed over to the objects until takeBack() */
+    private int[] m_handed;
+    private int m_nbHanded;
+
+    /* Compiled models, and the index range of their own masses */
+    private PhyModel[] m_models;
+    private int[] m_modelMassStart;
+    private int[] m_modelMassEnd;
+
+
+    private CompiledModel(){
+    }
+
+    /**
+     * Compile a physical model and all of its sub-models.
+     * @param mdl the top-level physical model.
+     * @param single true to store the mass state in single precision.
+     * @return the compiled model, or null if the model cannot be compiled.
+     */
+    static CompiledModel compile(PhyModel mdl, boolean single){
+        CompiledModel k = new CompiledModel();
+        k.m_single = single;
+        if(k.build(mdl))
+            return k;
+        return null;
+    }
+
+    /**
+     * Check if the compiled model is still in use (it is released when the topology of the model changes).
+     * @return true if valid.
+     */
+    public boolean isValid(){
+        return m_valid;
+    }
+
+    /**
+     * Check if the mass state is stored in single precision.
+     * @return true in single precision mode.
+     */
+    public boolean isSinglePrecision(){
+        return m_single;
+    }
+
+    /**
+     * Get the number of masses in the compiled model.
+     * @return number of masses.
+     */
+    public int getNumberOfMasses(){
+        return m_nbMasses;
+    }
+
+    /**
+     * Get the number of interactions in the compiled model.
+     * @return number of interactions.
+     */
+    public int getNumberOfInteractions(){
+        return m_nbInter;
+    }
+
+    /**
+     * Get the number of modules that are computed through their own compute() method.
+     * @return number of non-compiled masses and interactions.
+     */
+    public int getNumberOfObjectModules(){
+        int nb = 0;
+        for(int i = 0; i < m_nbMasses; i++)
+            if(m_massKind[i] == M_OBJECT)
+                nb++;
+        for(int i = 0; i < m_nbInter; i++)
+            if(m_interKind[i] == I_OBJECT)
+                nb++;
+        return nb;
+    }
+
+
+    /*************************************************/
+    /* Compilation                                   */
+    /*************************************************/
+
+    private boolean build(PhyModel top){
+
+        ArrayList<PhyModel> models = new ArrayList<>();
+        ArrayList<Mass> masses = new ArrayList<>();
+        ArrayList<Integer> massRanges = new ArrayList<>();
+        collectMasses(top, models, masses, massRanges);
+
+        ArrayList<Interaction> inters = new ArrayList<>();
+        ArrayList<Integer> segEnd = new ArrayList<>();
+        ArrayList<InOut[]> segInOuts = new ArrayList<>();
+        ArrayList<PhyModel> segModels = new ArrayList<>();
+        collectInteractions(top, inters, segEnd, segInOuts, segModels);
+
+        IdentityHashMap<Mass, Integer> massIdx = new IdentityHashMap<>();
+        for(int i = 0; i < masses.size(); i++)
+            massIdx.put(masses.get(i), i);
+
+        // Every interaction must connect masses that belong to the compiled hierarchy.
+        for(Interaction inter : inters){
+            if(!massIdx.containsKey(inter.getMat1()) || !massIdx.containsKey(inter.getMat2())){
+                System.out.println("Cannot compile " + top.getName() + ": interaction " + inter.getName()
+                        + " is connected to a mass outside of the model.");
+                return false;
+            }
+        }
+
+        allocateMasses(masses.size());
+        ArrayList<Medium> media = new ArrayList<>();
+        for(int i = 0; i < m_nbMasses; i++){
+            Mass m = masses.get(i);
+            m_masses[i] = m;
+            if(m.getMedium() != null && !media.contains(m.getMedium()))
+                media.add(m.getMedium());
+        }
+        m_media = media.toArray(new Medium[0]);
+        m_mediaVersion = new int[m_media.length];
+        java.util.Arrays.fill(m_mediaVersion, -1);
+        m_fric = new double[m_media.length];
+        m_gx = new double[m_media.length];
+        m_gy = new double[m_media.length];
+        m_gz = new double[m_media.length];
+        m_sgx = new float[m_media.length];
+        m_sgy = new float[m_media.length];
+        m_sgz = new float[m_media.length];
+
+        for(int i = 0; i < m_nbMasses; i++) {
+            gatherMassState(i);
+            gatherMassParams(i);
+        }
+
+        allocateInteractions(inters.size());
+        for(int i = 0; i < m_nbInter; i++){
+            Interaction inter = inters.get(i);
+            m_inters[i] = inter;
+            m_mat1[i] = massIdx.get(inter.getMat1());
+            m_mat2[i] = massIdx.get(inter.getMat2());
+            m_interKind[i] = interactionKind(inter);
+            gatherInteractionParams(i);
+            gatherInteractionState(i);
+        }
+
+        m_segEnd = new int[segEnd.size()];
+        for(int s = 0; s < m_segEnd.length; s++)
+            m_segEnd[s] = segEnd.get(s);
+        m_segInOuts = segInOuts.toArray(new InOut[0][]);
+        buildRuns();
+
+        // Mass range of each segment's model and sub-models: the models are laid out in the same order.
+        IdentityHashMap<PhyModel, Integer> subtreeEnd = new IdentityHashMap<>();
+        for(int j = models.size() - 1; j >= 0; j--){
+            int end = massRanges.get(2*j+1);
+            for(PhyModel pm : models.get(j).m_subModels)
+                end = Math.max(end, subtreeEnd.get(pm));
+            subtreeEnd.put(models.get(j), end);
+        }
+        m_segMassEnd = new int[m_segEnd.length];
+        m_ordered = false;
+        int start = 0;
+        for(int s = 0; s < m_segEnd.length; s++){
+            int end = subtreeEnd.get(segModels.get(s));
+            m_segMassEnd[s] = end;
+            boolean ahead = false;
+            for(int i = start; i < m_segEnd[s]; i++)
+                ahead |= m_mat1[i] >= end || m_mat2[i] >= end;
+            for(InOut io : m_segInOuts[s]){
+                Integer m = massIdx.get(io.getMat());
+                ahead |= m != null && m >= end;
+            }
+            if(ahead && !m_ordered){
+                System.out.println("Compiled model: " + segModels.get(s).getName() + " is connected to masses of a"
+                        + " following model, steps are computed serially in the model order.");
+                m_ordered = true;
+            }
+            start = m_segEnd[s];
+        }
+
+        m_models = models.toArray(new PhyModel[0]);
+        m_modelMassStart = new int[m_models.length];
+        m_modelMassEnd = new int[m_models.length];
+        for(int j = 0; j < m_models.length; j++){
+            m_modelMassStart[j] = massRanges.get(2*j);
+            m_modelMassEnd[j] = massRanges.get(2*j+1);
+        }
+
+        // Finally, turn the modules into views on the compiled state.
+        for(int i = 0; i < m_nbMasses; i++){
+            m_masses[i].m_kernel = this;
+            m_masses[i].m_kernelIdx = i;
+        }
+        for(int i = 0; i < m_nbInter; i++){
+            m_inters[i].m_kernel = this;
+            m_inters[i].m_kernelIdx = i;
+        }
+        for(int j = 0; j < m_models.length; j++){
+            m_models[j].m_kernel = this;
+            m_models[j].m_kernelIdx = j;
+            m_models[j].boundsChanged();
+        }
+        m_valid = true;
+        return true;
+    }
+
+    // Masses are laid out model by model (a model's own masses, then its sub-models).
+    private void collectMasses(PhyModel mdl, ArrayList<PhyModel> models, ArrayList<Mass> masses,
+                               ArrayList<Integer> ranges){
+        models.add(mdl);
+        ranges.add(masses.size());
+        masses.addAll(mdl.m_masses);
+        ranges.add(masses.size());
+        for(PhyModel pm : mdl.m_subModels)
+            collectMasses(pm, models, masses, ranges);
+    }
+
+    // Interactions follow the PhyModel.compute() order: sub-models first, then the model's own
+    // interactions and InOut modules.
+    private void collectInteractions(PhyModel mdl, ArrayList<Interaction> inters, ArrayList<Integer> segEnd,
+                                     ArrayList<InOut[]> segInOuts, ArrayList<PhyModel> segModels){
+        for(PhyModel pm : mdl.m_subModels)
+            collectInteractions(pm, inters, segEnd, segInOuts, segModels);
+        inters.addAll(mdl.m_interactions);
+        segEnd.add(inters.size());
+        segInOuts.add(mdl.m_inOuts.toArray(new InOut[0]));
+        segModels.add(mdl);
+    }
+
+    private void allocateMasses(int n){
+        m_nbMasses = n;
+        m_masses = new Mass[n];
+        m_handed = new int[n];
+        m_massKind = new int[n];
+        m_massMedium = new int[n];
+        if(m_single){
+            m_spx = new float[n];
+            m_spy = new float[n];
+            m_spz = new float[n];
+            m_srx = new float[n];
+            m_sry = new float[n];
+            m_srz = new float[n];
+            m_sfx = new float[n];
+            m_sfy = new float[n];
+            m_sfz = new float[n];
+        }
+        else {
+            m_px = new double[n];
+            m_py = new double[n];
+            m_pz = new double[n];
+            m_rx = new double[n];
+            m_ry = new double[n];
+            m_rz = new double[n];
+            m_fx = new double[n];
+            m_fy = new double[n];
+            m_fz = new double[n];
+        }
+        m_invMass = new double[n];
+        m_size = new double[n];
+        m_ca = new double[n];
+        m_cb = new double[n];
+        m_sinv = new float[n];
+        m_scb = new float[n];
+    }
+
+    private void allocateInteractions(int n){
+        m_nbInter = n;
+        m_inters = new Interaction[n];
+        m_interKind = new int[n];
+        m_mat1 = new int[n];
+        m_mat2 = new int[n];
+        if(m_single){
+            m_sK = new float[n];
+            m_sZ = new float[n];
+            m_sdRest = new float[n];
+            m_sdRsquared = new float[n];
+            m_sdist = new float[n];
+            m_sprevDist = new float[n];
+        }
+        else {
+            m_K = new double[n];
+            m_Z = new double[n];
+            m_dRest = new double[n];
+            m_dRsquared = new double[n];
+            m_dist = new double[n];
+            m_prevDist = new double[n];
+        }
+        m_active = new boolean[n];
+    }
+
+    // Only the exact built-in classes are compiled: subclasses may override compute().
+    private static int massKind(Mass m){
+        Class<?> c = m.getClass();
+        if(c == Mass3D.class)
+            return M_MASS3D;
+        if(c == Mass2DPlane.class)
+            return m.m_controlled ? M_OBJECT : M_MASS2DPLANE;
+        if(c == Mass1D.class)
+            return M_MASS1D;
+        if(c == Ground3D.class || c == Ground1D.class)
+            return M_GROUND;
+        return M_OBJECT;
+    }
+
+    private static int interactionKind(Interaction inter){
+        Class<?> c = inter.getClass();
+        if(c == SpringDamper3D.class || c == Spring3D.class || c == Damper3D.class)
+            return I_SPRINGDAMPER3D;
+        if(c == Rope3D.class || c == Bubble3D.class)
+            return I_ROPE3D;
+        if(c == Contact3D.class)
+            return I_CONTACT3D;
+        if(c == SpringDamper1D.class)
+            return I_SPRINGDAMPER1D;
+        return I_OBJECT;
+    }
+
+    private void buildRuns(){
+        int nb = 0;
+        for(int i = 0; i < m_nbMasses; i++)
+            if(i == 0 || m_massKind[i] != m_massKind[i-1])
+                nb++;
+        m_massRunKind = new int[nb];
+        m_massRunEnd = new int[nb];
+        m_massRunMedium = new int[nb];
+        int r = -1;
+        for(int i = 0; i < m_nbMasses; i++){
+            if(i == 0 || m_massKind[i] != m_massKind[i-1]){
+                m_massRunKind[++r] = m_massKind[i];
+                m_massRunMedium[r] = m_massMedium[i];
+            }
+            else if(m_massMedium[i] != m_massRunMedium[r])
+                m_massRunMedium[r] = -1;
+            m_massRunEnd[r] = i + 1;
+        }
+
+        nb = 0;
+        for(int i = 0; i < m_nbMasses; i++)
+            if(m_massKind[i] == M_OBJECT)
+                nb++;
+        m_objectMasses = new int[nb];
+        nb = 0;
+        for(int i = 0; i < m_nbMasses; i++)
+            if(m_massKind[i] == M_OBJECT)
+                m_objectMasses[nb++] = i;
+
+        nb = 0;
+        int start = 0;
+        for(int s = 0; s < m_segEnd.length; s++){
+            for(int i = start; i < m_segEnd[s]; i++)
+                if(i == start || m_interKind[i] != m_interKind[i-1])
+                    nb++;
+            start = m_segEnd[s];
+        }
+        m_interRunKind = new int[nb];
+        m_interRunEnd = new int[nb];
+        m_segRunEnd = new int[m_segEnd.length];
+        r = -1;
+        start = 0;
+        for(int s = 0; s < m_segEnd.length; s++){
+            for(int i = start; i < m_segEnd[s]; i++){
+                if(i == start || m_interKind[i] != m_interKind[i-1])
+                    m_interRunKind[++r] = m_interKind[i];
+                m_interRunEnd[r] = i + 1;
+            }
+            m_segRunEnd[s] = r + 1;
+            start = m_segEnd[s];
+        }
+        m_runsDirty = false;
+
+        // Mass kinds decide which masses are fixed: islands must follow.
+        if(m_islands != null)
+            buildIslands();
+    }
+
+    private void buildIslands(){
+        boolean[] kinematic = new boolean[m_nbMasses];
+        boolean[] noSleep = new boolean[m_nbMasses];
+        for(int i = 0; i < m_nbMasses; i++){
+            kinematic[i] = m_massKind[i] == M_GROUND || m_masses[i].getClass() == PosInput3D.class;
+            noSleep[i] = m_massKind[i] == M_OBJECT && !kinematic[i];
+        }
+        m_islands = new Islands(m_sleepThreshold, m_sleepSteps);
+        m_islands.build(this, m_nbMasses, m_nbInter, m_mat1, m_mat2, kinematic, noSleep);
+    }
+
+    // Greedy colouring of the interactions of each segment, in model order (at most 64 colours per segment).
+    private void buildColours(){
+        long[] used = new long[m_nbMasses];
+        int[] colour = new int[m_nbInter];
+        int[] nbColours = new int[m_segEnd.length];
+        int nbSerial = 0;
+
+        int start = 0;
+        for(int s = 0; s < m_segEnd.length; s++){
+            for(int i = start; i < m_segEnd[s]; i++){
+                int a = m_mat1[i];
+                int b = m_mat2[i];
+                long free = ~(used[a] | used[b]);
+                if(m_interKind[i] == I_OBJECT || free == 0){
+                    colour[i] = -1;
+                    nbSerial++;
+                    continue;
+                }
+                int c = Long.numberOfTrailingZeros(free);
+                colour[i] = c;
+                used[a] |= 1L << c;
+                used[b] |= 1L << c;
+                nbColours[s] = Math.max(nbColours[s], c + 1);
+            }
+            for(int i = start; i < m_segEnd[s]; i++){
+                used[m_mat1[i]] = 0;
+                used[m_mat2[i]] = 0;
+            }
+            start = m_segEnd[s];
+        }
+
+        int total = 0;
+        for(int n : nbColours)
+            total += n;
+        m_colourOrder = new int[m_nbInter - nbSerial];
+        m_colourEnd = new int[total];
+        m_segColourEnd = new int[m_segEnd.length];
+        m_serialOrder = new int[nbSerial];
+        m_segSerialEnd = new int[m_segEnd.length];
+
+        int pos = 0, c = 0, k = 0;
+        start = 0;
+        for(int s = 0; s < m_segEnd.length; s++){
+            for(int col = 0; col < nbColours[s]; col++){
+                for(int i = start; i < m_segEnd[s]; i++)
+                    if(colour[i] == col)
+                        m_colourOrder[pos++] = i;
+                m_colourEnd[c++] = pos;
+            }
+            m_segColourEnd[s] = c;
+            for(int i = start; i < m_segEnd[s]; i++)
+                if(colour[i] < 0)
+                    m_serialOrder[k++] = i;
+            m_segSerialEnd[s] = k;
+            start = m_segEnd[s];
+        }
+    }
+
+    // Each segment goes one level above the last segment that touched one of its masses. A segment with
+    // an InOut acting outside of the compiled masses acts as a barrier for all the others.
+    private void buildLevels(){
+        int nbSeg = m_segEnd.length;
+        int[] lastLevel = new int[m_nbMasses];
+        java.util.Arrays.fill(lastLevel, -1);
+        int[] level = new int[nbSeg];
+        int barrier = -1;
+        int maxLevel = -1;
+
+        int start = 0;
+        for(int s = 0; s < nbSeg; s++){
+            int lvl = barrier + 1;
+            boolean global = false;
+            for(int i = start; i < m_segEnd[s]; i++)
+                lvl = Math.max(lvl, Math.max(lastLevel[m_mat1[i]], lastLevel[m_mat2[i]]) + 1);
+            for(InOut io : m_segInOuts[s]){
+                Mass m = io.getMat();
+                if(m != null && m.m_kernel == this)
+                    lvl = Math.max(lvl, lastLevel[m.m_kernelIdx] + 1);
+                else
+                    global = true;
+            }
+            if(global) {
+                lvl = Math.max(lvl, maxLevel + 1);
+                barrier = lvl;
+            }
+
+            level[s] = lvl;
+            maxLevel = Math.max(maxLevel, lvl);
+            for(int i = start; i < m_segEnd[s]; i++){
+                lastLevel[m_mat1[i]] = lvl;
+                lastLevel[m_mat2[i]] = lvl;
+            }
+            for(InOut io : m_segInOuts[s]){
+                Mass m = io.getMat();
+                if(m != null && m.m_kernel == this)
+                    lastLevel[m.m_kernelIdx] = lvl;
+            }
+            start = m_segEnd[s];
+        }
+
+        m_levelSegs = new int[nbSeg];
+        m_levelEnd = new int[maxLevel + 1];
+        int pos = 0;
+        for(int l = 0; l <= maxLevel; l++){
+            for(int s = 0; s < nbSeg; s++)
+                if(level[s] == l)
+                    m_levelSegs[pos++] = s;
+            m_levelEnd[l] = pos;
+        }
+    }
+
+    /**
+     * Get the number of dependency levels between the model segments (computed for parallel mode only).
+     * Segments of the same level are computed concurrently.
+     * @return number of levels (0 if not computed in parallel).
+     */
+    public int getNumberOfLevels(){
+        return m_levelEnd == null ? 0 : m_levelEnd.length;
+    }
+
+    private int mediumIndex(Medium med){
+        for(int k = 0; k < m_media.length; k++)
+            if(m_media[k] == med)
+                return k;
+        return -1;
+    }
+
+    private void gatherMassParams(int i){
+        Mass m = m_masses[i];
+        m_invMass[i] = m.m_invMass;
+        m_size[i] = m.m_size;
+        m_massMedium[i] = mediumIndex(m.getMedium());
+        m_massKind[i] = massKind(m);
+        if(m_massMedium[i] < 0 && m_massKind[i] != M_GROUND)
+            m_massKind[i] = M_OBJECT;
+        computeCoefs(i);
+    }
+
+    private void computeCoefs(int i){
+        int med = m_massMedium[i];
+        double fric = med < 0 ? 0 : m_fric[med];
+        m_ca[i] = 2 - m_invMass[i] * fric;
+        m_cb[i] = 1 - m_invMass[i] * fric;
+        m_sinv[i] = (float)m_invMass[i];
+        m_scb[i] = (float)m_cb[i];
+    }
+
+    private void gatherInteractionParams(int i){
+        Interaction inter = m_inters[i];
+        if(m_single){
+            m_sK[i] = (float)inter.m_K;
+            m_sZ[i] = (float)inter.m_Z;
+            m_sdRest[i] = (float)inter.m_dRest;
+            m_sdRsquared[i] = (float)inter.m_dRsquared;
+        }
+        else {
+            m_K[i] = inter.m_K;
+            m_Z[i] = inter.m_Z;
+            m_dRest[i] = inter.m_dRest;
+            m_dRsquared[i] = inter.m_dRsquared;
+        }
+    }
+
+    private void gatherInteractionState(int i){
+        Interaction inter = m_inters[i];
+        switch (m_interKind[i]){
+            case I_SPRINGDAMPER1D:
+                setInteractionDist(i, ((SpringDamper1D)inter).m_dist_1D, ((SpringDamper1D)inter).m_distR_1D);
+                break;
+            case I_ROPE3D:
+                m_active[i] = (inter instanceof Rope3D) ? ((Rope3D)inter).prev_state : ((Bubble3D)inter).prev_state;
+                setInteractionDist(i, inter.m_dist, inter.m_prevDist);
+                break;
+            case I_CONTACT3D:
+                m_active[i] = ((Contact3D)inter).prev_state;
+                setInteractionDist(i, inter.m_dist, inter.m_prevDist);
+                break;
+            default:
+                setInteractionDist(i, inter.m_dist, inter.m_prevDist);
+                break;
+        }
+    }
+
+    private void scatterInteractionState(int i){
+        Interaction inter = m_inters[i];
+        double dist = m_single ? m_sdist[i] : m_dist[i];
+        double prevDist = m_single ? m_sprevDist[i] : m_prevDist[i];
+        switch (m_interKind[i]){
+            case I_OBJECT:
+                break;
+            case I_SPRINGDAMPER1D:
+                ((SpringDamper1D)inter).m_dist_1D = dist;
+                ((SpringDamper1D)inter).m_distR_1D = prevDist;
+                break;
+            case I_ROPE3D:
+                if(inter instanceof Rope3D)
+                    ((Rope3D)inter).prev_state = m_active[i];
+                else
+                    ((Bubble3D)inter).prev_state = m_active[i];
+                inter.m_dist = dist;
+                inter.m_prevDist = prevDist;
+                break;
+            case I_CONTACT3D:
+                ((Contact3D)inter).prev_state = m_active[i];
+                inter.m_dist = dist;
+                inter.m_prevDist = prevDist;
+                break;
+            default:
+                inter.m_dist = dist;
+                inter.m_prevDist = prevDist;
+                break;
+        }
+    }
+
+    private void setInteractionDist(int i, double dist, double prevDist){
+        if(m_single){
+            m_sdist[i] = (float)dist;
+            m_sprevDist[i] = (float)prevDist;
+        }
+        else {
+            m_dist[i] = dist;
+            m_prevDist[i] = prevDist;
+        }
+    }
+
+    /**
+     * Hand the compiled state back to the Mass and Interaction objects and stop using the compiled model.
+     * Called whenever the topology of the model changes.
+     */
+    void release(){
+        if(!m_valid)
+            return;
+        m_valid = false;
+        for(int i = 0; i < m_nbMasses; i++)
+            if(m_masses[i].m_kernel == this)
+                detach(i);
+        m_nbHanded = 0;
+        for(int i = 0; i < m_nbInter; i++){
+            scatterInteractionState(i);
+            m_inters[i].m_kernel = null;
+        }
+        for(PhyModel pm : m_models) {
+            pm.m_kernel = null;
+            pm.boundsChanged();
+        }
+    }
+
+
+    /*************************************************/
+    /* Views                                         */
+    /*************************************************/
+
+    void readPos(int i, Vect3D v){
+        if(m_single)
+            v.set(m_spx[i], m_spy[i], m_spz[i]);
+        else
+            v.set(m_px[i], m_py[i], m_pz[i]);
+    }
+
+    void readPosR(int i, Vect3D v){
+        if(m_single)
+            v.set(m_srx[i], m_sry[i], m_srz[i]);
+        else
+            v.set(m_rx[i], m_ry[i], m_rz[i]);
+    }
+
+    void readFrc(int i, Vect3D v){
+        if(m_single)
+            v.set(m_sfx[i], m_sfy[i], m_sfz[i]);
+        else
+            v.set(m_fx[i], m_fy[i], m_fz[i]);
+    }
+
+    double posX(int i){
+        return m_single ? m_spx[i] : m_px[i];
+    }
+
+    double posY(int i){
+        return m_single ? m_spy[i] : m_py[i];
+    }
+
+    double posZ(int i){
+        return m_single ? m_spz[i] : m_pz[i];
+    }
+
+    // Kinetic energy of a mass (from its displacement during the last step).
+    double kineticEnergy(int i){
+        double dx, dy, dz;
+        if(m_single){
+            dx = (double)m_spx[i] - m_srx[i];
+            dy = (double)m_spy[i] - m_sry[i];
+            dz = (double)m_spz[i] - m_srz[i];
+        }
+        else {
+            dx = m_px[i] - m_rx[i];
+            dy = m_py[i] - m_ry[i];
+            dz = m_pz[i] - m_rz[i];
+        }
+        return 0.5 * (dx * dx + dy * dy + dz * dz) / m_invMass[i];
+    }
+
+    // Stop a mass: delayed position set to the position, no force.
+    void stopMass(int i){
+        if(m_single){
+            m_srx[i] = m_spx[i];
+            m_sry[i] = m_spy[i];
+            m_srz[i] = m_spz[i];
+            m_sfx[i] = 0.f;
+            m_sfy[i] = 0.f;
+            m_sfz[i] = 0.f;
+        }
+        else {
+            m_rx[i] = m_px[i];
+            m_ry[i] = m_py[i];
+            m_rz[i] = m_pz[i];
+            m_fx[i] = 0.;
+            m_fy[i] = 0.;
+            m_fz[i] = 0.;
+        }
+    }
+
+    private boolean hasForce(int i){
+        if(m_single)
+            return m_sfx[i] != 0 || m_sfy[i] != 0 || m_sfz[i] != 0;
+        return m_fx[i] != 0 || m_fy[i] != 0 || m_fz[i] != 0;
+    }
+
+    void writePos(int i, Vect3D v){
+        if(m_single){
+            m_spx[i] = (float)v.x;
+            m_spy[i] = (float)v.y;
+            m_spz[i] = (float)v.z;
+        }
+        else {
+            m_px[i] = v.x;
+            m_py[i] = v.y;
+            m_pz[i] = v.z;
+        }
+        if(m_islands != null)
+            m_islands.wakeMass(i);
+    }
+
+    void writePosR(int i, Vect3D v){
+        if(m_single){
+            m_srx[i] = (float)v.x;
+            m_sry[i] = (float)v.y;
+            m_srz[i] = (float)v.z;
+        }
+        else {
+            m_rx[i] = v.x;
+            m_ry[i] = v.y;
+            m_rz[i] = v.z;
+        }
+        if(m_islands != null)
+            m_islands.wakeMass(i);
+    }
+
+    void writeFrc(int i, Vect3D v){
+        if(m_single){
+            m_sfx[i] = (float)v.x;
+            m_sfy[i] = (float)v.y;
+            m_sfz[i] = (float)v.z;
+        }
+        else {
+            m_fx[i] = v.x;
+            m_fy[i] = v.y;
+            m_fz[i] = v.z;
+        }
+        if(m_islands != null && (v.x != 0 || v.y != 0 || v.z != 0))
+            m_islands.wakeMass(i);
+    }
+
+    void addFrc(int i, Vect3D v){
+        if(m_single){
+            m_sfx[i] += v.x;
+            m_sfy[i] += v.y;
+            m_sfz[i] += v.z;
+        }
+        else {
+            m_fx[i] += v.x;
+            m_fy[i] += v.y;
+            m_fz[i] += v.z;
+        }
+        if(m_islands != null && (v.x != 0 || v.y != 0 || v.z != 0))
+            m_islands.wakeMass(i);
+    }
+
+    void updateMass(int i){
+        if(m_masses[i].getMedium() != null && mediumIndex(m_masses[i].getMedium()) < 0) {
+            // A new medium cannot be added on the fly: recompile.
+            release();
+            return;
+        }
+        int kind = m_massKind[i];
+        int med = m_massMedium[i];
+        gatherMassParams(i);
+        if(m_massKind[i] != kind || m_massMedium[i] != med)
+            m_runsDirty = true;
+        if(m_islands != null)
+            m_islands.wakeMass(i);
+    }
+
+    void updateInteraction(int i){
+        gatherInteractionParams(i);
+        if(m_islands != null && m_islands.m_interIsland[i] >= 0)
+            m_islands.wake(m_islands.m_interIsland[i]);
+    }
+
+    void readInteraction(int i){
+        scatterInteractionState(i);
+    }
+
+    // Check that the masses of a model are all inside a space print.
+    boolean massesInside(int mdlIdx, SpacePrint sp){
+        for(int i = m_modelMassStart[mdlIdx]; i < m_modelMassEnd[mdlIdx]; i++)
+            if(!sp.contains(posX(i), posY(i), posZ(i), m_size[i]))
+                return false;
+        return true;
+    }
+
+    // Fit a (reset) space print to the masses of a model, and return the largest radius.
+    double fitSpacePrint(int mdlIdx, SpacePrint sp){
+        double radius = 0;
+        for(int i = m_modelMassStart[mdlIdx]; i < m_modelMassEnd[mdlIdx]; i++) {
+            sp.update(posX(i), posY(i), posZ(i), m_size[i]);
+            radius = Math.max(radius, m_size[i]);
+        }
+        return radius;
+    }
+
+    // Number of steps computed by this compiled model.
+    long getSteps(){
+        return m_steps;
+    }
+
+    // Give the object ownership of the mass state.
+    private void detach(int i){
+        Mass m = m_masses[i];
+        readPos(i, m.m_pos);
+        readPosR(i, m.m_posR);
+        readFrc(i, m.m_frc);
+        m.m_kernel = null;
+    }
+
+    // Take the mass state back from the object.
+    private void attach(int i){
+        gatherMassState(i);
+        m_masses[i].m_kernel = this;
+        // A force received by a sleeping mass (collision, InOut module...) wakes its island up.
+        if(m_islands != null && m_islands.m_massIsland[i] >= 0 && !m_islands.m_awake[m_islands.m_massIsland[i]]
+                && hasForce(i))
+            m_islands.wake(m_islands.m_massIsland[i]);
+    }
+
+    private void gatherMassState(int i){
+        Mass m = m_masses[i];
+        if(m_single){
+            m_spx[i] = (float)m.m_pos.x;
+            m_spy[i] = (float)m.m_pos.y;
+            m_spz[i] = (float)m.m_pos.z;
+            m_srx[i] = (float)m.m_posR.x;
+            m_sry[i] = (float)m.m_posR.y;
+            m_srz[i] = (float)m.m_posR.z;
+            m_sfx[i] = (float)m.m_frc.x;
+            m_sfy[i] = (float)m.m_frc.y;
+            m_sfz[i] = (float)m.m_frc.z;
+        }
+        else {
+            m_px[i] = m.m_pos.x;
+            m_py[i] = m.m_pos.y;
+            m_pz[i] = m.m_pos.z;
+            m_rx[i] = m.m_posR.x;
+            m_ry[i] = m.m_posR.y;
+            m_rz[i] = m.m_posR.z;
+            m_fx[i] = m.m_frc.x;
+            m_fy[i] = m.m_frc.y;
+            m_fz[i] = m.m_frc.z;
+        }
+    }
+
+    /**
+     * Hand the state of the own masses of a model over to the objects (before running object-based
+     * code such as collisions on them). Nothing is done for masses already handed over.
+     * @param mdl the model (ignored if not compiled in this model).
+     */
+    void handOver(PhyModel mdl){
+        if(mdl.m_kernel != this)
+            return;
+        for(int i = m_modelMassStart[mdl.m_kernelIdx]; i < m_modelMassEnd[mdl.m_kernelIdx]; i++)
+            handOver(i);
+    }
+
+    /**
+     * Hand the state of a set of masses over to the objects (same).
+     * @param masses the masses (the ones not compiled in this model are ignored).
+     */
+    void handOver(ArrayList<Mass> masses){
+        for(int i = 0; i < masses.size(); i++){
+            Mass m = masses.get(i);
+            if(m.m_kernel == this)
+                handOver(m.m_kernelIdx);
+        }
+    }
+
+    private void handOver(int i){
+        if(m_masses[i].m_kernel != this)
+            return;
+        detach(i);
+        m_handed[m_nbHanded++] = i;
+    }
+
+    /**
+     * Take the state of the masses handed over back from the objects.
+     */
+    void takeBack(){
+        for(int k = 0; k < m_nbHanded; k++)
+            attach(m_handed[k]);
+        m_nbHanded = 0;
+    }
+
+
+    /*************************************************/
+    /* Computation                                   */
+    /*************************************************/
+
+    /**
+     * Compute the following steps in parallel on a pool of workers (or serially if null).
+     * Models that share no mass are computed concurrently, each one in model order. Large models are
+     * computed colour by colour: the forces applied to a mass by their interactions are then summed in
+     * colour order rather than in model order, so results are identical whatever the number of workers,
+     * and differ from the serial computation by rounding errors only. Ignored if a model is connected
+     * to masses of a following model (computed serially, in the model order).
+     * @param workers the worker pool.
+     */
+    void setWorkers(WorkerPool workers){
+        m_workers = workers;
+        if(m_workers != null && m_colourOrder == null) {
+            buildColours();
+            buildLevels();
+        }
+    }
+
+    /**
+     * Let the parts of the model that are at rest go to sleep: the masses and interactions of an island
+     * (masses connected together by interactions, fixed masses excepted) are no longer computed once its
+     * kinetic energy has stayed below a threshold for a number of steps, until a force is applied to one
+     * of its masses, a mass is moved, a fixed or position-driven mass it is connected to moves, one of
+     * its parameters or a medium changes. Only used in serial computation (ignored while workers are set),
+     * and if no model is connected to masses of a following model.
+     * @param threshold kinetic energy threshold (negative to disable sleeping).
+     * @param nbSteps number of steps an island must stay below the threshold before going to sleep.
+     */
+    void setSleeping(double threshold, int nbSteps){
+        if(threshold < 0){
+            m_islands = null;
+            return;
+        }
+        m_sleepThreshold = threshold;
+        m_sleepSteps = Math.max(nbSteps, 1);
+        buildIslands();
+    }
+
+    public int getNumberOfIslands(){
+        return m_islands == null ? 0 : m_islands.getNumberOfIslands();
+    }
+
+    public int getNumberOfSleepingIslands(){
+        return m_islands == null ? 0 : m_islands.getNumberOfSleepingIslands();
+    }
+
+    private void refreshMedia(){
+        boolean changed = false;
+        for(int k = 0; k < m_media.length; k++){
+            int version = m_media[k].getVersion();
+            if(version == m_mediaVersion[k])
+                continue;
+            changed = true;
+            if(m_islands != null && m_mediaVersion[k] >= 0)
+                m_islands.wakeAll();
+            m_mediaVersion[k] = version;
+            Vect3D g = m_media[k].gravity();
+            m_fric[k] = m_media[k].getMediumFriction();
+            m_gx[k] = g.x;
+            m_gy[k] = g.y;
+            m_gz[k] = g.z;
+            m_sgx[k] = (float)g.x;
+            m_sgy[k] = (float)g.y;
+            m_sgz[k] = (float)g.z;
+        }
+        if(changed)
+            for(int i = 0; i < m_nbMasses; i++)
+                computeCoefs(i);
+    }
+
+    /**
+     * Compute one simulation step of the compiled model.
+     */
+    void step(){
+        refreshMedia();
+        if(m_runsDirty)
+            buildRuns();
+
+        if(m_ordered){
+            stepOrdered();
+            return;
+        }
+        if(m_workers != null){
+            stepParallel();
+            return;
+        }
+        if(m_islands != null){
+            stepIslands();
+            return;
+        }
+
+        int start = 0;
+        for(int r = 0; r < m_massRunKind.length; r++){
+            computeMasses(m_massRunKind[r], m_massRunMedium[r], start, m_massRunEnd[r]);
+            start = m_massRunEnd[r];
+        }
+
+        for(int s = 0; s < m_segEnd.length; s++)
+            computeSegment(s);
+        m_steps++;
+    }
+
+    // Same as step(), integrating the masses just before the first segment that follows them.
+    private void stepOrdered(){
+        int r = 0;
+        int start = 0;
+        for(int s = 0; s < m_segEnd.length; s++){
+            int end = m_segMassEnd[s];
+            while(start < end){
+                int stop = Math.min(m_massRunEnd[r], end);
+                computeMasses(m_massRunKind[r], m_massRunMedium[r], start, stop);
+                start = stop;
+                if(start == m_massRunEnd[r])
+                    r++;
+            }
+            computeSegment(s);
+        }
+        m_steps++;
+    }
+
+    // Same as step(), skipping the masses and interactions of the sleeping islands.
+    private void stepIslands(){
+        Islands isl = m_islands;
+        for(int i = 0; i < m_nbMasses; i++){
+            int k = isl.m_massIsland[i];
+            if(k < 0 || isl.m_awake[k])
+                computeMass(i);
+        }
+        isl.checkKinematic(this);
+        isl.update(this);
+
+        int start = 0;
+        for(int s = 0; s < m_segEnd.length; s++){
+            for(int i = start; i < m_segEnd[s]; i++){
+                int k = isl.m_interIsland[i];
+                if(k < 0 || isl.m_awake[k])
+                    computeInteraction(i);
+            }
+            for(InOut io : m_segInOuts[s])
+                computeInOut(io);
+            start = m_segEnd[s];
+        }
+        m_steps++;
+    }
+
+    // Interactions of a segment (in model order), then its InOut modules.
+    private void computeSegment(int s){
+        int start = (s == 0) ? 0 : m_segEnd[s-1];
+        for(int r = (s == 0) ? 0 : m_segRunEnd[s-1]; r < m_segRunEnd[s]; r++){
+            computeInteractions(m_interRunKind[r], start, m_interRunEnd[r]);
+            start = m_interRunEnd[r];
+        }
+        for(InOut io : m_segInOuts[s])
+            computeInOut(io);
+    }
+
+    // Same, with the interactions computed colour by colour, each colour being split between the workers.
+    private void computeSegmentInColours(int s){
+        int c = (s == 0) ? 0 : m_segColourEnd[s-1];
+        int pos = (c == 0) ? 0 : m_colourEnd[c-1];
+        for(; c < m_segColourEnd[s]; c++){
+            int end = m_colourEnd[c];
+            if(end - pos >= m_workers.getMinimumTaskSize()){
+                m_colourStart = pos;
+                m_colourStop = end;
+                m_workers.execute(m_colourTask);
+            }
+            else
+                computeInteractionList(m_colourOrder, pos, end);
+            pos = end;
+        }
+        computeInteractionList(m_serialOrder, (s == 0) ? 0 : m_segSerialEnd[s-1], m_segSerialEnd[s]);
+        for(InOut io : m_segInOuts[s])
+            computeInOut(io);
+    }
+
+    // Large segments are worth splitting into colours, the others are computed whole by one worker.
+    private boolean isLargeSegment(int s){
+        int size = m_segEnd[s] - ((s == 0) ? 0 : m_segEnd[s-1]);
+        return size >= 4 * m_workers.getMinimumTaskSize();
+    }
+
+    private void stepParallel(){
+        if(m_nbMasses >= 2 * m_workers.getMinimumTaskSize())
+            m_workers.execute(m_massTask);
+        else
+            computeMassRange(0, m_nbMasses);
+        // Modules computed as objects stay on the calling thread.
+        for(int i : m_objectMasses){
+            detach(i);
+            m_masses[i].compute();
+            attach(i);
+        }
+
+        // Segments level by level: the small segments of a level are shared out between the workers,
+        // then each large segment is computed colour by colour.
+        int start = 0;
+        for(int l = 0; l < m_levelEnd.length; l++){
+            int end = m_levelEnd[l];
+            int nbSmall = 0;
+            for(int j = start; j < end; j++)
+                if(!isLargeSegment(m_levelSegs[j]))
+                    nbSmall++;
+            if(nbSmall > 1){
+                m_levelStop = end;
+                m_segCursor.set(start);
+                m_workers.execute(m_segmentTask);
+            }
+            else if(nbSmall == 1){
+                for(int j = start; j < end; j++)
+                    if(!isLargeSegment(m_levelSegs[j]))
+                        computeSegment(m_levelSegs[j]);
+            }
+            for(int j = start; j < end; j++)
+                if(isLargeSegment(m_levelSegs[j]))
+                    computeSegmentInColours(m_levelSegs[j]);
+            start = end;
+        }
+        m_steps++;
+    }
+
+    private void computeSegmentTask(int worker, int nbWorkers){
+        int j;
+        while((j = m_segCursor.getAndIncrement()) < m_levelStop){
+            int s = m_levelSegs[j];
+            if(!isLargeSegment(s))
+                computeSegment(s);
+        }
+    }
+
+    private void computeMassChunk(int worker, int nbWorkers){
+        computeMassRange((int)((long)m_nbMasses * worker / nbWorkers),
+                (int)((long)m_nbMasses * (worker + 1) / nbWorkers));
+    }
+
+    private void computeColourChunk(int worker, int nbWorkers){
+        int len = m_colourStop - m_colourStart;
+        computeInteractionList(m_colourOrder, m_colourStart + (int)((long)len * worker / nbWorkers),
+                m_colourStart + (int)((long)len * (worker + 1) / nbWorkers));
+    }
+
+    // Compiled masses only (modules computed as objects are skipped).
+    private void computeMassRange(int start, int end){
+        // First run ending after start.
+        int lo = 0;
+        int hi = m_massRunEnd.length - 1;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(m_massRunEnd[mid] <= start)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        for(int r = lo; start < end; r++){
+            int stop = Math.min(m_massRunEnd[r], end);
+            if(m_massRunKind[r] != M_OBJECT)
+                computeMasses(m_massRunKind[r], m_massRunMedium[r], start, stop);
+            start = stop;
+        }
+    }
+
+    private void computeMass(int i){
+        computeMasses(m_massKind[i], -1, i, i + 1);
+    }
+
+    private void computeInteractionList(int[] order, int start, int end){
+        for(int j = start; j < end; j++)
+            computeInteraction(order[j]);
+    }
+
+    private void computeInteraction(int i){
+        computeInteractions(m_interKind[i], i, i + 1);
+    }
+
+    // med: medium shared by all the masses of the range (-1 if unknown).
+    private void computeMasses(int kind, int med, int start, int end){
+        if(m_single){
+            computeMassesSingle(kind, med, start, end);
+            return;
+        }
+        switch(kind){
+            case M_MASS3D:
+                if(med >= 0){
+                    for(int b = start; b < end; b += BLOCK){
+                        int e = Math.min(b + BLOCK, end);
+                        integrate(m_px, m_rx, m_fx, m_ca, m_cb, m_invMass, m_gx[med], b, e);
+                        integrate(m_py, m_ry, m_fy, m_ca, m_cb, m_invMass, m_gy[med], b, e);
+                        integrate(m_pz, m_rz, m_fz, m_ca, m_cb, m_invMass, m_gz[med], b, e);
+                    }
+                }
+                else
+                    for(int i = start; i < end; i++)
+                        computeMass3D(i);
+                break;
+            case M_MASS2DPLANE:
+                if(med >= 0){
+                    for(int b = start; b < end; b += BLOCK){
+                        int e = Math.min(b + BLOCK, end);
+                        integrate(m_px, m_rx, m_fx, m_ca, m_cb, m_invMass, m_gx[med], b, e);
+                        integrate(m_py, m_ry, m_fy, m_ca, m_cb, m_invMass, m_gy[med], b, e);
+                    }
+                    System.arraycopy(m_pz, start, m_rz, start, end - start);
+                    java.util.Arrays.fill(m_fz, start, end, 0.);
+                }
+                else
+                    for(int i = start; i < end; i++)
+                        computeMass2DPlane(i);
+                break;
+            case M_MASS1D:
+                if(med >= 0){
+                    integrate(m_pz, m_rz, m_fz, m_ca, m_cb, m_invMass, m_gz[med], start, end);
+                    java.util.Arrays.fill(m_fx, start, end, 0.);
+                    java.util.Arrays.fill(m_fy, start, end, 0.);
+                }
+                else
+                    for(int i = start; i < end; i++)
+                        computeMass1D(i);
+                break;
+            case M_GROUND:
+                for(int i = start; i < end; i++){
+                    m_fx[i] = 0.;
+                    m_fy[i] = 0.;
+                    m_fz[i] = 0.;
+                }
+                break;
+            default:
+                for(int i = start; i < end; i++)
+                    computeObjectMass(i);
+                break;
+        }
+    }
+
+    private void computeMassesSingle(int kind, int med, int start, int end){
+        switch(kind){
+            case M_MASS3D:
+                if(med >= 0){
+                    for(int b = start; b < end; b += BLOCK){
+                        int e = Math.min(b + BLOCK, end);
+                        integrate(m_spx, m_srx, m_sfx, m_scb, m_sinv, m_sgx[med], b, e);
+                        integrate(m_spy, m_sry, m_sfy, m_scb, m_sinv, m_sgy[med], b, e);
+                        integrate(m_spz, m_srz, m_sfz, m_scb, m_sinv, m_sgz[med], b, e);
+                    }
+                }
+                else
+                    for(int i = start; i < end; i++)
+                        computeMass3DSingle(i);
+                break;
+            case M_MASS2DPLANE:
+                if(med >= 0){
+                    for(int b = start; b < end; b += BLOCK){
+                        int e = Math.min(b + BLOCK, end);
+                        integrate(m_spx, m_srx, m_sfx, m_scb, m_sinv, m_sgx[med], b, e);
+                        integrate(m_spy, m_sry, m_sfy, m_scb, m_sinv, m_sgy[med], b, e);
+                    }
+                    System.arraycopy(m_spz, start, m_srz, start, end - start);
+                    java.util.Arrays.fill(m_sfz, start, end, 0.f);
+                }
+                else
+                    for(int i = start; i < end; i++)
+                        computeMass2DPlaneSingle(i);
+                break;
+            case M_MASS1D:
+                if(med >= 0){
+                    integrate(m_spz, m_srz, m_sfz, m_scb, m_sinv, m_sgz[med], start, end);
+                    java.util.Arrays.fill(m_sfx, start, end, 0.f);
+                    java.util.Arrays.fill(m_sfy, start, end, 0.f);
+                }
+                else
+                    for(int i = start; i < end; i++)
+                        computeMass1DSingle(i);
+                break;
+            case M_GROUND:
+                for(int i = start; i < end; i++){
+                    m_sfx[i] = 0.f;
+                    m_sfy[i] = 0.f;
+                    m_sfz[i] = 0.f;
+                }
+                break;
+            default:
+                for(int i = start; i < end; i++)
+                    computeObjectMass(i);
+                break;
+        }
+    }
+
+    // Interactions are computed one at a time: they read positions and add forces through the indexes
+    // of their masses, which the JIT does not vectorise (unlike the mass integration loops).
+    private void computeInteractions(int kind, int start, int end){
+        if(m_single){
+            computeInteractionsSingle(kind, start, end);
+            return;
+        }
+        switch(kind){
+            case I_SPRINGDAMPER3D:
+                for(int i = start; i < end; i++)
+                    computeSpringDamper3D(i);
+                break;
+            case I_ROPE3D:
+                for(int i = start; i < end; i++)
+                    computeRope3D(i);
+                break;
+            case I_CONTACT3D:
+                for(int i = start; i < end; i++)
+                    computeContact3D(i);
+                break;
+            case I_SPRINGDAMPER1D:
+                for(int i = start; i < end; i++)
+                    computeSpringDamper1D(i);
+                break;
+            default:
+                for(int i = start; i < end; i++)
+                    computeObjectInteraction(i);
+                break;
+        }
+    }
+
+    private void computeInteractionsSingle(int kind, int start, int end){
+        switch(kind){
+            case I_SPRINGDAMPER3D:
+                for(int i = start; i < end; i++)
+                    computeSpringDamper3DSingle(i);
+                break;
+            case I_ROPE3D:
+                for(int i = start; i < end; i++)
+                    computeRope3DSingle(i);
+                break;
+            case I_CONTACT3D:
+                for(int i = start; i < end; i++)
+                    computeContact3DSingle(i);
+                break;
+            case I_SPRINGDAMPER1D:
+                for(int i = start; i < end; i++)
+                    computeSpringDamper1DSingle(i);
+                break;
+            default:
+                for(int i = start; i < end; i++)
+                    computeObjectInteraction(i);
+                break;
+        }
+    }
+
+    private void computeObjectMass(int i){
+        detach(i);
+        m_masses[i].compute();
+        attach(i);
+    }
+
+    private void computeObjectInteraction(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        detach(a);
+        if(b != a)
+            detach(b);
+        m_inters[i].compute();
+        attach(a);
+        if(b != a)
+            attach(b);
+    }
+
+    private void computeInOut(InOut io){
+        Mass m = io.getMat();
+        if(m != null && m.m_kernel == this){
+            int i = m.m_kernelIdx;
+            detach(i);
+            io.compute();
+            attach(i);
+        }
+        else
+            io.compute();
+    }
+
+    /* The mass algorithms below reproduce the operation order of the Mass modules,
+     * so that compiled and object computations give identical results. */
+
+    /* Verlet update of one coordinate of a range of masses sharing the same medium. Each coordinate
+     * is integrated by a separate plain loop over the state arrays, which the JIT compiles to SIMD
+     * instructions. */
+    private static void integrate(double[] p, double[] r, double[] f, double[] ca, double[] cb, double[] invMass,
+                                  double g, int start, int end){
+        for(int i = start; i < end; i++){
+            double x = p[i];
+            p[i] = x * ca[i] - r[i] * cb[i] + f[i] * invMass[i] - g;
+            r[i] = x;
+            f[i] = 0.;
+        }
+    }
+
+    private static void integrate(float[] p, float[] r, float[] f, float[] cb, float[] invMass, float g,
+                                  int start, int end){
+        for(int i = start; i < end; i++){
+            float x = p[i];
+            p[i] = x + (x - r[i]) * cb[i] + f[i] * invMass[i] - g;
+            r[i] = x;
+            f[i] = 0.f;
+        }
+    }
+
+    private void computeMass3D(int i){
+        int med = m_massMedium[i];
+        double inv = m_invMass[i];
+        double a = m_ca[i];
+        double b = m_cb[i];
+
+        double x = m_px[i];
+        double y = m_py[i];
+        double z = m_pz[i];
+
+        m_px[i] = x * a - m_rx[i] * b + m_fx[i] * inv - m_gx[med];
+        m_py[i] = y * a - m_ry[i] * b + m_fy[i] * inv - m_gy[med];
+        m_pz[i] = z * a - m_rz[i] * b + m_fz[i] * inv - m_gz[med];
+
+        m_rx[i] = x;
+        m_ry[i] = y;
+        m_rz[i] = z;
+        m_fx[i] = 0.;
+        m_fy[i] = 0.;
+        m_fz[i] = 0.;
+    }
+
+    private void computeMass2DPlane(int i){
+        int med = m_massMedium[i];
+        double inv = m_invMass[i];
+        double a = m_ca[i];
+        double b = m_cb[i];
+
+        double x = m_px[i];
+        double y = m_py[i];
+
+        m_px[i] = x * a - m_rx[i] * b + m_fx[i] * inv - m_gx[med];
+        m_py[i] = y * a - m_ry[i] * b + m_fy[i] * inv - m_gy[med];
+
+        // Constrain to 2D Plane : keep Z axis value constant
+        m_rx[i] = x;
+        m_ry[i] = y;
+        m_rz[i] = m_pz[i];
+        m_fx[i] = 0.;
+        m_fy[i] = 0.;
+        m_fz[i] = 0.;
+    }
+
+    private void computeMass1D(int i){
+        int med = m_massMedium[i];
+        double inv = m_invMass[i];
+        double newPos = m_ca[i] * m_pz[i] - m_cb[i] * m_rz[i] + m_fz[i] * inv;
+        newPos -= m_gz[med];
+
+        m_rz[i] = m_pz[i];
+        m_pz[i] = newPos;
+        m_fx[i] = 0.;
+        m_fy[i] = 0.;
+        m_fz[i] = 0.;
+    }
+
+    /* Same conventions as Vect3D.dist() and Vect3D.sqDist() for superposed points. */
+
+    private static double dist(double x1, double y1, double z1, double x2, double y2, double z2){
+        if((x1 == x2) && (y1 == y2) && (z1 == z2))
+            return 0.00000001;
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double dz = z2 - z1;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private static double sqDist(double x1, double y1, double z1, double x2, double y2, double z2){
+        if((x1 == x2) && (y1 == y2) && (z1 == z2))
+            return 0.00000001;
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double dz = z2 - z1;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void applyForcesAndShift(int i, int a, int b, double lnkFrc){
+        double invDist = 1. / m_dist[i];
+
+        double x_proj = (m_px[a] - m_px[b]) * invDist;
+        double y_proj = (m_py[a] - m_py[b]) * invDist;
+        double z_proj = (m_pz[a] - m_pz[b]) * invDist;
+
+        m_fx[a] += lnkFrc * x_proj;
+        m_fy[a] += lnkFrc * y_proj;
+        m_fz[a] += lnkFrc * z_proj;
+
+        m_fx[b] -= lnkFrc * x_proj;
+        m_fy[b] -= lnkFrc * y_proj;
+        m_fz[b] -= lnkFrc * z_proj;
+
+        m_prevDist[i] = m_dist[i];
+    }
+
+    private void computeSpringDamper3D(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        double d = dist(m_px[a], m_py[a], m_pz[a], m_px[b], m_py[b], m_pz[b]);
+        m_dist[i] = d;
+        applyForcesAndShift(i, a, b, -(d - m_dRest[i]) * m_K[i] - (d - m_prevDist[i]) * m_Z[i]);
+    }
+
+    private void computeRope3D(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        double dSquared = sqDist(m_px[a], m_py[a], m_pz[a], m_px[b], m_py[b], m_pz[b]);
+
+        if (dSquared > m_dRsquared[i]) {
+            double d = Math.sqrt(dSquared);
+            m_dist[i] = d;
+            if(!m_active[i])
+                m_prevDist[i] = dist(m_rx[a], m_ry[a], m_rz[a], m_rx[b], m_ry[b], m_rz[b]);
+            applyForcesAndShift(i, a, b, -(d - m_dRest[i]) * m_K[i] - (d - m_prevDist[i]) * m_Z[i]);
+            m_active[i] = true;
+        }
+        else m_active[i] = false;
+    }
+
+    private void computeContact3D(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        double dSquared = sqDist(m_px[a], m_py[a], m_pz[a], m_px[b], m_py[b], m_pz[b]);
+        double interSize = m_size[a] + m_size[b];
+
+        if (dSquared < (interSize * interSize)) {
+            double d = Math.sqrt(dSquared);
+            m_dist[i] = d;
+            if(!m_active[i])
+                m_prevDist[i] = dist(m_rx[a], m_ry[a], m_rz[a], m_rx[b], m_ry[b], m_rz[b]);
+            applyForcesAndShift(i, a, b, -(d - interSize) * m_K[i] - (d - m_prevDist[i]) * m_Z[i]);
+            m_active[i] = true;
+        }
+        else m_active[i] = false;
+    }
+
+    private void computeSpringDamper1D(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        double d = m_pz[a] - m_pz[b];
+        double lnkFrc = (d - m_dRest[i]) * m_K[i] + (d - m_prevDist[i]) * m_Z[i];
+        m_fz[b] += lnkFrc;
+        m_fz[a] -= lnkFrc;
+        m_dist[i] = d;
+        m_prevDist[i] = d;
+    }
+
+    /* Single precision versions: same algorithms, in single precision arithmetic (the Verlet update is
+     * written in terms of the displacement over the last step, to limit rounding errors on positions). */
+
+    private void computeMass3DSingle(int i){
+        int med = m_massMedium[i];
+        float inv = m_sinv[i];
+        float b = m_scb[i];
+
+        float x = m_spx[i];
+        float y = m_spy[i];
+        float z = m_spz[i];
+
+        m_spx[i] = x + (x - m_srx[i]) * b + m_sfx[i] * inv - m_sgx[med];
+        m_spy[i] = y + (y - m_sry[i]) * b + m_sfy[i] * inv - m_sgy[med];
+        m_spz[i] = z + (z - m_srz[i]) * b + m_sfz[i] * inv - m_sgz[med];
+
+        m_srx[i] = x;
+        m_sry[i] = y;
+        m_srz[i] = z;
+        m_sfx[i] = 0.f;
+        m_sfy[i] = 0.f;
+        m_sfz[i] = 0.f;
+    }
+
+    private void computeMass2DPlaneSingle(int i){
+        int med = m_massMedium[i];
+        float inv = m_sinv[i];
+        float b = m_scb[i];
+
+        float x = m_spx[i];
+        float y = m_spy[i];
+
+        m_spx[i] = x + (x - m_srx[i]) * b + m_sfx[i] * inv - m_sgx[med];
+        m_spy[i] = y + (y - m_sry[i]) * b + m_sfy[i] * inv - m_sgy[med];
+
+        m_srx[i] = x;
+        m_sry[i] = y;
+        m_srz[i] = m_spz[i];
+        m_sfx[i] = 0.f;
+        m_sfy[i] = 0.f;
+        m_sfz[i] = 0.f;
+    }
+
+    private void computeMass1DSingle(int i){
+        int med = m_massMedium[i];
+        float inv = m_sinv[i];
+        float b = m_scb[i];
+
+        float z = m_spz[i];
+        m_spz[i] = z + (z - m_srz[i]) * b + m_sfz[i] * inv - m_sgz[med];
+        m_srz[i] = z;
+        m_sfx[i] = 0.f;
+        m_sfy[i] = 0.f;
+        m_sfz[i] = 0.f;
+    }
+
+    // dx, dy, dz: vector from the first mass to the second one.
+    private void applyForcesAndShiftSingle(int i, int a, int b, float dx, float dy, float dz, float lnkFrc){
+        float f = lnkFrc / m_sdist[i];
+
+        m_sfx[a] -= f * dx;
+        m_sfy[a] -= f * dy;
+        m_sfz[a] -= f * dz;
+
+        m_sfx[b] += f * dx;
+        m_sfy[b] += f * dy;
+        m_sfz[b] += f * dz;
+
+        m_sprevDist[i] = m_sdist[i];
+    }
+
+    private float distSingle(float[] x, float[] y, float[] z, int a, int b){
+        float dx = x[b] - x[a];
+        float dy = y[b] - y[a];
+        float dz = z[b] - z[a];
+        if((dx == 0) && (dy == 0) && (dz == 0))
+            return 0.00000001f;
+        return (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private void computeSpringDamper3DSingle(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        float dx = m_spx[b] - m_spx[a];
+        float dy = m_spy[b] - m_spy[a];
+        float dz = m_spz[b] - m_spz[a];
+        float d = ((dx == 0) && (dy == 0) && (dz == 0)) ? 0.00000001f : (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+        m_sdist[i] = d;
+        applyForcesAndShiftSingle(i, a, b, dx, dy, dz, -(d - m_sdRest[i]) * m_sK[i] - (d - m_sprevDist[i]) * m_sZ[i]);
+    }
+
+    private void computeRope3DSingle(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        float dx = m_spx[b] - m_spx[a];
+        float dy = m_spy[b] - m_spy[a];
+        float dz = m_spz[b] - m_spz[a];
+        float dSquared = ((dx == 0) && (dy == 0) && (dz == 0)) ? 0.00000001f : dx * dx + dy * dy + dz * dz;
+
+        if (dSquared > m_sdRsquared[i]) {
+            float d = (float)Math.sqrt(dSquared);
+            m_sdist[i] = d;
+            if(!m_active[i])
+                m_sprevDist[i] = distSingle(m_srx, m_sry, m_srz, a, b);
+            applyForcesAndShiftSingle(i, a, b, dx, dy, dz, -(d - m_sdRest[i]) * m_sK[i] - (d - m_sprevDist[i]) * m_sZ[i]);
+            m_active[i] = true;
+        }
+        else m_active[i] = false;
+    }
+
+    private void computeContact3DSingle(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        float dx = m_spx[b] - m_spx[a];
+        float dy = m_spy[b] - m_spy[a];
+        float dz = m_spz[b] - m_spz[a];
+        float dSquared = ((dx == 0) && (dy == 0) && (dz == 0)) ? 0.00000001f : dx * dx + dy * dy + dz * dz;
+        float interSize = (float)(m_size[a] + m_size[b]);
+
+        if (dSquared < (interSize * interSize)) {
+            float d = (float)Math.sqrt(dSquared);
+            m_sdist[i] = d;
+            if(!m_active[i])
+                m_sprevDist[i] = distSingle(m_srx, m_sry, m_srz, a, b);
+            applyForcesAndShiftSingle(i, a, b, dx, dy, dz, -(d - interSize) * m_sK[i] - (d - m_sprevDist[i]) * m_sZ[i]);
+            m_active[i] = true;
+        }
+        else m_active[i] = false;
+    }
+
+    private void computeSpringDamper1DSingle(int i){
+        int a = m_mat1[i];
+        int b = m_mat2[i];
+        float d = m_spz[a] - m_spz[b];
+        float lnkFrc = (d - m_sdRest[i]) * m_sK[i] + (d - m_sprevDist[i]) * m_sZ[i];
+        m_sfz[b] += lnkFrc;
+        m_sfz[a] -= lnkFrc;
+        m_sdist[i] = d;
+        m_sprevDist[i] = d;
+    }
+}
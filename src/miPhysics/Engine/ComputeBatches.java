@@ -0,0 +1,255 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+
+/**
+ * Type-grouped evaluation of the masses and interactions of a physical model.
+ *
+ * The module lists of a model are split into runs of consecutive modules of the same concrete type,
+ * and each run is computed by a loop dedicated to that type. Every call site then only ever sees
+ * one class, so the JIT can inline the compute() methods instead of going through a megamorphic
+ * virtual call. Runs are never reordered: modules are computed in exactly the same order as in
+ * the original lists, so the results are unchanged.
+ *
+ * Modules whose class is not one of the built-in ones (user-defined subclasses...) go into generic runs.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class ComputeBatches {
+
+    private final Mass[] m_masses;
+    private final int[] m_massRunType;
+    private final int[] m_massRunEnd;
+
+    private final Interaction[] m_inters;
+    private final int[] m_interRunType;
+    private final int[] m_interRunEnd;
+
+    /**
+     * Build the batches for a list of masses and a list of interactions.
+     * @param masses the masses, in computation order.
+     * @param inters the interactions, in computation order.
+     */
+    ComputeBatches(ArrayList<Mass> masses, ArrayList<Interaction> inters){
+        m_masses = masses.toArray(new Mass[0]);
+        int[] types = new int[m_masses.length];
+        for(int i = 0; i < m_masses.length; i++)
+            types[i] = massBatchType(m_masses[i]);
+        int nbRuns = countRuns(types);
+        m_massRunType = new int[nbRuns];
+        m_massRunEnd = new int[nbRuns];
+        fillRuns(types, m_massRunType, m_massRunEnd);
+
+        m_inters = inters.toArray(new Interaction[0]);
+        types = new int[m_inters.length];
+        for(int i = 0; i < m_inters.length; i++)
+            types[i] = interBatchType(m_inters[i]);
+        nbRuns = countRuns(types);
+        m_interRunType = new int[nbRuns];
+        m_interRunEnd = new int[nbRuns];
+        fillRuns(types, m_interRunType, m_interRunEnd);
+    }
+
+    /**
+     * Check that the batches still describe the given lists.
+     * @param nbMasses current number of masses in the model.
+     * @param nbInters current number of interactions in the model.
+     * @return true if the batches can be used.
+     */
+    boolean matches(int nbMasses, int nbInters){
+        return m_masses.length == nbMasses && m_inters.length == nbInters;
+    }
+
+    Mass[] masses(){
+        return m_masses;
+    }
+
+    /* Batch types. Only the exact built-in classes get a dedicated loop: a subclass may override compute(). */
+
+    private static final int B_OBJECT = 0;
+
+    private static final int B_MASS3D = 1;
+    private static final int B_MASS2DPLANE = 2;
+    private static final int B_MASS1D = 3;
+    private static final int B_GROUND3D = 4;
+    private static final int B_GROUND1D = 5;
+    private static final int B_OSC3D = 6;
+    private static final int B_OSC1D = 7;
+    private static final int B_POSINPUT3D = 8;
+    private static final int B_HAPTICINPUT3D = 9;
+
+    private static final int B_SPRINGDAMPER3D = 1;
+    private static final int B_SPRING3D = 2;
+    private static final int B_DAMPER3D = 3;
+    private static final int B_SPRINGDAMPER1D = 4;
+    private static final int B_ROPE3D = 5;
+    private static final int B_CONTACT3D = 6;
+    private static final int B_PLANECONTACT3D = 7;
+    private static final int B_BUBBLE3D = 8;
+    private static final int B_ATTRACTOR3D = 9;
+
+    static int massBatchType(Mass m){
+        Class<?> c = m.getClass();
+        if(c == Mass3D.class) return B_MASS3D;
+        if(c == Mass2DPlane.class) return B_MASS2DPLANE;
+        if(c == Mass1D.class) return B_MASS1D;
+        if(c == Ground3D.class) return B_GROUND3D;
+        if(c == Ground1D.class) return B_GROUND1D;
+        if(c == Osc3D.class) return B_OSC3D;
+        if(c == Osc1D.class) return B_OSC1D;
+        if(c == PosInput3D.class) return B_POSINPUT3D;
+        if(c == HapticInput3D.class) return B_HAPTICINPUT3D;
+        return B_OBJECT;
+    }
+
+    static int interBatchType(Interaction inter){
+        Class<?> c = inter.getClass();
+        if(c == SpringDamper3D.class) return B_SPRINGDAMPER3D;
+        if(c == Spring3D.class) return B_SPRING3D;
+        if(c == Damper3D.class) return B_DAMPER3D;
+        if(c == SpringDamper1D.class) return B_SPRINGDAMPER1D;
+        if(c == Rope3D.class) return B_ROPE3D;
+        if(c == Contact3D.class) return B_CONTACT3D;
+        if(c == PlaneContact3D.class) return B_PLANECONTACT3D;
+        if(c == Bubble3D.class) return B_BUBBLE3D;
+        if(c == Attractor3D.class) return B_ATTRACTOR3D;
+        return B_OBJECT;
+    }
+
+    static int countRuns(int[] types){
+        int nb = 0;
+        for(int i = 0; i < types.length; i++)
+            if(i == 0 || types[i] != types[i-1])
+                nb++;
+        return nb;
+    }
+
+    static void fillRuns(int[] types, int[] runType, int[] runEnd){
+        int r = -1;
+        for(int i = 0; i < types.length; i++){
+            if(i == 0 || types[i] != types[i-1]){
+                r++;
+                runType[r] = types[i];
+            }
+            runEnd[r] = i + 1;
+        }
+    }
+
+
+    /**
+     * Compute all the masses, run by run.
+     */
+    void computeMasses(){
+        int start = 0;
+        for(int r = 0; r < m_massRunType.length; r++){
+            int end = m_massRunEnd[r];
+            computeMassRun(m_massRunType[r], start, end);
+            start = end;
+        }
+    }
+
+    /**
+     * Compute all the interactions, run by run.
+     */
+    void computeInteractions(){
+        int start = 0;
+        for(int r = 0; r < m_interRunType.length; r++){
+            int end = m_interRunEnd[r];
+            computeInterRun(m_interRunType[r], start, end);
+            start = end;
+        }
+    }
+
+    private void computeMassRun(int type, int start, int end){
+        Mass[] m = m_masses;
+        switch(type){
+            case B_MASS3D:
+                for(int i = start; i < end; i++)
+                    ((Mass3D)m[i]).compute();
+                break;
+            case B_MASS2DPLANE:
+                for(int i = start; i < end; i++)
+                    ((Mass2DPlane)m[i]).compute();
+                break;
+            case B_MASS1D:
+                for(int i = start; i < end; i++)
+                    ((Mass1D)m[i]).compute();
+                break;
+            case B_GROUND3D:
+                for(int i = start; i < end; i++)
+                    ((Ground3D)m[i]).compute();
+                break;
+            case B_GROUND1D:
+                for(int i = start; i < end; i++)
+                    ((Ground1D)m[i]).compute();
+                break;
+            case B_OSC3D:
+                for(int i = start; i < end; i++)
+                    ((Osc3D)m[i]).compute();
+                break;
+            case B_OSC1D:
+                for(int i = start; i < end; i++)
+                    ((Osc1D)m[i]).compute();
+                break;
+            case B_POSINPUT3D:
+                for(int i = start; i < end; i++)
+                    ((PosInput3D)m[i]).compute();
+                break;
+            case B_HAPTICINPUT3D:
+                for(int i = start; i < end; i++)
+                    ((HapticInput3D)m[i]).compute();
+                break;
+            default:
+                for(int i = start; i < end; i++)
+                    m[i].compute();
+                break;
+        }
+    }
+
+    private void computeInterRun(int type, int start, int end){
+        Interaction[] l = m_inters;
+        switch(type){
+            case B_SPRINGDAMPER3D:
+                for(int i = start; i < end; i++)
+                    ((SpringDamper3D)l[i]).compute();
+                break;
+            case B_SPRING3D:
+                for(int i = start; i < end; i++)
+                    ((Spring3D)l[i]).compute();
+                break;
+            case B_DAMPER3D:
+                for(int i = start; i < end; i++)
+                    ((Damper3D)l[i]).compute();
+                break;
+            case B_SPRINGDAMPER1D:
+                for(int i = start; i < end; i++)
+                    ((SpringDamper1D)l[i]).compute();
+                break;
+            case B_ROPE3D:
+                for(int i = start; i < end; i++)
+                    ((Rope3D)l[i]).compute();
+                break;
+            case B_CONTACT3D:
+                for(int i = start; i < end; i++)
+                    ((Contact3D)l[i]).compute();
+                break;
+            case B_PLANECONTACT3D:
+                for(int i = start; i < end; i++)
+                    ((PlaneContact3D)l[i]).compute();
+                break;
+            case B_BUBBLE3D:
+                for(int i = start; i < end; i++)
+                    ((Bubble3D)l[i]).compute();
+                break;
+            case B_ATTRACTOR3D:
+                for(int i = start; i < end; i++)
+                    ((Attractor3D)l[i]).compute();
+                break;
+            default:
+                for(int i = start; i < end; i++)
+                    l[i].compute();
+                break;
+        }
+    }
+}
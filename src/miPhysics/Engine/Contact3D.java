@@ -11,7 +11,7 @@ package miPhysics.Engine;
 public class Contact3D extends Interaction {
 
     // Monitor if this contact was previously active!
-    private boolean prev_state = false;
+    boolean prev_state = false;
     //private double dist;
     //private double prev_dist;
 
@@ -53,10 +53,10 @@ public class Contact3D extends Interaction {
         switch(p){
             case STIFFNESS:
                 this.m_K = val;
-                return 0;
+                return paramChanged();
             case DAMPING:
                 this.m_Z = val;
-                return 0;
+                return paramChanged();
             default:
                 System.out.println("Cannot apply param " + val + " for "
                         + this + ": no " + p + " parameter");
@@ -0,0 +1,173 @@
+package miPhysics.Engine;
+
+import java.util.Arrays;
+
+/**
+ * Contacts found by a collider over a chunk of its rows, with the force of each contact.
+ *
+ * Colliders compute their contacts into buffers without touching the masses, so that several chunks
+ * of the collisions can be computed at the same time. The forces are then applied to the masses by
+ * apply(), buffer after buffer and in the order in which the contacts were found: the result is the
+ * same as computing the contacts one after the other, whatever the number of threads.
+ *
+ * Each chunk of a collider always goes to the same buffer, which keeps its contacts of the previous
+ * step (pair of mass handles and distance). A chunk finds mostly the same pairs from one step to the
+ * next, in the same order: the previous distance of a pair that is still in contact is read from
+ * this history, following the order of the contacts, rather than computed again from the previous
+ * positions of the masses. Pairs that separate are simply not carried over to the next step.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class ContactBuffer {
+
+    /** Number of rows of a collider computed into one buffer (independent of the number of threads) */
+    static final int ROWS = 128;
+
+    /* How far ahead in the history a pair is looked for (pairs that separated since the previous step) */
+    private static final int WINDOW = 8;
+
+    private Mass[] m_mass1 = new Mass[16];
+    private Mass[] m_mass2 = new Mass[16];
+    /* Force applied to the first mass of each contact (x, y, z), and opposite force on the second */
+    private double[] m_frc = new double[3 * 16];
+    /* Pair (handles of the masses, -1 if one has none) and distance of each contact */
+    private long[] m_key = new long[16];
+    private double[] m_dist = new double[16];
+    private int m_nb = 0;
+    private long m_step = Long.MIN_VALUE;
+    /* Pairs whose distance was tested by the collider filling the buffer */
+    private int m_tested = 0;
+
+    /* Contacts of the previous step, and next one expected */
+    private long[] m_prevKey = new long[16];
+    private double[] m_prevDist = new double[16];
+    private int m_prevNb = 0;
+    private int m_cursor = 0;
+
+    /* Masses found by spatial hash queries (used by the thread filling this buffer) */
+    final SpatialHash.Found m_found = new SpatialHash.Found();
+
+    /**
+     * Start filling the buffer for a step of its collider. The contacts it holds become the history
+     * if they were found at the previous step.
+     * @param step the step of the collider (steps after which the masses may have been moved,
+     *             removed or replaced must be skipped).
+     */
+    void begin(long step){
+        if(step == m_step + 1){
+            long[] key = m_prevKey;
+            double[] dist = m_prevDist;
+            m_prevKey = m_key;
+            m_prevDist = m_dist;
+            m_prevNb = m_nb;
+            m_key = key;
+            m_dist = dist;
+        }
+        else
+            m_prevNb = 0;
+        m_nb = 0;
+        m_tested = 0;
+        m_cursor = 0;
+        m_step = step;
+    }
+
+    /**
+     * Compute the contact between two masses, and add it to the buffer if they are touching.
+     * Same force as a Contact3D interaction that was in contact at the previous step if the pair is
+     * in the history, and as one that was not otherwise.
+     * @param m1 the first mass.
+     * @param m2 the second mass.
+     * @param K stiffness of the contact.
+     * @param Z damping of the contact.
+     */
+    void add(Mass m1, Mass m2, double K, double Z){
+        double distSquared = m1.m_pos.sqDist(m2.m_pos);
+        double interSize = m1.m_size + m2.m_size;
+        if(!(distSquared < interSize * interSize))
+            return;
+        double dist = Math.sqrt(distSquared);
+        long key = m1.m_handle < 0 || m2.m_handle < 0 ? -1 : (long)m1.m_handle << 32 | m2.m_handle;
+        double prevDist = previousDistance(key);
+        if(Double.isNaN(prevDist))
+            prevDist = m1.m_posR.dist(m2.m_posR);
+        double lnkFrc = -(dist - interSize) * K - (dist - prevDist) * Z;
+        double invDist = 1. / dist;
+
+        if(m_nb == m_mass1.length){
+            m_mass1 = Arrays.copyOf(m_mass1, 2 * m_nb);
+            m_mass2 = Arrays.copyOf(m_mass2, 2 * m_nb);
+            m_frc = Arrays.copyOf(m_frc, 6 * m_nb);
+        }
+        if(m_nb == m_key.length){
+            m_key = Arrays.copyOf(m_key, 2 * m_nb);
+            m_dist = Arrays.copyOf(m_dist, 2 * m_nb);
+        }
+        m_mass1[m_nb] = m1;
+        m_mass2[m_nb] = m2;
+        m_key[m_nb] = key;
+        m_dist[m_nb] = dist;
+        int f = 3 * m_nb++;
+        m_frc[f] = lnkFrc * ((m1.m_pos.x - m2.m_pos.x) * invDist);
+        m_frc[f + 1] = lnkFrc * ((m1.m_pos.y - m2.m_pos.y) * invDist);
+        m_frc[f + 2] = lnkFrc * ((m1.m_pos.z - m2.m_pos.z) * invDist);
+    }
+
+    /**
+     * Apply the forces of the contacts to their masses. The contacts are kept as history for the
+     * next step (without the masses).
+     */
+    void apply(){
+        for(int c = 0; c < m_nb; c++){
+            Vect3D frc1 = m_mass1[c].m_frc;
+            Vect3D frc2 = m_mass2[c].m_frc;
+            int f = 3 * c;
+            frc1.x += m_frc[f];
+            frc1.y += m_frc[f + 1];
+            frc1.z += m_frc[f + 2];
+            frc2.x -= m_frc[f];
+            frc2.y -= m_frc[f + 1];
+            frc2.z -= m_frc[f + 2];
+        }
+        Arrays.fill(m_mass1, 0, m_nb, null);
+        Arrays.fill(m_mass2, 0, m_nb, null);
+    }
+
+    /**
+     * Get the number of contacts found at the last step.
+     * @return number of contacts.
+     */
+    int size(){
+        return m_nb;
+    }
+
+    /**
+     * Count pairs whose distance was tested while filling the buffer (for the statistics).
+     * @param nb the number of pairs.
+     */
+    void addTested(int nb){
+        m_tested += nb;
+    }
+
+    /**
+     * Get the number of pairs whose distance was tested at the last step.
+     * @return number of pairs.
+     */
+    int getTested(){
+        return m_tested;
+    }
+
+    // Distance of a pair at the previous step (NaN if it was not in contact, or cannot be found).
+    private double previousDistance(long key){
+        if(key < 0)
+            return Double.NaN;
+        int end = Math.min(m_prevNb, m_cursor + WINDOW);
+        for(int c = m_cursor; c < end; c++){
+            if(m_prevKey[c] == key){
+                m_cursor = c + 1;
+                return m_prevDist[c];
+            }
+        }
+        return Double.NaN;
+    }
+}
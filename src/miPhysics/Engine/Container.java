@@ -0,0 +1,107 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+
+/**
+ * Abstract class defining analytic containers: walls (half-spaces, boxes, spheres) that keep all
+ * the masses of a physical model, or a given set of masses, on one side.
+ *
+ * A container is run by the collision engine after the collisions, in a single pass over its masses:
+ * it replaces one contact interaction per mass and per wall (PlaneContact3D, Bubble3D on a fixed
+ * mass...). A mass touches a wall when its surface (given by its radius) goes past the wall; it is
+ * then pushed back by a viscoelastic force along the normal of the wall, damped by the velocity of
+ * the mass along this normal.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public abstract class Container {
+
+    protected double m_K;
+    protected double m_Z;
+
+    /* Model whose masses (including the ones of its sub-models) are contained, or null for a fixed
+     * set of masses, and topology version of the model when its masses were gathered */
+    private PhyModel m_model;
+    private ArrayList<Mass> m_masses;
+    private int m_version = -1;
+
+    /**
+     * Create a container for all the masses of a physical model (and of its sub-models).
+     * @param mdl the physical model.
+     * @param K_param stiffness of the walls.
+     * @param Z_param damping of the walls.
+     */
+    public Container(PhyModel mdl, double K_param, double Z_param){
+        m_model = mdl;
+        m_masses = new ArrayList<>();
+        m_K = K_param;
+        m_Z = Z_param;
+    }
+
+    /**
+     * Create a container for a set of masses (masses later removed from their model must be
+     * removed from this list too).
+     * @param masses the masses.
+     * @param K_param stiffness of the walls.
+     * @param Z_param damping of the walls.
+     */
+    public Container(ArrayList<Mass> masses, double K_param, double Z_param){
+        m_masses = new ArrayList<>(masses);
+        m_K = K_param;
+        m_Z = Z_param;
+    }
+
+    public void setStiffness(double K){
+        m_K = K;
+    }
+    public void setDamping(double Z){
+        m_Z = Z;
+    }
+    public double getStiffness(){
+        return m_K;
+    }
+    public double getDamping(){
+        return m_Z;
+    }
+
+    /**
+     * Get the physical model whose masses are contained.
+     * @return the model (null if the container holds a set of masses).
+     */
+    public PhyModel getModel(){
+        return m_model;
+    }
+
+    /**
+     * Get the contained masses (gathered again from the model when its topology has changed).
+     * @return the masses.
+     */
+    public ArrayList<Mass> getMasses(){
+        if(m_model != null && m_version != m_model.getTopologyVersion()){
+            m_masses.clear();
+            gatherMasses(m_model, m_masses);
+            m_version = m_model.getTopologyVersion();
+        }
+        return m_masses;
+    }
+
+    /**
+     * Apply the forces of the walls to the contained masses.
+     */
+    void apply(){
+        apply(getMasses());
+    }
+
+    /**
+     * Apply the forces of the walls to a list of masses.
+     * @param masses the masses.
+     */
+    abstract void apply(ArrayList<Mass> masses);
+
+    private static void gatherMasses(PhyModel mdl, ArrayList<Mass> masses){
+        masses.addAll(mdl.getMassList());
+        for(PhyModel pm : mdl.getSubModels())
+            gatherMasses(pm, masses);
+    }
+}
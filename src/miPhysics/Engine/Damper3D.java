@@ -25,7 +25,7 @@ public class Damper3D extends Interaction {
     switch(p){
       case DAMPING:
         this.m_Z = val;
-        return 0;
+        return paramChanged();
       default:
         System.out.println("Cannot apply param " + val + " for "
                 + this + ": no " + p + " parameter");
@@ -0,0 +1,197 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Pairs of masses of a collider that must not collide because they are already joined by a chain of
+ * at most a few interactions (neighbours in a mesh are linked by springs, and are always close).
+ *
+ * The pairs are found once from the interactions of the whole model hierarchy, and found again only
+ * when its topology changes. Chains do not go through fixed points or position inputs (any two
+ * masses anchored to the same ground would be excluded otherwise). Pairs are stored by the handles
+ * of their masses in their models: the excluded second masses of each first mass, sorted.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class ExclusionList {
+
+    /* Excluded second masses of each first mass (by handles): m_col[m_start[h]] to m_col[m_start[h+1] - 1] */
+    private int[] m_start = new int[1];
+    private int[] m_col = new int[0];
+    private int m_nbRows = 0;
+
+    /* Model hierarchy, topology version and number of hops the pairs were found for */
+    private PhyModel m_root;
+    private int m_version = -1;
+    private int m_hops = 0;
+
+    /**
+     * Check if the pairs are up to date.
+     * @param root the top-level model.
+     * @param hops the number of interactions of the chains.
+     * @return true if the pairs do not have to be found again.
+     */
+    boolean isValid(PhyModel root, int hops){
+        return root == m_root && m_version == root.getTopologyVersion() && hops == m_hops;
+    }
+
+    /**
+     * Find the pairs of masses joined by a chain of at most a number of interactions.
+     * @param root the top-level model (whose interactions are followed).
+     * @param firsts the first masses of the pairs.
+     * @param seconds the second masses of the pairs (can be the same list).
+     * @param hops the number of interactions of the chains.
+     */
+    void build(PhyModel root, ArrayList<Mass> firsts, ArrayList<Mass> seconds, int hops){
+        m_root = root;
+        m_version = root.getTopologyVersion();
+        m_hops = hops;
+
+        // Graph of the masses joined by interactions.
+        ArrayList<Interaction> inters = new ArrayList<>();
+        gatherInteractions(root, inters);
+        IdentityHashMap<Mass, Integer> nodes = new IdentityHashMap<>();
+        ArrayList<Mass> nodeMass = new ArrayList<>();
+        int[] ends = new int[2 * inters.size()];
+        int nbEdges = 0;
+        for(int i = 0; i < inters.size(); i++){
+            Mass m1 = inters.get(i).getMat1();
+            Mass m2 = inters.get(i).getMat2();
+            if(m1 == null || m2 == null || m1 == m2)
+                continue;
+            ends[2 * nbEdges] = node(m1, nodes, nodeMass);
+            ends[2 * nbEdges + 1] = node(m2, nodes, nodeMass);
+            nbEdges++;
+        }
+        int nbNodes = nodeMass.size();
+        int[] adjStart = new int[nbNodes + 1];
+        for(int e = 0; e < 2 * nbEdges; e++)
+            adjStart[ends[e] + 1]++;
+        for(int n = 0; n < nbNodes; n++)
+            adjStart[n + 1] += adjStart[n];
+        int[] adj = new int[2 * nbEdges];
+        int[] fill = Arrays.copyOf(adjStart, nbNodes);
+        for(int e = 0; e < nbEdges; e++){
+            adj[fill[ends[2 * e]]++] = ends[2 * e + 1];
+            adj[fill[ends[2 * e + 1]]++] = ends[2 * e];
+        }
+        boolean[] through = new boolean[nbNodes];
+        for(int n = 0; n < nbNodes; n++)
+            through[n] = !isFixed(nodeMass.get(n));
+
+        // Handle of each node as a second mass of the pairs (-1 if it is not one).
+        int[] second = new int[nbNodes];
+        Arrays.fill(second, -1);
+        for(int i = 0; i < seconds.size(); i++){
+            Integer n = nodes.get(seconds.get(i));
+            if(n != null)
+                second[n] = seconds.get(i).m_handle;
+        }
+
+        // Masses reached from each first mass, breadth first.
+        int[] stamp = new int[nbNodes];
+        Arrays.fill(stamp, -1);
+        int[] queue = new int[nbNodes];
+        int[] pairs = new int[16];
+        int nbPairs = 0;
+        int nbRows = 0;
+        for(int i = 0; i < firsts.size(); i++){
+            Mass m = firsts.get(i);
+            Integer start = nodes.get(m);
+            if(start == null || m.m_handle < 0)
+                continue;
+            stamp[start] = i;
+            queue[0] = start;
+            int head = 0, tail = 1;
+            for(int depth = 0; depth < hops && head < tail; depth++){
+                int levelEnd = tail;
+                for(; head < levelEnd; head++){
+                    int n = queue[head];
+                    if(n != start && !through[n])
+                        continue;
+                    for(int a = adjStart[n]; a < adjStart[n + 1]; a++){
+                        int next = adj[a];
+                        if(stamp[next] == i)
+                            continue;
+                        stamp[next] = i;
+                        queue[tail++] = next;
+                        if(second[next] < 0)
+                            continue;
+                        if(nbPairs * 2 + 2 > pairs.length)
+                            pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+                        pairs[2 * nbPairs] = m.m_handle;
+                        pairs[2 * nbPairs + 1] = second[next];
+                        nbPairs++;
+                        nbRows = Math.max(nbRows, m.m_handle + 1);
+                    }
+                }
+            }
+        }
+
+        // Grouped by first mass, sorted.
+        if(m_start.length < nbRows + 1)
+            m_start = new int[nbRows + 1];
+        Arrays.fill(m_start, 0, nbRows + 1, 0);
+        if(m_col.length < nbPairs)
+            m_col = new int[nbPairs];
+        for(int p = 0; p < nbPairs; p++)
+            m_start[pairs[2 * p] + 1]++;
+        for(int r = 0; r < nbRows; r++)
+            m_start[r + 1] += m_start[r];
+        for(int p = 0; p < nbPairs; p++)
+            m_col[m_start[pairs[2 * p]]++] = pairs[2 * p + 1];
+        for(int r = nbRows; r > 0; r--)
+            m_start[r] = m_start[r - 1];
+        m_start[0] = 0;
+        for(int r = 0; r < nbRows; r++)
+            if(m_start[r + 1] - m_start[r] > 1)
+                Arrays.sort(m_col, m_start[r], m_start[r + 1]);
+        m_nbRows = nbRows;
+    }
+
+    /**
+     * Check if a pair of masses is excluded.
+     * @param m1 the first mass.
+     * @param m2 the second mass.
+     * @return true if the masses must not collide.
+     */
+    boolean contains(Mass m1, Mass m2){
+        int h = m1.m_handle;
+        if(h < 0 || h >= m_nbRows || m2.m_handle < 0)
+            return false;
+        return Arrays.binarySearch(m_col, m_start[h], m_start[h + 1], m2.m_handle) >= 0;
+    }
+
+    /**
+     * Get the number of excluded pairs.
+     * @return number of pairs.
+     */
+    int getNumberOfPairs(){
+        return m_start[m_nbRows];
+    }
+
+    private static int node(Mass m, IdentityHashMap<Mass, Integer> nodes, ArrayList<Mass> nodeMass){
+        Integer n = nodes.get(m);
+        if(n == null){
+            n = nodeMass.size();
+            nodes.put(m, n);
+            nodeMass.add(m);
+        }
+        return n;
+    }
+
+    // Fixed points and position inputs do not join the masses they are linked to.
+    private static boolean isFixed(Mass m){
+        massType t = m.getType();
+        return t == massType.GROUND3D || t == massType.GROUND1D || t == massType.POSINPUT3D;
+    }
+
+    private static void gatherInteractions(PhyModel mdl, ArrayList<Interaction> inters){
+        inters.addAll(mdl.getInteractionList());
+        for(PhyModel pm : mdl.getSubModels())
+            gatherInteractions(pm, inters);
+    }
+}
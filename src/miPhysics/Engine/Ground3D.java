@@ -20,7 +20,7 @@ public class Ground3D extends Mass {
 		switch(p){
 			case RADIUS:
 				this.m_size = val;
-				return 0;
+				return paramChanged();
 			default:
 				System.out.println("Cannot apply param " + val + " for "
 						+ this + ": no " + p + " parameter");
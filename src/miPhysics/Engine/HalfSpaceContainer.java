@@ -0,0 +1,78 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+
+/**
+ * Half-space container: a plane wall keeping masses on the side its normal points to.
+ * With an axis normal, same force as a PlaneContact3D interaction on each mass.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class HalfSpaceContainer extends Container {
+
+    private Vect3D m_normal = new Vect3D();
+    private double m_offset;
+
+    /**
+     * Create a half-space container for all the masses of a physical model.
+     * @param mdl the physical model.
+     * @param normal normal of the wall, pointing to the inside (normalised).
+     * @param offset position of the wall along its normal (distance to the origin).
+     * @param K_param stiffness of the wall.
+     * @param Z_param damping of the wall.
+     */
+    public HalfSpaceContainer(PhyModel mdl, Vect3D normal, double offset, double K_param, double Z_param){
+        super(mdl, K_param, Z_param);
+        setPlane(normal, offset);
+    }
+
+    /**
+     * Create a half-space container for a set of masses.
+     * @param masses the masses.
+     * @param normal normal of the wall, pointing to the inside (normalised).
+     * @param offset position of the wall along its normal (distance to the origin).
+     * @param K_param stiffness of the wall.
+     * @param Z_param damping of the wall.
+     */
+    public HalfSpaceContainer(ArrayList<Mass> masses, Vect3D normal, double offset, double K_param, double Z_param){
+        super(masses, K_param, Z_param);
+        setPlane(normal, offset);
+    }
+
+    /**
+     * Move the wall.
+     * @param normal normal of the wall, pointing to the inside (normalised).
+     * @param offset position of the wall along its normal (distance to the origin).
+     */
+    public void setPlane(Vect3D normal, double offset){
+        m_normal.set(normal);
+        m_normal.normalize();
+        m_offset = offset;
+    }
+
+    public Vect3D getNormal(){
+        return new Vect3D(m_normal);
+    }
+    public double getOffset(){
+        return m_offset;
+    }
+
+    void apply(ArrayList<Mass> masses){
+        double nx = m_normal.x, ny = m_normal.y, nz = m_normal.z;
+        for(int i = 0; i < masses.size(); i++){
+            Mass m = masses.get(i);
+            Vect3D pos = m.m_pos;
+            double d = pos.x * nx + pos.y * ny + pos.z * nz;
+            double threshold = d - m_offset - m.m_size;
+            if(threshold < 0){
+                Vect3D posR = m.m_posR;
+                double vel = d - (posR.x * nx + posR.y * ny + posR.z * nz);
+                double lnkFrc = -threshold * m_K - vel * m_Z;
+                m.m_frc.x += lnkFrc * nx;
+                m.m_frc.y += lnkFrc * ny;
+                m.m_frc.z += lnkFrc * nz;
+            }
+        }
+    }
+}
@@ -47,8 +47,8 @@ public class HapticInput3D extends Mass {
          * Consume the force accumulation buffer value
          * (send it to device), and reset it to zero.
          */
-        Vect3D outFrc = new Vect3D(m_frc.x, m_frc.y, m_frc.z);
-        m_frc.set(0,0,0);
+        Vect3D outFrc = new Vect3D(getFrc());
+        resetForce();
         return outFrc;
     }
 
@@ -57,7 +57,7 @@ public class HapticInput3D extends Mass {
         switch(p){
             case RADIUS:
                 this.m_size = val;
-                return 0;
+                return paramChanged();
             default:
                 System.out.println("Cannot apply param " + val + " for "
                         + this + ": no " + p + " parameter");
@@ -44,10 +44,20 @@ public abstract class Interaction extends Module {
      * @param m2 connected Mass at other end.
      */
     protected void connect (Mass m1, Mass m2) {
+        // Rewiring changes the topology: hand the state back to the objects first.
+        if(m_kernel != null)
+            m_kernel.release();
         m_mat1 = m1;
         m_mat2 = m2;
     }
 
+    public String getName(){
+        // Interactions of generated models may be named on demand, by the model of their masses.
+        if(m_name == null && m_mat1 != null && m_mat1.m_owner != null)
+            return m_mat1.m_owner.generatedName(this);
+        return m_name;
+    }
+
     /**
      * Access the first Mass connected to this Interaction.
      * @return the first Mass module.
@@ -160,6 +170,17 @@ public abstract class Interaction extends Module {
      */
     protected boolean changeDamping(double z){m_Z = z; return true;}
 
+    /**
+     * Notify that a parameter of this Interaction has been changed, so that
+     * a compiled version of the model can pick up the new value.
+     * @return 0 (so that setParam implementations can return it directly).
+     */
+    protected int paramChanged(){
+        if(m_kernel != null)
+            m_kernel.updateInteraction(m_kernelIdx);
+        return 0;
+    }
+
     /**
      * Get the stiffness of this interaction element
      * @return the stiffness parameter
@@ -201,6 +222,8 @@ public abstract class Interaction extends Module {
      * @return elongation value.
      */
     public double getElongation() {
+        if(m_kernel != null)
+            m_kernel.readInteraction(m_kernelIdx);
         return m_dist - m_dRest;
     }
 
@@ -286,6 +309,9 @@ public abstract class Interaction extends Module {
     protected double m_K;
     protected double m_Z;
 
+    /* Compiled model holding the state of this interaction (null when computed as an object) */
+    CompiledModel m_kernel;
+    int m_kernelIdx;
 
     //protected double m_linkFrc;
 }
\ No newline at end of file
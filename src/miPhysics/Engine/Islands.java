@@ -0,0 +1,249 @@
+package miPhysics.Engine;
+
+/**
+ * Islands of a compiled model: groups of dynamic masses connected by interactions.
+ *
+ * An island whose kinetic energy stays below a threshold for a number of steps is put to sleep: its
+ * masses and interactions are no longer computed, until something acts on the island again (a force,
+ * a moving neighbour, a parameter change...).
+ *
+ * Fixed and position-driven masses (grounds, position inputs) do not belong to any island and do not
+ * connect islands together: they wake the islands they are connected to when they move.
+ * Islands containing other modules computed as objects (oscillators, haptic inputs, user-defined
+ * masses...) never sleep.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class Islands {
+
+    private final double m_threshold;
+    private final int m_calmSteps;
+
+    private int m_nbIslands;
+
+    /* Island of each mass and each interaction (-1: fixed or position-driven masses only) */
+    int[] m_massIsland;
+    int[] m_interIsland;
+    boolean[] m_awake;
+
+    private boolean[] m_noSleep;
+    private int[] m_calm;
+    private int[] m_islandStart;
+    private int[] m_islandMasses;
+
+    /* Fixed and position-driven masses, their last position and the islands they are connected to */
+    private int[] m_kinematic;
+    private int[] m_kinSlot;
+    private double[] m_kx, m_ky, m_kz;
+    private int[] m_kinStart;
+    private int[] m_kinIslands;
+
+    /**
+     * Create the island tracking for a compiled model.
+     * @param threshold kinetic energy below which an island is considered at rest.
+     * @param calmSteps number of steps an island must stay at rest before going to sleep.
+     */
+    Islands(double threshold, int calmSteps){
+        m_threshold = threshold;
+        m_calmSteps = calmSteps;
+    }
+
+    /**
+     * Build the islands (all islands start awake).
+     * @param kernel the compiled model.
+     * @param nbMasses number of masses.
+     * @param nbInter number of interactions.
+     * @param mat1 first mass of each interaction.
+     * @param mat2 second mass of each interaction.
+     * @param kinematic for each mass, true if it is fixed or position-driven.
+     * @param noSleep for each mass, true if its island must never sleep.
+     */
+    void build(CompiledModel kernel, int nbMasses, int nbInter, int[] mat1, int[] mat2, boolean[] kinematic,
+               boolean[] noSleep){
+        int[] parent = new int[nbMasses];
+        for(int i = 0; i < nbMasses; i++)
+            parent[i] = i;
+        for(int i = 0; i < nbInter; i++){
+            int a = mat1[i];
+            int b = mat2[i];
+            if(!kinematic[a] && !kinematic[b]){
+                int ra = find(parent, a);
+                int rb = find(parent, b);
+                if(ra != rb)
+                    parent[ra] = rb;
+            }
+        }
+
+        m_massIsland = new int[nbMasses];
+        int[] rootIsland = new int[nbMasses];
+        java.util.Arrays.fill(rootIsland, -1);
+        m_nbIslands = 0;
+        int nbKinematic = 0;
+        for(int i = 0; i < nbMasses; i++){
+            if(kinematic[i]){
+                m_massIsland[i] = -1;
+                nbKinematic++;
+                continue;
+            }
+            int r = find(parent, i);
+            if(rootIsland[r] < 0)
+                rootIsland[r] = m_nbIslands++;
+            m_massIsland[i] = rootIsland[r];
+        }
+
+        m_awake = new boolean[m_nbIslands];
+        m_noSleep = new boolean[m_nbIslands];
+        m_calm = new int[m_nbIslands];
+        java.util.Arrays.fill(m_awake, true);
+
+        m_islandStart = new int[m_nbIslands + 1];
+        for(int i = 0; i < nbMasses; i++){
+            if(m_massIsland[i] >= 0){
+                m_islandStart[m_massIsland[i] + 1]++;
+                if(noSleep[i])
+                    m_noSleep[m_massIsland[i]] = true;
+            }
+        }
+        for(int k = 0; k < m_nbIslands; k++)
+            m_islandStart[k + 1] += m_islandStart[k];
+        m_islandMasses = new int[m_islandStart[m_nbIslands]];
+        int[] fill = java.util.Arrays.copyOf(m_islandStart, m_nbIslands);
+        for(int i = 0; i < nbMasses; i++)
+            if(m_massIsland[i] >= 0)
+                m_islandMasses[fill[m_massIsland[i]]++] = i;
+
+        m_interIsland = new int[nbInter];
+        for(int i = 0; i < nbInter; i++)
+            m_interIsland[i] = (m_massIsland[mat1[i]] >= 0) ? m_massIsland[mat1[i]] : m_massIsland[mat2[i]];
+
+        m_kinematic = new int[nbKinematic];
+        m_kinSlot = new int[nbMasses];
+        m_kx = new double[nbKinematic];
+        m_ky = new double[nbKinematic];
+        m_kz = new double[nbKinematic];
+        int j = 0;
+        for(int i = 0; i < nbMasses; i++){
+            m_kinSlot[i] = -1;
+            if(kinematic[i]){
+                m_kinematic[j] = i;
+                m_kinSlot[i] = j;
+                m_kx[j] = kernel.posX(i);
+                m_ky[j] = kernel.posY(i);
+                m_kz[j] = kernel.posZ(i);
+                j++;
+            }
+        }
+
+        // Islands connected to each fixed or position-driven mass.
+        m_kinStart = new int[nbKinematic + 1];
+        for(int i = 0; i < nbInter; i++){
+            if(m_interIsland[i] < 0)
+                continue;
+            if(kinematic[mat1[i]])
+                m_kinStart[m_kinSlot[mat1[i]] + 1]++;
+            if(kinematic[mat2[i]])
+                m_kinStart[m_kinSlot[mat2[i]] + 1]++;
+        }
+        for(j = 0; j < nbKinematic; j++)
+            m_kinStart[j + 1] += m_kinStart[j];
+        m_kinIslands = new int[m_kinStart[nbKinematic]];
+        fill = java.util.Arrays.copyOf(m_kinStart, nbKinematic);
+        for(int i = 0; i < nbInter; i++){
+            if(m_interIsland[i] < 0)
+                continue;
+            if(kinematic[mat1[i]])
+                m_kinIslands[fill[m_kinSlot[mat1[i]]]++] = m_interIsland[i];
+            if(kinematic[mat2[i]])
+                m_kinIslands[fill[m_kinSlot[mat2[i]]]++] = m_interIsland[i];
+        }
+    }
+
+    private static int find(int[] parent, int i){
+        while(parent[i] != i){
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    int getNumberOfIslands(){
+        return m_nbIslands;
+    }
+
+    int getNumberOfSleepingIslands(){
+        int nb = 0;
+        for(int k = 0; k < m_nbIslands; k++)
+            if(!m_awake[k])
+                nb++;
+        return nb;
+    }
+
+    void wake(int island){
+        m_awake[island] = true;
+        m_calm[island] = 0;
+    }
+
+    void wakeAll(){
+        for(int k = 0; k < m_nbIslands; k++)
+            wake(k);
+    }
+
+    /**
+     * Wake the island of a mass (or the islands connected to it, for a fixed or position-driven mass).
+     * @param i the mass index.
+     */
+    void wakeMass(int i){
+        if(m_massIsland[i] >= 0)
+            wake(m_massIsland[i]);
+        else
+            wakeNeighbours(m_kinSlot[i]);
+    }
+
+    private void wakeNeighbours(int k){
+        for(int j = m_kinStart[k]; j < m_kinStart[k + 1]; j++)
+            wake(m_kinIslands[j]);
+    }
+
+    /**
+     * Wake the islands connected to the fixed or position-driven masses that moved since the last call.
+     */
+    void checkKinematic(CompiledModel k){
+        for(int j = 0; j < m_kinematic.length; j++){
+            int i = m_kinematic[j];
+            double x = k.posX(i);
+            double y = k.posY(i);
+            double z = k.posZ(i);
+            if(x != m_kx[j] || y != m_ky[j] || z != m_kz[j]){
+                m_kx[j] = x;
+                m_ky[j] = y;
+                m_kz[j] = z;
+                wakeNeighbours(j);
+            }
+        }
+    }
+
+    /**
+     * Update the rest counters of the awake islands after the mass phase, and put the islands that have
+     * been at rest long enough to sleep (their masses are stopped: delayed position set to the position).
+     */
+    void update(CompiledModel k){
+        for(int isl = 0; isl < m_nbIslands; isl++){
+            if(!m_awake[isl] || m_noSleep[isl])
+                continue;
+            double energy = 0;
+            for(int j = m_islandStart[isl]; j < m_islandStart[isl + 1]; j++)
+                energy = Math.max(energy, k.kineticEnergy(m_islandMasses[j]));
+            if(energy >= m_threshold){
+                m_calm[isl] = 0;
+                continue;
+            }
+            if(++m_calm[isl] < m_calmSteps)
+                continue;
+
+            m_awake[isl] = false;
+            for(int j = m_islandStart[isl]; j < m_islandStart[isl + 1]; j++)
+                k.stopMass(m_islandMasses[j]);
+        }
+    }
+}
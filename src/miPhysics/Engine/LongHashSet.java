@@ -0,0 +1,88 @@
+package miPhysics.Engine;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative long keys (pairs of indices, packed cell coordinates...), stored in an open
+ * addressing table of primitive longs: adding a key does not allocate once the table is large enough.
+ *
+ * The slots in use are remembered, so that clearing the set costs the number of keys it holds rather
+ * than the size of its table.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = -1;
+
+    private long[] m_keys = newTable(16);
+    private int[] m_used = new int[8];
+    private int m_size = 0;
+
+    /**
+     * Add a key to the set.
+     * @param key the key (non-negative).
+     * @return true if the key was not in the set yet.
+     */
+    boolean add(long key){
+        if(2 * (m_size + 1) > m_keys.length)
+            grow();
+        int mask = m_keys.length - 1;
+        int i = slot(key, mask);
+        while(m_keys[i] != EMPTY){
+            if(m_keys[i] == key)
+                return false;
+            i = (i + 1) & mask;
+        }
+        m_keys[i] = key;
+        if(m_size == m_used.length)
+            m_used = Arrays.copyOf(m_used, 2 * m_size);
+        m_used[m_size++] = i;
+        return true;
+    }
+
+    /**
+     * Remove all keys.
+     */
+    void clear(){
+        for(int k = 0; k < m_size; k++)
+            m_keys[m_used[k]] = EMPTY;
+        m_size = 0;
+    }
+
+    /**
+     * Get the number of keys in the set.
+     * @return the number of keys.
+     */
+    int size(){
+        return m_size;
+    }
+
+    private void grow(){
+        long[] old = m_keys;
+        int[] oldUsed = m_used;
+        int nb = m_size;
+        m_keys = newTable(2 * old.length);
+        m_used = new int[oldUsed.length];
+        m_size = 0;
+        for(int k = 0; k < nb; k++)
+            add(old[oldUsed[k]]);
+    }
+
+    private static long[] newTable(int size){
+        long[] t = new long[size];
+        Arrays.fill(t, EMPTY);
+        return t;
+    }
+
+    private static int slot(long key, int mask){
+        // Mix the bits of the key (MurmurHash3 finaliser).
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key & mask;
+    }
+}
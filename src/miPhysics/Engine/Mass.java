@@ -44,6 +44,9 @@ public abstract class Mass extends PhyObject {
 
     protected void resetForce(){
         this.m_frc.reset();
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.writeFrc(m_kernelIdx, m_frc);
     }
 
     /**
@@ -58,7 +61,17 @@ public abstract class Mass extends PhyObject {
      * @param force force to apply.
      */
     protected void applyForce(Vect3D force){
-        m_frc.add(force);
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.addFrc(m_kernelIdx, force);
+        else
+            m_frc.add(force);
+    }
+
+    public String getName(){
+        if(m_name == null && m_owner != null)
+            return m_owner.generatedName(this);
+        return m_name;
     }
 
     /**
@@ -66,10 +79,19 @@ public abstract class Mass extends PhyObject {
      * @return the module position.
      */
     public Vect3D getPos() {
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.readPos(m_kernelIdx, m_pos);
         return m_pos;
     }
 
-    public Vect3D getVel(){return new Vect3D(m_pos).sub(m_posR);}
+    /**
+     * Get the current velocity (per sample) of this Mass module.
+     * The returned vector is a buffer of this mass, overwritten by the next call: copy it
+     * (new Vect3D(m.getVel())) to keep the value, and do not modify it.
+     * @return the velocity.
+     */
+    public Vect3D getVel(){return m_vel.set(getPos()).sub(getPosR());}
 
     /**
      * Set the current position of this Mass module.
@@ -79,10 +101,18 @@ public abstract class Mass extends PhyObject {
     protected void setPos(Vect3D newPos) {
         m_pos.set(newPos);
         m_posR.set(newPos);
+        CompiledModel k = m_kernel;
+        if(k != null) {
+            k.writePos(m_kernelIdx, m_pos);
+            k.writePosR(m_kernelIdx, m_posR);
+        }
     }
 
     protected void setPosR(Vect3D newPos){
         m_posR.set(newPos);
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.writePosR(m_kernelIdx, m_posR);
     }
 
 
@@ -91,6 +121,9 @@ public abstract class Mass extends PhyObject {
      * @return the delayed position.
      */
     protected Vect3D getPosR() {
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.readPosR(m_kernelIdx, m_posR);
         return m_posR;
     }
 
@@ -100,6 +133,9 @@ public abstract class Mass extends PhyObject {
      * @return force value.
      */
     public Vect3D getFrc() {
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.readFrc(m_kernelIdx, m_frc);
         return m_frc;
     }
 
@@ -121,12 +157,89 @@ public abstract class Mass extends PhyObject {
 
     protected void setSize(double s){
         m_size = s;
+        paramChanged();
     }
     protected double getSize(){return m_size;}
 
     public abstract int setParam(param p, double val );
     public abstract double getParam(param p);
 
+    /**
+     * Notify that a parameter of this Mass module has been changed, so that
+     * a compiled version of the model can pick up the new value.
+     * @return 0 (so that setParam implementations can return it directly).
+     */
+    protected int paramChanged(){
+        m_coeffVersion = -1;
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.updateMass(m_kernelIdx);
+        return 0;
+    }
+
+    public void setMedium(Medium m){
+        super.setMedium(m);
+        m_coeffVersion = -1;
+        CompiledModel k = m_kernel;
+        if(k != null)
+            k.updateMass(m_kernelIdx);
+    }
+
+    /**
+     * Make sure the integration coefficients (m_coeffA, m_coeffB) are up to date: they are only
+     * recomputed after a change of a parameter of the module or of its medium.
+     */
+    protected final void checkCoeffs(){
+        int version = m_medium.getVersion();
+        if(m_coeffVersion != version){
+            recalcCoeffs();
+            m_coeffVersion = version;
+        }
+    }
+
+    /**
+     * Compute the integration coefficients of the module from its parameters and its medium.
+     */
+    protected void recalcCoeffs(){
+        double fric = m_medium.getMediumFriction();
+        m_coeffA = 2 - m_invMass * fric;
+        m_coeffB = 1 - m_invMass * fric;
+    }
+
+
+    /**
+     * Set the collision groups of this Mass module: it only collides with the masses whose mask
+     * shares a bit with its groups, and whose groups share a bit with its mask.
+     * @param group the groups (bits) of the mass (1 by default).
+     */
+    public void setCollisionGroup(int group){
+        m_colGroup = group;
+    }
+
+    /**
+     * Set the collision mask of this Mass module (see setCollisionGroup()).
+     * @param mask the groups (bits) the mass collides with (all of them by default).
+     */
+    public void setCollisionMask(int mask){
+        m_colMask = mask;
+    }
+
+    public int getCollisionGroup(){
+        return m_colGroup;
+    }
+    public int getCollisionMask(){
+        return m_colMask;
+    }
+
+    /**
+     * Check if the collision groups and masks of two masses let them collide.
+     * @param m the other mass.
+     * @return true if they can collide.
+     */
+    final boolean canCollideWith(Mass m){
+        return (m_colGroup & m.m_colMask) != 0 && (m.m_colGroup & m_colMask) != 0;
+    }
+
 
     // This stuff should probably be set differently...
     // Keeping it here so the MIDI/Control examples don't break.
@@ -140,6 +253,7 @@ public abstract class Mass extends PhyObject {
     {
         m_controlled = true;
         m_controlVelocity = v;
+        paramChanged();
     }
 
     /**
@@ -148,6 +262,7 @@ public abstract class Mass extends PhyObject {
     public void stopVelocityControl()
     {
         m_controlled = false;
+        paramChanged();
     }
 
 
@@ -163,8 +278,27 @@ public abstract class Mass extends PhyObject {
     protected Vect3D m_frc;
 
     protected Vect3D tmp;
+    private Vect3D m_vel = new Vect3D();
 
     private massType m_type;
     protected double m_invMass;
     protected double m_size;
+
+    /* Integration coefficients (see checkCoeffs()), and the medium version they were computed for
+     * (-1 after a change of the parameters or of the medium) */
+    protected double m_coeffA;
+    protected double m_coeffB;
+    private int m_coeffVersion = -1;
+
+    /* Collision groups of this mass, and groups it collides with */
+    int m_colGroup = 1;
+    int m_colMask = ~0;
+
+    /* Compiled model holding the state of this mass (null when computed as an object). Read once
+     * per access: it is set and cleared by the simulation thread (see CompiledModel.handOver()) */
+    CompiledModel m_kernel;
+    int m_kernelIdx;
+
+    /* Generated model naming this mass and its interactions on demand (m_name is then null) */
+    PhyModel m_owner;
 }
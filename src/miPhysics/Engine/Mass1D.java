@@ -12,11 +12,11 @@ public class Mass1D extends Mass {
 	}
 
 	public void compute() {
-		double fric = this.getMedium().getMediumFriction();
+		checkCoeffs();
 
-		newPos = (2 - m_invMass * fric) * m_pos.z - (1 - m_invMass * fric) * m_posR.z + m_frc.z * m_invMass;
+		newPos = m_coeffA * m_pos.z - m_coeffB * m_posR.z + m_frc.z * m_invMass;
 		// Check that this is OK
-		newPos -= this.getMedium().getGravity().z;
+		newPos -= this.getMedium().gravity().z;
 
 		m_posR.z = m_pos.z;
 		m_pos.z = newPos;
@@ -28,10 +28,10 @@ public class Mass1D extends Mass {
 		switch(p){
 			case MASS:
 				this.m_invMass = 1./val;
-				return 0;
+				return paramChanged();
 			case RADIUS:
 				this.m_size = val;
-				return 0;
+				return paramChanged();
 			default:
 				System.out.println("Cannot apply param " + val + " for "
 						+ this + ": no " + p + " parameter");
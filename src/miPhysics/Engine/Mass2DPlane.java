@@ -21,7 +21,7 @@ public class Mass2DPlane extends Mass {
   }
 
   public void compute() {
-    double fric = this.getMedium().getMediumFriction();
+    checkCoeffs();
     tmp.set(m_pos);
 
     // Bit of a hack, controlled velocity should not be managed this way!!
@@ -32,12 +32,12 @@ public class Mass2DPlane extends Mass {
 
       // Calculate the update of the mass's position
       m_frc.mult(m_invMass);
-      m_pos.mult(2 - m_invMass * fric);
-      m_posR.mult(1 - m_invMass * fric);
+      m_pos.mult(m_coeffA);
+      m_posR.mult(m_coeffB);
       m_pos.sub(m_posR);
       m_pos.add(m_frc);
 
-      m_pos.sub(this.getMedium().getGravity());
+      m_pos.sub(this.getMedium().gravity());
 
       // Constrain to 2D Plane : keep Z axis value constant
       m_pos.z = tmp.z;
@@ -50,10 +50,10 @@ public class Mass2DPlane extends Mass {
     switch(p){
       case MASS:
         this.m_invMass = 1./val;
-        return 0;
+        return paramChanged();
       case RADIUS:
         this.m_size = val;
-        return 0;
+        return paramChanged();
       default:
         System.out.println("Cannot apply param " + val + " for "
                 + this + ": no " + p + " parameter");
@@ -18,19 +18,19 @@ public class Mass3D extends Mass {
   }
 
   public void compute() {
-    double fric = this.getMedium().getMediumFriction();
+    checkCoeffs();
 
     tmp.set(m_pos);
 
     // Calculate the update of the mass's position
     m_frc.mult(m_invMass);
-    m_pos.mult(2 - m_invMass * fric);
-    m_posR.mult(1 -m_invMass * fric);
+    m_pos.mult(m_coeffA);
+    m_posR.mult(m_coeffB);
     m_pos.sub(m_posR);
     m_pos.add(m_frc);
 
     // Add gravitational force.
-    m_pos.sub(this.getMedium().getGravity());
+    m_pos.sub(this.getMedium().gravity());
 
     // Bring old position to delayed position and reset force buffer
     m_posR.set(tmp);
@@ -46,10 +46,10 @@ public class Mass3D extends Mass {
     switch(p){
       case MASS:
         this.m_invMass = 1./val;
-        return 0;
+        return paramChanged();
       case RADIUS:
         this.m_size = val;
-        return 0;
+        return paramChanged();
       default:
         System.out.println("Cannot apply param " + val + " for "
                 + this + ": no " + p + " parameter");
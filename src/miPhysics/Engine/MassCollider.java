@@ -7,7 +7,7 @@ import java.util.ArrayList;
 /**
  * Collider class handling collision between two physical models.
  */
-public class MassCollider {
+public class MassCollider implements Collider {
 
     private Pair<PhyModel, PhyModel> m_colMdls;
     private SpacePrint m_intersect;
@@ -16,7 +16,39 @@ public class MassCollider {
     private ArrayList<Mass> m_massList2 = new ArrayList<>();
 
 
-    private Contact3D contactLink = new Contact3D(0., 0);
+    private double m_K = 0;
+    private double m_Z = 0;
+
+    /* Grid over the candidate masses of the second model (narrowphase), unless all the candidate
+     * pairs are tested at this step */
+    private SpatialHash m_hash = new SpatialHash();
+    private boolean m_direct = true;
+
+    /* Contact buffers of the chunks of rows, step of the collider (for their contacts history) and
+     * topology versions of the models at this step */
+    private ArrayList<ContactBuffer> m_buffers = new ArrayList<>();
+    private long m_step = 0;
+    private int m_version1 = -1;
+    private int m_version2 = -1;
+
+    /* Neighbour list mode (skin > 0): pairs closer than their contact distance plus the skin, kept
+     * with their candidate masses until a mass has moved by half the skin. m_listed tells if the
+     * rows of this step are the rows of the list. */
+    private double m_skin = 0;
+    private NeighbourList m_list;
+    private boolean m_listed = false;
+    private SpacePrint m_grown1 = new SpacePrint();
+    private SpacePrint m_grown2 = new SpacePrint();
+    private SpatialHash.Found m_buildFound = new SpatialHash.Found();
+
+    /* Pairs of masses joined by at most m_hops interactions, which do not collide (none if 0) */
+    private int m_hops = 0;
+    private ExclusionList m_excluded;
+
+    private final CollisionStats m_stats = new CollisionStats();
+
+    /* Below this number of candidate pairs, all pairs are simply tested */
+    private static final int DIRECT_PAIRS = 64;
 
     MassCollider(PhyModel m1, PhyModel m2){
         m_colMdls = new Pair<>(m1, m2);
@@ -35,34 +67,140 @@ public class MassCollider {
         return m_colMdls.getValue();
     }
 
+    public PhyModel getFirstModel(){
+        return getMdl1();
+    }
+    public PhyModel getSecondModel(){
+        return getMdl2();
+    }
+
+    public CollisionStats getStats(){
+        return m_stats;
+    }
+
+    public void runCollisions(){
+        detectCollisions();
+        computeCollisions();
+    }
+
+    public int detectContacts(){
+        detectCollisions();
+        return m_massList1.size();
+    }
+
     public void setStiffness(double K){
-        contactLink.setParam(param.STIFFNESS, K);
+        m_K = K;
     }
     public void setDamping(double Z){
-        contactLink.setParam(param.DAMPING, Z);
+        m_Z = Z;
+    }
+
+    /**
+     * Set the skin of the neighbour list: the pairs of masses closer than their contact distance
+     * plus the skin are gathered once, and only their contacts are computed until a mass has moved
+     * by half the skin. A larger skin means fewer rebuilds, but more pairs to compute at each step.
+     * @param skin the skin distance (0 to detect the collisions at each step).
+     */
+    public void setSkin(double skin){
+        m_skin = Math.max(0, skin);
+        if(m_skin > 0 && m_list == null)
+            m_list = new NeighbourList();
+        if(m_list != null)
+            m_list.invalidate();
+    }
+
+    /**
+     * Get the skin of the neighbour list.
+     * @return the skin distance (0 if collisions are detected at each step).
+     */
+    public double getSkin(){
+        return m_skin;
+    }
+
+    /**
+     * Exclude the pairs of masses joined by a chain of at most a number of interactions from the
+     * collisions. The pairs are found again when the topology changes.
+     * @param hops the number of interactions of the chains (0 to compute all pairs).
+     */
+    public void setExclusionHops(int hops){
+        m_hops = Math.max(0, hops);
+        if(m_hops > 0 && m_excluded == null)
+            m_excluded = new ExclusionList();
+        if(m_list != null)
+            m_list.invalidate();
+    }
+
+    /**
+     * Get the number of interactions of the chains joining the masses excluded from the collisions.
+     * @return the number of interactions (0 if all pairs are computed).
+     */
+    public int getExclusionHops(){
+        return m_hops;
     }
 
     void detectCollisions(){
+        long start = System.nanoTime();
+        boolean searched = findCandidates();
+        long pairs = searched ? (long)m_massList1.size() * m_massList2.size() : m_list.getNumberOfPairs();
+        m_stats.addDetection(pairs, m_direct ? 0 : m_hash.getNumberOfOccupiedBuckets(), System.nanoTime() - start);
+    }
+
+    // Search of detectCollisions() (false if the candidates of the neighbour list were kept).
+    private boolean findCandidates(){
+
+        // Contacts are carried over from the previous step, unless masses may have been replaced.
+        m_step++;
+        if(m_version1 != getMdl1().getTopologyVersion() || m_version2 != getMdl2().getTopologyVersion()){
+            m_step++;
+            m_version1 = getMdl1().getTopologyVersion();
+            m_version2 = getMdl2().getTopologyVersion();
+            if(m_list != null)
+                m_list.invalidate();
+        }
+
+        PhyModel root = getMdl1().getRootModel();
+        if(m_hops > 0 && !m_excluded.isValid(root, m_hops)){
+            m_excluded.build(root, getMdl1().getMassList(), getMdl2().getMassList(), m_hops);
+            if(m_list != null)
+                m_list.invalidate();
+        }
+
+        // The neighbour list (and its candidate masses) is kept while it is valid.
+        m_listed = m_skin > 0;
+        if(m_listed && m_list.isValid(m_skin))
+            return false;
 
         // Clear possible collisions from previous step
         m_massList1.clear();
         m_massList2.clear();
         // Generate the new intersection box between both physical models
-        m_intersect.intersection(getMdl1().getSpacePrint(), getMdl2().getSpacePrint());
+        if(m_listed){
+            // (enlarged by the distance at which masses of both models may end up in contact)
+            double margin = m_skin + maxRadius(getMdl1().getMassList()) + maxRadius(getMdl2().getMassList());
+            m_grown1.set(getMdl1().getSpacePrint());
+            m_grown1.grow(margin);
+            m_grown2.set(getMdl2().getSpacePrint());
+            m_grown2.grow(margin);
+            m_intersect.intersection(m_grown1, m_grown2);
+        }
+        else
+            m_intersect.intersection(getMdl1().getSpacePrint(), getMdl2().getSpacePrint());
 
         // If this box is valid (i.e. there is an intersection between the physical model bounding boxes
         if(m_intersect.isValid()){
             //System.out.println("Valid intersection : Looking for potentially colliding masses...");
             // Get all masses from model 1 that may be touching this box
-            for(Mass m : getMdl1().getMassList()){
-                if(m_intersect.intersectsWithMass(m))
-                    m_massList1.add(m);
+            ArrayList<Mass> masses = getMdl1().getMassList();
+            for(int i = 0; i < masses.size(); i++){
+                if(m_intersect.intersectsWithMass(masses.get(i)))
+                    m_massList1.add(masses.get(i));
             }
 
             // Get all masses from model 2 that may be touching this box
-            for(Mass m : getMdl2().getMassList()){
-                if(m_intersect.intersectsWithMass(m))
-                    m_massList2.add(m);
+            masses = getMdl2().getMassList();
+            for(int i = 0; i < masses.size(); i++){
+                if(m_intersect.intersectsWithMass(masses.get(i)))
+                    m_massList2.add(masses.get(i));
             }
             //System.out.println("Found " + m_massList1.size() + " and " + m_massList2.size() + " masses to test");
         }else{
@@ -70,22 +208,132 @@ public class MassCollider {
 
         }
 
+        double contactDist = maxRadius(m_massList1) + maxRadius(m_massList2) + (m_listed ? m_skin : 0);
+        m_direct = (long)m_massList1.size() * m_massList2.size() <= DIRECT_PAIRS || !(contactDist > 0);
+        if(!m_direct)
+            m_hash.build(m_massList2, contactDist);
+        if(m_listed)
+            buildList();
+
         // Need to put this up here or else the parallel stream stuff screws up??
         //this.computeCollisions();
+        return true;
+    }
+
+    // No collision at this step: the space prints of the models do not overlap.
+    void clearCollisions(){
+        m_massList1.clear();
+        m_massList2.clear();
+        m_intersect.reset();
+        m_direct = true;
+        m_listed = false;
+        if(m_list != null)
+            m_list.invalidate();
+        // (the contacts history is dropped)
+        m_step += 2;
     }
 
     void computeCollisions(){
+        computeAllContacts(m_massList1.size());
+    }
 
-        for(int i = 0; i < m_massList1.size(); i++){
-            for(int j = 0; j < m_massList2.size(); j++){
-                // CAREFUL ! the delayed distance could be false here !
-                contactLink.connect(m_massList1.get(i), m_massList2.get(j));
-                contactLink.forceRecalculateVelocity();
-                contactLink.compute();
-                //System.out.println("Computing collision...");
+    public ContactBuffer getBuffer(int chunk){
+        while(m_buffers.size() <= chunk)
+            m_buffers.add(new ContactBuffer());
+        return m_buffers.get(chunk);
+    }
+
+    public void computeContacts(int from, int to, ContactBuffer out){
+        out.begin(m_step);
+        int tested = 0;
+        if(m_listed){
+            for(int i = from; i < to; i++){
+                Mass m1 = m_massList1.get(i);
+                for(int p = m_list.rowStart(i); p < m_list.rowEnd(i); p++){
+                    // (excluded pairs are not listed, but groups may have changed since the build)
+                    Mass m2 = m_massList2.get(m_list.getCol(p));
+                    if(m1.canCollideWith(m2)){
+                        tested++;
+                        out.add(m1, m2, m_K, m_Z);
+                    }
+                }
+            }
+            out.addTested(tested);
+            return;
+        }
+        if(m_direct){
+            for(int i = from; i < to; i++){
+                Mass m1 = m_massList1.get(i);
+                for(int j = 0; j < m_massList2.size(); j++){
+                    Mass m2 = m_massList2.get(j);
+                    // CAREFUL ! the delayed distance could be false here !
+                    if(!filtered(m1, m2)){
+                        tested++;
+                        out.add(m1, m2, m_K, m_Z);
+                    }
+                }
+            }
+            out.addTested(tested);
+            return;
+        }
 
+        // Only the masses of the neighbouring cells are tested, in the same order as all the pairs
+        // would be (the other pairs are not in contact), so the resulting forces are identical.
+        SpatialHash.Found found = out.m_found;
+        for(int i = from; i < to; i++){
+            Mass m1 = m_massList1.get(i);
+            m_hash.query(m1.m_pos, found);
+            for(int k = 0; k < found.m_nb; k++){
+                Mass m2 = m_massList2.get(found.m_masses[k]);
+                if(!filtered(m1, m2)){
+                    tested++;
+                    out.add(m1, m2, m_K, m_Z);
+                }
+            }
+        }
+        out.addTested(tested);
+    }
+
+    // Gather the pairs of candidate masses closer than their contact distance plus the skin (in the
+    // same order as the contacts would be computed), and track all the masses of both models.
+    private void buildList(){
+        m_list.clear();
+        for(int i = 0; i < m_massList1.size(); i++){
+            Mass m1 = m_massList1.get(i);
+            if(m_direct){
+                for(int j = 0; j < m_massList2.size(); j++)
+                    addToList(i, m1, j);
+            }
+            else {
+                m_hash.query(m1.m_pos, m_buildFound);
+                for(int k = 0; k < m_buildFound.m_nb; k++)
+                    addToList(i, m1, m_buildFound.m_masses[k]);
             }
         }
+        m_list.build(m_massList1.size());
+        m_list.track(getMdl1().getMassList());
+        m_list.track(getMdl2().getMassList());
+    }
+
+    private void addToList(int i, Mass m1, int j){
+        Mass m2 = m_massList2.get(j);
+        if(m_hops > 0 && m_excluded.contains(m1, m2))
+            return;
+        double d = m1.m_size + m2.m_size + m_skin;
+        if(m1.m_pos.sqDist(m2.m_pos) < d * d)
+            m_list.add(i, j);
+    }
+
+    // Pairs that do not collide: groups and masks, or joined by interactions.
+    private boolean filtered(Mass m1, Mass m2){
+        return !m1.canCollideWith(m2) || (m_hops > 0 && m_excluded.contains(m1, m2));
+    }
+
+    private static double maxRadius(ArrayList<Mass> masses){
+        double r = 0;
+        for(int i = 0; i < masses.size(); i++)
+            r = Math.max(r, masses.get(i).m_size);
+        return r;
     }
 
 }
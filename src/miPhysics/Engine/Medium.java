@@ -29,15 +29,35 @@ public class Medium {
         return new Vect3D(this.m_gravity);
     }
 
+    /**
+     * Get the gravity of the medium without copying it (used in the compute loops).
+     * @return the stored gravity vector (must not be modified).
+     */
+    Vect3D gravity(){
+        return this.m_gravity;
+    }
+
     public void setMediumFriction(double d){
         this.m_mFric = d;
+        this.m_version++;
     }
     public void setGravity(Vect3D v){
         this.m_gravity.set(v);
+        this.m_version++;
+    }
+
+    /**
+     * Get the version of the medium, incremented at every change of its friction or gravity
+     * (used by the modules to know when to update the coefficients they derive from the medium).
+     * @return the version number.
+     */
+    int getVersion(){
+        return this.m_version;
     }
 
     /* Class attributes */
     private Vect3D m_gravity;
     private double m_mFric;
+    private int m_version = 0;
 
 }
\ No newline at end of file
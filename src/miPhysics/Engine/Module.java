@@ -22,9 +22,26 @@ public abstract class Module {
         return this.m_name;
     }
 
+    /**
+     * Get the handle of this module: an integer identifying it in the physical model it was added to,
+     * that gives constant time access to it (see PhyModel.getMass(long), getInteraction(long)...).
+     * Handles stay valid until the module is removed. The slot of a removed module is given to the
+     * next module added, with a new generation (high 32 bits of the handle), so the handles of
+     * removed modules are never valid again.
+     * @return the handle, or -1 if the module is not part of a model.
+     */
+    public long getHandle(){
+        if(this.m_handle < 0)
+            return -1;
+        return (long)this.m_handleGen << 32 | this.m_handle;
+    }
+
     protected abstract void compute();
     public abstract int setParam(param p, double val );
     public abstract double getParam(param p);
 
     String m_name;
+    /* Slot of the module in the handles of its model, and generation of the slot when it was given */
+    int m_handle = -1;
+    int m_handleGen = 0;
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Verlet neighbour list of a collider: the pairs of masses closer than their contact distance plus
+ * a "skin", gathered once and reused for the following steps.
+ *
+ * As long as no mass has moved by half the skin since the list was built, no pair missing from the
+ * list can have come into contact, so the collider only has to compute the contacts of the listed
+ * pairs. The positions of the masses at the time of the build are kept to check this at each step.
+ *
+ * Pairs are stored by row (first mass of the pair) in increasing order of their second mass: rows
+ * and masses are positions in the lists of the collider at the time of the build.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class NeighbourList {
+
+    /* Pairs being added (row and second mass of each) */
+    private int[] m_addRow = new int[64];
+    private int[] m_addCol = new int[64];
+    private int m_nbAdded = 0;
+
+    /* Pairs of each row: second masses of row i are m_col[m_start[i]] to m_col[m_start[i+1] - 1] */
+    private int[] m_start = new int[1];
+    private int[] m_col = new int[64];
+    private int m_nbRows = 0;
+
+    /* Masses whose displacement is tracked, and their positions at the build (x, y, z) */
+    private Mass[] m_tracked = new Mass[16];
+    private double[] m_ref = new double[3 * 16];
+    private int m_nbTracked = 0;
+
+    private boolean m_valid = false;
+
+    /**
+     * Start building the list: forget the pairs and the tracked masses.
+     */
+    void clear(){
+        m_nbAdded = 0;
+        m_nbRows = 0;
+        Arrays.fill(m_tracked, 0, m_nbTracked, null);
+        m_nbTracked = 0;
+        m_valid = false;
+    }
+
+    /**
+     * Record the positions of masses whose displacement invalidates the list.
+     * @param masses the masses.
+     */
+    void track(ArrayList<Mass> masses){
+        int n = m_nbTracked + masses.size();
+        if(n > m_tracked.length){
+            m_tracked = Arrays.copyOf(m_tracked, Math.max(n, 2 * m_tracked.length));
+            m_ref = Arrays.copyOf(m_ref, 3 * m_tracked.length);
+        }
+        for(int i = 0; i < masses.size(); i++){
+            Mass m = masses.get(i);
+            int r = 3 * m_nbTracked;
+            m_tracked[m_nbTracked++] = m;
+            m_ref[r] = m.m_pos.x;
+            m_ref[r + 1] = m.m_pos.y;
+            m_ref[r + 2] = m.m_pos.z;
+        }
+    }
+
+    /**
+     * Add a pair to the list being built (in any order).
+     * @param row the first mass.
+     * @param col the second mass.
+     */
+    void add(int row, int col){
+        if(m_nbAdded == m_addRow.length){
+            m_addRow = Arrays.copyOf(m_addRow, 2 * m_nbAdded);
+            m_addCol = Arrays.copyOf(m_addCol, 2 * m_nbAdded);
+        }
+        m_addRow[m_nbAdded] = row;
+        m_addCol[m_nbAdded++] = col;
+    }
+
+    /**
+     * Finish building the list: group the pairs by row.
+     * @param nbRows the number of rows.
+     */
+    void build(int nbRows){
+        if(m_start.length < nbRows + 1)
+            m_start = new int[nbRows + 1];
+        if(m_col.length < m_nbAdded)
+            m_col = new int[m_addCol.length];
+        Arrays.fill(m_start, 0, nbRows + 1, 0);
+        for(int p = 0; p < m_nbAdded; p++)
+            m_start[m_addRow[p] + 1]++;
+        for(int i = 0; i < nbRows; i++)
+            m_start[i + 1] += m_start[i];
+        for(int p = 0; p < m_nbAdded; p++)
+            m_col[m_start[m_addRow[p]]++] = m_addCol[p];
+        for(int i = nbRows; i > 0; i--)
+            m_start[i] = m_start[i - 1];
+        m_start[0] = 0;
+        for(int i = 0; i < nbRows; i++)
+            if(m_start[i + 1] - m_start[i] > 1)
+                Arrays.sort(m_col, m_start[i], m_start[i + 1]);
+        m_nbRows = nbRows;
+        m_nbAdded = 0;
+        m_valid = true;
+    }
+
+    /**
+     * Check if the list can still be used: it has been built, and no tracked mass has moved by
+     * half the skin since then.
+     * @param skin the skin the list was built with.
+     * @return true if the list is still valid.
+     */
+    boolean isValid(double skin){
+        if(!m_valid)
+            return false;
+        double limit = 0.25 * skin * skin;
+        for(int i = 0; i < m_nbTracked; i++){
+            Vect3D p = m_tracked[i].m_pos;
+            int r = 3 * i;
+            double dx = p.x - m_ref[r];
+            double dy = p.y - m_ref[r + 1];
+            double dz = p.z - m_ref[r + 2];
+            if(dx * dx + dy * dy + dz * dz >= limit){
+                m_valid = false;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mark the list as needing a build.
+     */
+    void invalidate(){
+        m_valid = false;
+    }
+
+    /**
+     * Get the number of rows of the list (first masses of the pairs).
+     * @return number of rows.
+     */
+    int getNumberOfRows(){
+        return m_nbRows;
+    }
+
+    /**
+     * Get the number of pairs in the list.
+     * @return number of pairs.
+     */
+    int getNumberOfPairs(){
+        return m_start[m_nbRows];
+    }
+
+    /**
+     * Get the first pair of a row.
+     * @param row the row.
+     * @return index of the first pair of the row.
+     */
+    int rowStart(int row){
+        return m_start[row];
+    }
+
+    /**
+     * Get the pair after the last pair of a row.
+     * @param row the row.
+     * @return index of the pair after the last pair of the row.
+     */
+    int rowEnd(int row){
+        return m_start[row + 1];
+    }
+
+    /**
+     * Get the second mass of a pair.
+     * @param pair index of the pair.
+     * @return the second mass.
+     */
+    int getCol(int pair){
+        return m_col[pair];
+    }
+}
@@ -10,8 +10,6 @@ public class Osc1D extends Mass {
 
 		m_K = K_param;
 		m_Z = Z_param;
-
-		//this.recalcCoeffs();
 	}
 
 	public Osc1D(double M, double size, double K_param, double Z_param, Vect3D initPos) {
@@ -23,13 +21,10 @@ public class Osc1D extends Mass {
 		m_pos.z -= m_pRest;
 		m_posR.z -= m_pRest;
 
-		double fric = m_medium.getMediumFriction();
-		double A = 2. - m_invMass * m_K - m_invMass * (m_Z + fric) ;
-		double B = 1. - m_invMass * (fric + m_Z) ;
-
+		checkCoeffs();
 
-		newPos = A * m_pos.z - B * m_posR.z + m_frc.z * m_invMass;
-		newPos -= this.getMedium().getGravity().z;
+		newPos = m_coeffA * m_pos.z - m_coeffB * m_posR.z + m_frc.z * m_invMass;
+		newPos -= this.getMedium().gravity().z;
 
 		m_posR.z = m_pos.z;
 		m_pos.z = newPos;
@@ -41,20 +36,26 @@ public class Osc1D extends Mass {
 	}
 
 
+	protected void recalcCoeffs(){
+		double fric = m_medium.getMediumFriction();
+		m_coeffA = 2. - m_invMass * m_K - m_invMass * (m_Z + fric) ;
+		m_coeffB = 1. - m_invMass * (fric + m_Z) ;
+	}
+
 	public int setParam(param p, double val ){
 		switch(p){
 			case MASS:
 				this.m_invMass = 1./val;
-				return 0;
+				return paramChanged();
 			case RADIUS:
 				this.m_size = val;
-				return 0;
+				return paramChanged();
 			case STIFFNESS:
 				this.m_K = val;
-				return 0;
+				return paramChanged();
 			case DAMPING:
 				this.m_Z = val;
-				return 0;
+				return paramChanged();
 			default:
 				System.out.println("Cannot apply param " + val + " for "
 						+ this + ": no " + p + " parameter");
@@ -24,11 +24,11 @@ public class Osc3D extends Mass {
   }
 
 
-//  protected void recalcCoeffs(){
-//    double fric = m_medium.getMediumFriction();
-//    m_A = 2. - m_invMass * m_K - m_invMass * (m_Z + fric) ;
-//    m_B = 1. -m_invMass * (fric + m_Z) ;
-//  }
+  protected void recalcCoeffs(){
+    double fric = m_medium.getMediumFriction();
+    m_coeffA = 2. - m_invMass * m_K - m_invMass * (m_Z + fric) ;
+    m_coeffB = 1. - m_invMass * (fric + m_Z) ;
+  }
 
 
   public void compute() { 
@@ -42,19 +42,17 @@ public class Osc3D extends Mass {
     m_posR.y -= m_pRest.y;
     m_posR.z -= m_pRest.z;
 
-    double fric = m_medium.getMediumFriction();
-    double A = 2. - m_invMass * m_K - m_invMass * (m_Z + fric) ;
-    double B = 1. - m_invMass * (fric + m_Z) ;
+    checkCoeffs();
 
     // Calculate the oscillator algorithm, centered around zero.
     m_frc.mult(m_invMass);
-    m_pos.mult(A);
-    m_posR.mult(B);
+    m_pos.mult(m_coeffA);
+    m_posR.mult(m_coeffB);
     m_pos.sub(m_posR);
     m_pos.add(m_frc);
 
     // Add gravitational force.
-    m_pos.sub(m_medium.getGravity());
+    m_pos.sub(m_medium.gravity());
     
     // Restore the offset of the module
     m_pos.x += m_pRest.x;
@@ -75,16 +73,16 @@ public class Osc3D extends Mass {
     switch(p){
       case MASS:
         this.m_invMass = 1./val;
-        return 0;
+        return paramChanged();
       case RADIUS:
         this.m_size = val;
-        return 0;
+        return paramChanged();
       case STIFFNESS:
         this.m_K = val;
-        return 0;
+        return paramChanged();
       case DAMPING:
         this.m_Z = val;
-        return 0;
+        return paramChanged();
       default:
         System.out.println("Cannot apply param " + val + " for "
                 + this + ": no " + p + " parameter");
@@ -27,6 +27,7 @@ public class PhyModel extends PhyObject {
      * Initialise the model by calculating initial delayed distances for interactions.
      */
     public void init(){
+        releaseKernel();
         /* Initialise the stored distances for the springs */
         for(Interaction inter : m_interactions)
             inter.initDistances();
@@ -38,9 +39,18 @@ public class PhyModel extends PhyObject {
      * Clear the physical model (remove all elements).
      */
     public void clear(){
+        topologyChanged();
+        subModelsChanged();
+        // Handles of the removed modules become invalid (their slots are reused).
+        for(int i = 0; i < m_handles.size(); i++){
+            if(m_handles.get(i) != null)
+                freeHandle(m_handles.get(i));
+        }
         // Recursively clear all the sub "objects"...
-        for(PhyModel m : m_subModels)
+        for(PhyModel m : m_subModels) {
             m.clear();
+            m.m_parent = null;
+        }
         // Then clear the list of objects...
         m_subModels.clear();
         m_masses.clear();
@@ -51,6 +61,7 @@ public class PhyModel extends PhyObject {
         m_subModelLabels.clear();
         m_intLabels.clear();
         m_inOutLabels.clear();
+        m_index = null;
     }
 
     // Need to check the validity of this... Are mass/interaction phases properly timed when descending recursively?
@@ -59,22 +70,25 @@ public class PhyModel extends PhyObject {
      * Compute the phyiscal model.
      */
     public void compute(){
-        // reset the space print of this model.
-        m_sp.reset();
-        m_sp_overall.reset();
+        // A compiled model is computed by the physics context: fall back to the objects if called directly.
+        releaseKernel();
 
-        for(Mass m : m_masses) {
-            m.compute();
-            m_sp.update(m);
-        }
+        // The masses move: the bounds are checked again when next asked for.
+        m_computeCount++;
+
+        // Masses and interactions are computed in per-type batches (same order as the module lists).
+        if(m_batches == null || !m_batches.matches(m_masses.size(), m_interactions.size()))
+            m_batches = new ComputeBatches(m_masses, m_interactions);
 
-        for(PhyModel o : m_subModels)
-            o.compute();
+        m_batches.computeMasses();
 
-        for(Interaction i : m_interactions)
-            i.compute();
-        for(InOut io : m_inOuts)
-            io.compute();
+        // (indexed loops: no iterator allocation in the simulation step)
+        for(int i = 0; i < m_subModels.size(); i++)
+            m_subModels.get(i).compute();
+
+        m_batches.computeInteractions();
+        for(int i = 0; i < m_inOuts.size(); i++)
+            m_inOuts.get(i).compute();
     }
 
     // Can always apply a force to all the components of a macro object
@@ -105,11 +119,10 @@ public class PhyModel extends PhyObject {
      * @return the mass module.
      */
     public Mass getMass(String name){
-        if(m_massLabels.get(name) == null){
+        Mass m = lookupMass(name);
+        if(m == null)
             System.out.println("Cannot find mass " + name + " in macro " + m_name);
-            return null;
-        }
-        return m_massLabels.get(name);
+        return m;
     }
 
     /**
@@ -118,11 +131,10 @@ public class PhyModel extends PhyObject {
      * @return the interaction module.
      */
     public Interaction getInteraction(String name){
-        if(m_intLabels.get(name) == null){
+        Interaction i = lookupInteraction(name);
+        if(i == null)
             System.out.println("Cannot find interaction " + name + " in macro " + m_name);
-            return null;
-        }
-        return m_intLabels.get(name);
+        return i;
     }
 
     /**
@@ -138,6 +150,216 @@ public class PhyModel extends PhyObject {
         return m_subModelLabels.get(name);
     }
 
+    /**
+     * Access a mass in the model from its handle (see Module.getHandle()).
+     * @param handle the handle of the mass module.
+     * @return the mass module.
+     */
+    public Mass getMass(long handle){
+        Module m = checkedHandle(handle);
+        if(!(m instanceof Mass)){
+            System.out.println("Cannot find mass with handle " + handle + " in macro " + m_name);
+            return null;
+        }
+        return (Mass)m;
+    }
+
+    /**
+     * Access an interaction in the model from its handle (see Module.getHandle()).
+     * @param handle the handle of the interaction module.
+     * @return the interaction module.
+     */
+    public Interaction getInteraction(long handle){
+        Module m = checkedHandle(handle);
+        if(!(m instanceof Interaction)){
+            System.out.println("Cannot find interaction with handle " + handle + " in macro " + m_name);
+            return null;
+        }
+        return (Interaction)m;
+    }
+
+    /**
+     * Access an InOut module in the model from its handle (see Module.getHandle()).
+     * @param handle the handle of the in/out module.
+     * @return the in/out module.
+     */
+    public InOut getInOut(long handle){
+        Module m = checkedHandle(handle);
+        if(!(m instanceof InOut)){
+            System.out.println("Cannot find InOut with handle " + handle + " in macro " + m_name);
+            return null;
+        }
+        return (InOut)m;
+    }
+
+    /**
+     * Access a sub-model of this model from its handle (see Module.getHandle()).
+     * @param handle the handle of the sub-model.
+     * @return the sub-model.
+     */
+    public PhyModel getPhyModel(long handle){
+        Module m = checkedHandle(handle);
+        if(!(m instanceof PhyModel)){
+            System.out.println("Cannot find sub-macro with handle " + handle + " in macro " + m_name);
+            return null;
+        }
+        return (PhyModel)m;
+    }
+
+    /**
+     * Find a mass by name, among the labelled masses and the masses named on demand.
+     */
+    private Mass lookupMass(String name){
+        Mass m = m_massLabels.get(name);
+        return (m != null) ? m : generatedMass(name);
+    }
+
+    private Interaction lookupInteraction(String name){
+        Interaction i = m_intLabels.get(name);
+        return (i != null) ? i : generatedInteraction(name);
+    }
+
+    /**
+     * Get the name of a module of this model that is named on demand (generated topologies with
+     * compact naming derive names from the position of the modules instead of storing them).
+     * @param m the module.
+     * @return the name.
+     */
+    String generatedName(Module m){
+        return "";
+    }
+
+    /**
+     * Find a mass named on demand from its name.
+     * @param name the name of the mass.
+     * @return the mass, or null if there is no such mass.
+     */
+    Mass generatedMass(String name){
+        return null;
+    }
+
+    /**
+     * Find an interaction named on demand from its name.
+     * @param name the name of the interaction.
+     * @return the interaction, or null if there is no such interaction.
+     */
+    Interaction generatedInteraction(String name){
+        return null;
+    }
+
+    /**
+     * Parse the indices of a generated name such as "m_12_3_7".
+     * @param name the name.
+     * @param prefix the part of the name before the indices (e.g. "m_").
+     * @param indices array receiving the indices (its length is the expected number of indices).
+     * @return true if the name matches the pattern.
+     */
+    static boolean parseIndices(String name, String prefix, int[] indices){
+        if(!name.startsWith(prefix))
+            return false;
+        int pos = prefix.length();
+        for(int n = 0; n < indices.length; n++){
+            if(n > 0){
+                if(pos >= name.length() || name.charAt(pos) != '_')
+                    return false;
+                pos++;
+            }
+            int start = pos;
+            int v = 0;
+            while(pos < name.length() && name.charAt(pos) >= '0' && name.charAt(pos) <= '9' && pos - start < 9)
+                v = v * 10 + (name.charAt(pos++) - '0');
+            if(pos == start)
+                return false;
+            indices[n] = v;
+        }
+        return pos == name.length();
+    }
+
+    /**
+     * Get the module of a handle slot (see Module.m_handle).
+     * @param handle the slot.
+     * @return the module, or null if the slot is free.
+     */
+    Module fromHandle(int handle){
+        if(handle < 0 || handle >= m_handles.size())
+            return null;
+        return m_handles.get(handle);
+    }
+
+    // Module of a public handle (see Module.getHandle()), null if it was removed since.
+    private Module checkedHandle(long handle){
+        Module m = fromHandle((int)handle);
+        if(handle < 0 || m == null || m.m_handleGen != (int)(handle >>> 32))
+            return null;
+        return m;
+    }
+
+    /**
+     * Get the number of handle slots of this model: the highest number of modules it has held at
+     * once, plus the slots kept by generated topologies (see isReservedHandle()).
+     * @return the number of slots.
+     */
+    int getNumberOfHandles(){
+        return m_handles.size();
+    }
+
+    /**
+     * Give a handle to a module added to this model, in a slot freed by a removed module if any.
+     * @param m the module.
+     */
+    void newHandle(Module m){
+        if(m_nbFreeHandles > 0)
+            setHandle(m, m_freeHandles[--m_nbFreeHandles]);
+        else
+            appendHandle(m);
+    }
+
+    // Give a handle in a new slot (after all the others).
+    private void appendHandle(Module m){
+        m_handles.add(null);
+        if(m_handleGen.length < m_handles.size())
+            m_handleGen = Arrays.copyOf(m_handleGen, Math.max(m_handles.size(), 2 * m_handleGen.length));
+        setHandle(m, m_handles.size() - 1);
+    }
+
+    private void setHandle(Module m, int slot){
+        m_handles.set(slot, m);
+        m.m_handle = slot;
+        m.m_handleGen = m_handleGen[slot];
+    }
+
+    /**
+     * Check if a handle slot is kept for the module it was allocated to, even after its removal
+     * (generated topologies find the modules they name on demand from their slots).
+     * @param handle the slot.
+     * @return true if the slot must not be given to another module.
+     */
+    boolean isReservedHandle(int handle){
+        return false;
+    }
+
+    // Get the topology index of this model, building it if needed.
+    private TopologyIndex index(){
+        if(m_index == null)
+            m_index = new TopologyIndex(m_masses, m_interactions, m_handles.size());
+        return m_index;
+    }
+
+    // Free the handle of a removed module: the next generation of its slot can be given to another one.
+    private void freeHandle(Module m){
+        int slot = m.m_handle;
+        m.m_handle = -1;
+        if(fromHandle(slot) != m)
+            return;
+        m_handles.set(slot, null);
+        m_handleGen[slot] = (m_handleGen[slot] + 1) & 0x7FFFFFFF;
+        if(isReservedHandle(slot))
+            return;
+        if(m_nbFreeHandles == m_freeHandles.length)
+            m_freeHandles = Arrays.copyOf(m_freeHandles, Math.max(16, 2 * m_nbFreeHandles));
+        m_freeHandles[m_nbFreeHandles++] = slot;
+    }
+
     /**
      * Add a sub-model to this physical model
      * @param mac the sub-model to add.
@@ -151,8 +373,12 @@ public class PhyModel extends PhyObject {
                 throw new Error("A physical model named " + mac.getName() + "already exists in " + this.getName() + " !");
             }
             else {
+                topologyChanged();
+                subModelsChanged();
+                mac.m_parent = this;
                 m_subModels.add(mac);
                 m_subModelLabels.put(mac.getName(), mac);
+                newHandle(mac);
             }
         }
     }
@@ -178,8 +404,9 @@ public class PhyModel extends PhyObject {
      * @return a reference to the mass.
      */
     public <T extends Mass> T addMass(String name, T m, Medium med){
-        if (m_massLabels.get(name) == null){
+        if (lookupMass(name) == null){
             try {
+                topologyChanged();
                 m.setName(name);
                 m.setMedium(med);
 
@@ -193,6 +420,9 @@ public class PhyModel extends PhyObject {
 
                 m_masses.add(m);
                 m_massLabels.put(name, m);
+                newHandle(m);
+                if(m_index != null)
+                    m_index.setPosition(m, m_masses.size() - 1);
 
             } catch (Exception e) {
                 System.out.println("Error adding mass module " + name + ": " + e);
@@ -239,7 +469,7 @@ public class PhyModel extends PhyObject {
      * @return a reference to the interaction.
      */
     public <T extends Interaction> T addInteraction(String name, T inter, String m_id1){
-        Mass m1 = m_massLabels.get(m_id1);
+        Mass m1 = lookupMass(m_id1);
         return addInteraction(name, inter, m1);
     }
 
@@ -254,7 +484,7 @@ public class PhyModel extends PhyObject {
      */
     public <T extends Interaction> T addInteraction(String name, T inter, Mass m1, Mass m2) {
 
-        if (m_intLabels.get(name) != null) {
+        if (lookupInteraction(name) != null) {
             System.out.println("Cannot create interaction " + name
                     + ": " + name + " interaction already exists. ");
             this.m_errorCode = -1;
@@ -274,10 +504,14 @@ public class PhyModel extends PhyObject {
         }
 
         try {
+            topologyChanged();
             inter.setName(name);
             inter.connect(m1, m2);
             m_interactions.add(inter);
             m_intLabels.put(name, inter);
+            newHandle(inter);
+            if(m_index != null)
+                m_index.addInteraction(inter, m_interactions.size() - 1);
 
         } catch (Exception e) {
             System.out.println("Error adding interaction module " + name + ": " + e);
@@ -289,34 +523,63 @@ public class PhyModel extends PhyObject {
     }
 
 
-    private Mass findMassFromAddress(String m_id){
-        String[] address;
-        String name = m_id;
-        Mass m;
-        try {
-            PhyModel m_ref = this;
-            if (m_id.contains("/")) {
-                address = m_id.split("/");
-                for(int i = 0; i < address.length-1; i++) {
-                    if (this.getPhyModel(address[i]) != null)
-                        m_ref = this.getPhyModel(address[i]);
-                    else
-                        throw new Error("Cannot find submodel " + address[i] + " in " + m_ref.getName());
-                }
-                name = address[address.length-1];
-            }
-
-            if(m_ref.massExists(name))
-                m = m_ref.getMass(name);
-            else
-                throw new Error("The mass " + name + " does not exist in " + m_ref.getName());
+    /**
+     * Find a mass from its address in this model: its name, or a path through the sub-models
+     * ("sub/sub/mass"). Resolved addresses are cached until the topology of the model changes, and
+     * the sub-models reached by each path until a sub-model is added or removed, so repeated lookups
+     * cost about as much as a lookup by name.
+     * @param m_id the address of the mass.
+     * @return the mass, or null if it does not exist.
+     */
+    public Mass findMassFromAddress(String m_id){
+        int sep = m_id.lastIndexOf('/');
+        if(sep < 0) {
+            Mass m = lookupMass(m_id);
+            if(m == null)
+                System.out.println("The mass " + m_id + " does not exist in " + getName());
             return m;
         }
-        catch (Error ex){
-            System.out.println(ex.getMessage());
-            return null;
+
+        if(m_addressCacheVersion != m_topologyVersion) {
+            if(!m_addressCache.isEmpty())
+                m_addressCache = new HashMap<>();
+            m_addressCacheVersion = m_topologyVersion;
         }
+        Mass m = m_addressCache.get(m_id);
+        if(m != null)
+            return m;
 
+        PhyModel m_ref = findModelFromPath(m_id.substring(0, sep));
+        if(m_ref == null)
+            return null;
+        String name = m_id.substring(sep + 1);
+        m = m_ref.lookupMass(name);
+        if(m == null)
+            System.out.println("The mass " + name + " does not exist in " + m_ref.getName());
+        else
+            m_addressCache.put(m_id, m);
+        return m;
+    }
+
+    private PhyModel findModelFromPath(String path){
+        if(m_pathCacheVersion != m_subModelVersion) {
+            m_pathCache.clear();
+            m_pathCacheVersion = m_subModelVersion;
+        }
+        PhyModel m_ref = m_pathCache.get(path);
+        if(m_ref == null) {
+            m_ref = this;
+            for(String sub : path.split("/")) {
+                PhyModel next = m_ref.m_subModelLabels.get(sub);
+                if(next == null) {
+                    System.out.println("Cannot find submodel " + sub + " in " + m_ref.getName());
+                    return null;
+                }
+                m_ref = next;
+            }
+            m_pathCache.put(path, m_ref);
+        }
+        return m_ref;
     }
 
 
@@ -340,6 +603,19 @@ public class PhyModel extends PhyObject {
 
     }
 
+    /**
+     * Add an interaction to the model.
+     * @param name name of the interaction.
+     * @param inter the interaction object.
+     * @param h1 handle of connected mass 1 in this model.
+     * @param h2 handle of connected mass 2 in this model.
+     * @param <T> template type for interaction.
+     * @return a reference to the interaction.
+     */
+    public <T extends Interaction> T addInteraction(String name, T inter, long h1, long h2) {
+        return addInteraction(name, inter, getMass(h1), getMass(h2));
+    }
+
     /**
      * Add an InOut to the model.
      * @param name name of the in/out module.
@@ -362,10 +638,12 @@ public class PhyModel extends PhyObject {
             return null;
         }
         try {
+            topologyChanged();
             mod.setName(name);
             mod.connect(m);
             m_inOuts.add(mod);
             m_inOutLabels.put(name, mod);
+            newHandle(mod);
         } catch (Exception e) {
             System.out.println("Error adding InOut module " + name + ": " + e);
             this.m_errorCode = -4;
@@ -387,6 +665,83 @@ public class PhyModel extends PhyObject {
         return addInOut(name, mod, findMassFromAddress(m_id));
     }
 
+    /**
+     * Add an InOut to the model.
+     * @param name name of the in/out module.
+     * @param mod the module.
+     * @param h handle of the mass (in this model) that this module is connected to.
+     * @param <T> template type for InOut module.
+     * @return reference to the module.
+     */
+    public <T extends InOut> T addInOut(String name, T mod, long h) {
+        return addInOut(name, mod, getMass(h));
+    }
+
+    /**
+     * Add masses and interactions created in bulk (by the topology generators). The modules must be
+     * named (or named on demand by this model), the interactions connected, and the masses initialised
+     * with their delayed positions. Their handles are consecutive new slots, masses first.
+     * The label maps are sized once, no name is resolved, and the topology of the model only changes
+     * once. Nothing is added if one of the names is already used in the model.
+     * @param masses the masses to add.
+     * @param inters the interactions to add.
+     * @return 0 if success, -1 if a name is already used.
+     */
+    int addModules(Mass[] masses, Interaction[] inters){
+        int nbNamed = 0;
+        for(Mass m : masses){
+            if(m.m_name == null)
+                continue;
+            nbNamed++;
+            if(lookupMass(m.m_name) != null){
+                System.out.println("Could not create " + m + ", " + m.getName() + " label already exists. ");
+                this.m_errorCode = -1;
+                return -1;
+            }
+        }
+        int nbNamedInter = 0;
+        for(Interaction i : inters){
+            if(i.m_name == null)
+                continue;
+            nbNamedInter++;
+            if(lookupInteraction(i.m_name) != null){
+                System.out.println("Cannot create interaction " + i.getName()
+                        + ": " + i.getName() + " interaction already exists. ");
+                this.m_errorCode = -1;
+                return -1;
+            }
+        }
+
+        topologyChanged();
+        if(m_massLabels.isEmpty() && nbNamed > 0)
+            m_massLabels = new HashMap<>(nbNamed * 4 / 3 + 1);
+        if(m_intLabels.isEmpty() && nbNamedInter > 0)
+            m_intLabels = new HashMap<>(nbNamedInter * 4 / 3 + 1);
+        m_masses.ensureCapacity(m_masses.size() + masses.length);
+        m_interactions.ensureCapacity(m_interactions.size() + inters.length);
+        m_handles.ensureCapacity(m_handles.size() + masses.length + inters.length);
+
+        // Modules named on demand are not labelled (see generatedMass(), generatedInteraction()).
+        for(Mass m : masses){
+            m_masses.add(m);
+            if(m.m_name != null)
+                m_massLabels.put(m.m_name, m);
+            appendHandle(m);
+            if(m_index != null)
+                m_index.setPosition(m, m_masses.size() - 1);
+        }
+        for(Interaction i : inters){
+            m_interactions.add(i);
+            if(i.m_name != null)
+                m_intLabels.put(i.m_name, i);
+            appendHandle(i);
+            if(m_index != null)
+                m_index.addInteraction(i, m_interactions.size() - 1);
+        }
+        this.m_errorCode = 0;
+        return 0;
+    }
+
     /**
      * Get all sub-models inside this model.
      * @return a list of all sub-models.
@@ -490,7 +845,7 @@ public class PhyModel extends PhyObject {
      * @return true if exists, false otherwise.
      */
     public boolean massExists(String name) {
-        Mass m = m_massLabels.get(name);
+        Mass m = lookupMass(name);
         if (m == null)
             return false;
         else
@@ -504,10 +859,14 @@ public class PhyModel extends PhyObject {
      */
     private int removeMass(Mass m){
         try {
-            if(m_massLabels.remove(m.getName()) == null)
+            topologyChanged();
+            if(m.m_name != null && m_massLabels.remove(m.m_name) == null)
                 throw(new Exception("Couldn't remove Mass module " + m + "out of label list."));
-            if(m_masses.remove(m) == false)
+            // The last mass of the list takes the place of the removed one.
+            if(index().swapRemove(m_masses, m) == false)
                 throw(new Exception("Couldn't remove Mass module " + m + "out of Array list."));
+            m_index.removeMass(m);
+            freeHandle(m);
             return 0;
         } catch (Exception e) {
             System.out.println("Error removing Mass Module " + m + ": " + e);
@@ -530,7 +889,7 @@ public class PhyModel extends PhyObject {
      * @return true if success.
      */
     private int removeMass(String name) {
-        Mass m = m_massLabels.get(name);
+        Mass m = lookupMass(name);
         return removeMass(m);
     }
 
@@ -542,10 +901,13 @@ public class PhyModel extends PhyObject {
     public int removeInteraction(Interaction l) {
         synchronized (m_lock) {
             try {
-                if(m_intLabels.remove(l.getName()) == null)
+                topologyChanged();
+                if(l.m_name != null && m_intLabels.remove(l.m_name) == null)
                     throw(new Exception("Couldn't remove Interaction module " + l.getName() + " out of label list."));
-                if(m_interactions.remove(l)== false)
+                if(index().swapRemove(m_interactions, l) == false)
                     throw(new Exception("Couldn't remove Interaction module " + l.getName() + " out of Array list."));
+                m_index.removeInteraction(l);
+                freeHandle(l);
                 return 0;
             } catch (Exception e) {
                 System.out.println("Error removing interaction Module " + l + ": " + e);
@@ -560,24 +922,26 @@ public class PhyModel extends PhyObject {
      * @return true if success.
      */
     public synchronized int removeInteraction(String name) {
-        Interaction l = m_intLabels.get(name);
+        Interaction l = lookupInteraction(name);
         return removeInteraction(l);
     }
 
     /**
      * Remove a mass and connected interactions from the model.
+     * Only the interactions connected to the mass are visited, and each removed module is replaced
+     * in its list by the last one (the order of the remaining modules changes). To remove many
+     * masses at once while keeping the order, use removeMasses().
      * @param m mass to remove.
      * @return true if success.
      */
     public int removeMassAndConnectedInteractions(Mass m) {
         synchronized (m_lock) {
             try {
-                for (int i = m_interactions.size() - 1; i >= 0; i--) {
-                    Interaction cur = m_interactions.get(i);
-                    if ((cur.getMat1() == m) || (cur.getMat2() == m))
-                        if(removeInteraction(cur) != 0)
-                            throw(new Exception("Couldn't remove Interaction module " + cur ));
-
+                if(m == null)
+                    throw(new Exception("No mass to remove"));
+                for (Interaction cur : index().connectedTo(m)) {
+                    if(removeInteraction(cur) != 0)
+                        throw(new Exception("Couldn't remove Interaction module " + cur ));
                 }
                 if (removeMass(m) != 0)
                     throw(new Exception("Couldn't remove Mass module " + m));
@@ -598,10 +962,63 @@ public class PhyModel extends PhyObject {
      * @return true if success.
      */
     public int removeMassAndConnectedInteractions(String mName) {
-        Mass m = m_massLabels.get(mName);
+        Mass m = lookupMass(mName);
         return removeMassAndConnectedInteractions(m);
     }
 
+    /**
+     * Remove a set of masses and their connected interactions from the model, in a single pass over
+     * the lists of the model. The remaining modules keep their order.
+     * Nothing is removed if one of the masses is not in this model.
+     * @param masses the masses to remove.
+     * @return 0 if success, -1 otherwise.
+     */
+    public int removeMasses(Collection<? extends Mass> masses) {
+        synchronized (m_lock) {
+            Set<Mass> removed = Collections.newSetFromMap(new IdentityHashMap<>(masses.size() * 2));
+            for(Mass m : masses){
+                if(m == null || fromHandle(m.m_handle) != m){
+                    System.out.println("Cannot remove masses from " + m_name + ": " + m + " is not in the model.");
+                    return -1;
+                }
+                removed.add(m);
+            }
+            if(removed.isEmpty())
+                return 0;
+
+            topologyChanged();
+            int n = 0;
+            for(int i = 0; i < m_interactions.size(); i++){
+                Interaction cur = m_interactions.get(i);
+                if(removed.contains(cur.getMat1()) || removed.contains(cur.getMat2())){
+                    if(cur.m_name != null)
+                        m_intLabels.remove(cur.m_name);
+                    freeHandle(cur);
+                }
+                else
+                    m_interactions.set(n++, cur);
+            }
+            m_interactions.subList(n, m_interactions.size()).clear();
+
+            n = 0;
+            for(int i = 0; i < m_masses.size(); i++){
+                Mass cur = m_masses.get(i);
+                if(removed.contains(cur)){
+                    if(cur.m_name != null)
+                        m_massLabels.remove(cur.m_name);
+                    freeHandle(cur);
+                }
+                else
+                    m_masses.set(n++, cur);
+            }
+            m_masses.subList(n, m_masses.size()).clear();
+
+            // Every position has moved: the index is rebuilt when next needed.
+            m_index = null;
+            return 0;
+        }
+    }
+
     // CHEAP HACK: have to implement these if we want them to be inherited from the Module class
     public int setParam(param p, double val ){
         System.out.println("This method is empty for a general physical model but can be overriden" +
@@ -620,15 +1037,33 @@ public class PhyModel extends PhyObject {
      * @param m mass to insert.
      */
     private void replaceMassInModel(Mass old, Mass m){
-        int idx = m_masses.indexOf(old);
+        topologyChanged();
+        TopologyIndex index = index();
+        int idx = index.positionOf(m_masses, old);
         m_masses.set(idx, m);
-        m_massLabels.replace(m.getName(), m);
-        for(Interaction i: m_interactions){
+        if(old.m_name != null)
+            m_massLabels.put(old.m_name, m);
+        // The replacing mass takes over the handle (and the naming of its interactions).
+        m.m_owner = old.m_owner;
+        if(old.m_handle >= 0) {
+            m_handles.set(old.m_handle, m);
+            m.m_handle = old.m_handle;
+            m.m_handleGen = old.m_handleGen;
+            old.m_handle = -1;
+        }
+        index.setPosition(m, idx);
+        for(Interaction i : index.connectedTo(old)){
             if(i.getMat1() == old)
                 i.connect(m, i.getMat2());
             if(i.getMat2() == old)
                 i.connect(i.getMat1(), m);
         }
+        index.replaceMass(old, m);
+        // InOuts can be moved from mass to mass by the user (moveDriver...), they are checked directly.
+        for(InOut io : m_inOuts){
+            if(io.getMat() == old)
+                io.connect(m);
+        }
     }
 
     /**
@@ -636,7 +1071,7 @@ public class PhyModel extends PhyObject {
      * @param masName name of mass to change.
      */
     public void changeToFixedPoint(String masName){
-        Mass m = m_massLabels.get(masName);
+        Mass m = lookupMass(masName);
         this.changeToFixedPoint(m);
     }
 
@@ -647,16 +1082,14 @@ public class PhyModel extends PhyObject {
     public void changeToFixedPoint(Mass m) {
         try {
 
-            String name = m.getName();
             //System.out.println("Changing to fixed point:  " + m.getName());
 
+            // A mass named on demand stays named on demand.
             Ground3D tmp = new Ground3D(m.getParam(param.RADIUS), m.getPos());
-            tmp.setName(name);
+            tmp.setName(m.m_name);
 
             replaceMassInModel(m, tmp);
 
-            this.removeMassAndConnectedInteractions(m);
-
         } catch (Exception e) {
             System.out.println("Couldn't change into fixed point:  " + m.getName() + ": " + e);
             System.exit(1);
@@ -664,7 +1097,8 @@ public class PhyModel extends PhyObject {
     }
 
     /**
-     * Get the first mass in the model (in order of creation).
+     * Get the first mass in the model (in order of creation, as long as no mass was removed
+     * with removeMassAndConnectedInteractions()).
      * @return reference to the mass.
      */
     public Mass getFirstMass(){
@@ -672,7 +1106,8 @@ public class PhyModel extends PhyObject {
     }
 
     /**
-     * Get the last mass in the model (in order of creation).
+     * Get the last mass in the model (in order of creation, as long as no mass was removed
+     * with removeMassAndConnectedInteractions()).
      * @return reference to the mass.
      */
     public Mass getLastMass(){
@@ -680,36 +1115,183 @@ public class PhyModel extends PhyObject {
     }
 
     /**
-     * Calculate the space print of all masses in the model (used for collisions)
+     * Calculate the space print of all masses in the model (used for collisions): the bounds of the
+     * model and of its sub-models are fitted again to the current positions of the masses.
      */
     public void calcSpacePrint(){
-        /*ForkJoinPool pool = null;
-        pool = new ForkJoinPool(8);
-        pool.submit(() -> m_masses.parallelStream().forEach(p-> m_sp.update(p)));
-        */
-        // Calculate the space print for this object.
-        //m_masses.parallelStream().forEach(p-> m_sp.update(p));
+        fitBounds();
+        for(PhyModel pm : m_subModels)
+            pm.calcSpacePrint();
+        boundsChanged();
+    }
 
-        for(Mass m : m_masses){
-            m_sp.update(m);
+    /**
+     * Get the space print for this model: a box containing all the masses of this model (excluding
+     * sub-models), enlarged by the bounds margin.
+     * The space print is only updated when it is asked for (by a collider, the renderer...), and only
+     * fitted again to the masses when one of them has left it, which the margin makes rare.
+     * @return the space print.
+     */
+    public SpacePrint getSpacePrint(){
+        refreshBounds();
+        return m_sp;
+    }
+
+    /**
+     * Get the space print for this model and all of its sub-models.
+     * @return the overall space print.
+     */
+    public SpacePrint getOverallSpacePrint(){
+        refreshBounds();
+        return m_sp_overall;
+    }
+
+    /**
+     * Set the margin by which the space print of this model (and of its sub-models) is enlarged.
+     * A larger margin means fewer refits of the space print, but a coarser test for collisions.
+     * @param margin the margin, or a negative value to use the largest radius of the masses (default).
+     */
+    public void setBoundsMargin(double margin){
+        m_boundsMargin = margin;
+        for(PhyModel pm : m_subModels)
+            pm.setBoundsMargin(margin);
+        m_sp.reset();
+        boundsChanged();
+    }
+
+    // Bring the space prints of this model and of its sub-models up to date.
+    private void refreshBounds(){
+        long stamp = m_kernel != null ? m_kernel.getSteps() : m_computeCount;
+        if(stamp == m_boundsStamp)
+            return;
+        m_boundsStamp = stamp;
+
+        boolean changed = false;
+        if(!massesInsideBounds()){
+            fitBounds();
+            changed = true;
+        }
+        long subVersions = 0;
+        for(int i = 0; i < m_subModels.size(); i++){
+            PhyModel pm = m_subModels.get(i);
+            pm.refreshBounds();
+            subVersions += pm.m_boundsVersion;
+        }
+        // The overall space print only changes when one of its parts has been refitted.
+        if(changed || subVersions != m_subBoundsVersions){
+            m_subBoundsVersions = subVersions;
+            m_sp_overall.set(m_sp);
+            for(int i = 0; i < m_subModels.size(); i++){
+                SpacePrint sp = m_subModels.get(i).m_sp_overall;
+                if(sp.isValid())
+                    m_sp_overall.update(sp);
+            }
+            m_boundsVersion++;
         }
+    }
+
+    private boolean massesInsideBounds(){
+        if(!m_sp.isValid())
+            return m_masses.isEmpty();
+        if(m_kernel != null)
+            return m_kernel.massesInside(m_kernelIdx, m_sp);
+        for(int i = 0; i < m_masses.size(); i++){
+            Mass m = m_masses.get(i);
+            if(!m_sp.contains(m.m_pos.x, m.m_pos.y, m.m_pos.z, m.m_size))
+                return false;
+        }
+        return true;
+    }
 
-        /*
-        // Get the overall space print by adding prints from any submodules.
-        m_sp_overall.set(m_sp);
-        for(PhyModel pm : m_subModels) {
-            //pm.calcSpacePrint();
-            m_sp_overall.update(pm.m_sp);
+    // Fit the space print of this model to its masses, then enlarge it by the margin.
+    private void fitBounds(){
+        m_sp.reset();
+        double radius = 0;
+        if(m_kernel != null)
+            radius = m_kernel.fitSpacePrint(m_kernelIdx, m_sp);
+        else {
+            for(int i = 0; i < m_masses.size(); i++){
+                Mass m = m_masses.get(i);
+                m_sp.update(m.m_pos.x, m.m_pos.y, m.m_pos.z, m.m_size);
+                radius = Math.max(radius, m.m_size);
+            }
         }
-        */
+        if(m_sp.isValid())
+            m_sp.grow(m_boundsMargin >= 0 ? m_boundsMargin : radius);
     }
 
     /**
-     * Get the space print for this model.
-     * @return
+     * Make sure the space prints of this model (and of its parents) are checked again when next
+     * asked for, even if no step has been computed (masses moved from outside the simulation...).
      */
-    public SpacePrint getSpacePrint(){
-        return m_sp;
+    void boundsChanged(){
+        for(PhyModel pm = this; pm != null; pm = pm.m_parent)
+            pm.m_boundsStamp = Long.MIN_VALUE;
+    }
+
+    /**
+     * Hand the state back to the module objects if this model is currently compiled
+     * (to be called before any change to the model topology).
+     */
+    void releaseKernel(){
+        if(m_kernel != null)
+            m_kernel.release();
+    }
+
+    /**
+     * Release the compiled model and drop the computation batches (to be called on any change to
+     * the masses, interactions, InOuts or sub-models of this model).
+     */
+    void topologyChanged(){
+        releaseKernel();
+        m_batches = null;
+        m_sp.reset();
+        for(PhyModel pm = this; pm != null; pm = pm.m_parent) {
+            pm.m_topologyVersion++;
+            pm.m_boundsStamp = Long.MIN_VALUE;
+        }
+    }
+
+    // Invalidate the sub-model paths cached by this model and its parents.
+    private void subModelsChanged(){
+        for(PhyModel pm = this; pm != null; pm = pm.m_parent)
+            pm.m_subModelVersion++;
+    }
+
+    /**
+     * Get the topology version of this model: a counter that is incremented every time a module or a
+     * sub-model is added to or removed from this model or any of its sub-models.
+     * Can be used to cache lists built from the model (observers, drivers...).
+     * @return the topology version.
+     */
+    public int getTopologyVersion(){
+        return m_topologyVersion;
+    }
+
+    /**
+     * Get the top-level model containing this model.
+     * @return the top-level model (this model if it has no parent).
+     */
+    PhyModel getRootModel(){
+        PhyModel pm = this;
+        while(pm.m_parent != null)
+            pm = pm.m_parent;
+        return pm;
+    }
+
+    /**
+     * Set the collision groups and mask of all the masses of this model and of its sub-models
+     * (see Mass.setCollisionGroup()).
+     * @param group the groups (bits) of the masses.
+     * @param mask the groups (bits) the masses collide with.
+     */
+    public void setCollisionGroup(int group, int mask){
+        for(int i = 0; i < m_masses.size(); i++){
+            m_masses.get(i).setCollisionGroup(group);
+            m_masses.get(i).setCollisionMask(mask);
+        }
+        for(int i = 0; i < m_subModels.size(); i++)
+            m_subModels.get(i).setCollisionGroup(group, mask);
     }
 
     /**
@@ -802,6 +1384,7 @@ public class PhyModel extends PhyObject {
         }
         for(PhyModel pm : getSubModels())
             pm.translateAndRotate(tx,ty,tz,x_angle, y_angle, z_angle);
+        boundsChanged();
     }
 
 
@@ -823,11 +1406,47 @@ public class PhyModel extends PhyObject {
     private int m_errorCode = 0;
     private int m_simRate = 1000;
 
+    /* Space prints of the masses of this model and of the whole model (see getSpacePrint()), the
+     * step they were last checked for, and a counter of the refits of the overall space print */
     private SpacePrint m_sp = new SpacePrint();
     private SpacePrint m_sp_overall = new SpacePrint();
+    private double m_boundsMargin = -1;
+    private long m_computeCount = 0;
+    private long m_boundsStamp = Long.MIN_VALUE;
+    private long m_boundsVersion = 0;
+    private long m_subBoundsVersions = 0;
 
     private Lock m_lock;
 
+    /* Compiled model this model is part of (null when computed as objects) */
+    CompiledModel m_kernel;
+    int m_kernelIdx;
+
+    /* Per-type computation batches (rebuilt lazily after topology changes) */
+    private ComputeBatches m_batches;
+
+    private PhyModel m_parent;
+    private int m_topologyVersion = 0;
+
+    /* Module of each handle slot (null once removed), generation of each slot (incremented when its
+     * module is removed) and stack of the free slots */
+    private ArrayList<Module> m_handles = new ArrayList<>();
+    private int[] m_handleGen = new int[16];
+    private int[] m_freeHandles = new int[0];
+    private int m_nbFreeHandles = 0;
+
+    /* Interactions connected to each mass and positions of the modules in their lists (built on
+     * the first removal or replacement of a mass, then maintained by additions and removals) */
+    private TopologyIndex m_index;
+
+    /* Masses reached by addresses (valid for one topology version), and sub-models reached by the
+     * paths of these addresses (valid for one version of the sub-models) */
+    private HashMap<String, Mass> m_addressCache = new HashMap<>();
+    private int m_addressCacheVersion = 0;
+    private HashMap<String, PhyModel> m_pathCache = new HashMap<>();
+    private int m_pathCacheVersion = 0;
+    private int m_subModelVersion = 0;
+
     public Lock getLock(){
         return m_lock;
     }
@@ -1,6 +1,7 @@
 package miPhysics.Engine;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.*;
 import java.lang.Math;
 
@@ -18,6 +19,19 @@ public class PhysicsContext {
 
 	private Lock m_lock;
 
+	/* Commands posted by other threads, applied between two steps under the scene lock */
+	private CommandQueue m_commands = new CommandQueue();
+	private Lock m_sceneLock = new ReentrantLock();
+
+	/* Copies of the scene for another thread (see getSnapshot()): the one being filled by the simulation,
+	 * the one held by the reader, and the last one filled, exchanged atomically between them */
+	private SceneSnapshot m_snapshotBack = new SceneSnapshot();
+	private SceneSnapshot m_snapshotFront = new SceneSnapshot();
+	private final AtomicReference<SceneSnapshot> m_snapshotReady = new AtomicReference<>(new SceneSnapshot());
+	private volatile boolean m_snapshotWanted = false;
+	/* Thread that computed the last steps */
+	private volatile Thread m_stepThread;
+
 	/* The simulation rate (mono rate only) */
 	private int simRate;
 	/* The processing sketch display rate */
@@ -42,6 +56,18 @@ public class PhysicsContext {
 
 	private CollisionEngine m_colEng = new CollisionEngine();
 
+	/* Compiled version of the model (if compilation was requested) */
+	private CompiledModel m_kernel;
+	private boolean m_compiled = false;
+	private boolean m_single = false;
+
+	/* Worker threads for parallel computation of the compiled model (null: single thread) */
+	private WorkerPool m_workers;
+
+	/* Sleeping of the parts of the compiled model at rest (negative threshold: disabled) */
+	private double m_sleepThreshold = -1;
+	private int m_sleepSteps = 0;
+
 	private Map<String, ParamController> param_controllers = new HashMap<>();
 
 
@@ -198,15 +224,37 @@ public class PhysicsContext {
 	 */
 	public void computeNSteps(int N) {
 		synchronized (m_lock) {
-			for (int j = 0; j < N; j++) {
+			if(m_stepThread != Thread.currentThread())
+				m_stepThread = Thread.currentThread();
+			computeSteps(N);
+			// Readers of the scene (renderers) get a copy taken between two steps.
+			if(m_snapshotWanted) {
+				m_snapshotWanted = false;
+				m_snapshotBack.fill(m_topLevelModel, m_colEng);
+				m_snapshotBack.m_fresh = true;
+				m_snapshotBack = m_snapshotReady.getAndSet(m_snapshotBack);
+			}
+		}
+	}
 
-				if(!param_controllers.isEmpty())
-					param_controllers.forEach((k,v)-> v.updateParams());
+	private void computeSteps(int N) {
+		for (int j = 0; j < N; j++) {
 
+			applyCommands();
+
+			if(!param_controllers.isEmpty())
+				param_controllers.forEach((k,v)-> v.updateParams());
+
+			if(m_compiled && m_kernel.isValid()) {
+				m_kernel.step();
+				// Colliders work on the module objects (the kernel hands over the masses they use).
+				if(m_colEng.hasColliders())
+					m_colEng.runCollisions(m_workers, m_kernel);
+			}
+			else {
 				m_topLevelModel.compute();
 				// TODO: in and out updates should occur AFTER collision calculations!
-				m_colEng.runCollisions();
-
+				m_colEng.runCollisions(m_workers, null);
 			}
 		}
 	}
@@ -219,10 +267,105 @@ public class PhysicsContext {
 		computeNSteps(1);
 	}
 
+	/**
+	 * Apply the posted commands, and compile the model again if its topology changed (the compiled
+	 * model is released whenever it does). Both are done under the scene lock, without ever waiting
+	 * for it: while a reader holds it, they are postponed to the following step (and the model is
+	 * computed through the hierarchy if it needs compiling).
+	 */
+	private void applyCommands() {
+		boolean recompile = m_compiled && (m_kernel == null || !m_kernel.isValid());
+		if(!recompile && m_commands.isEmpty())
+			return;
+		if(!m_sceneLock.tryLock())
+			return;
+		try {
+			Runnable command;
+			while((command = m_commands.poll()) != null) {
+				try {
+					command.run();
+				} catch (Throwable t) {
+					System.out.println("Error applying command " + command + ": " + t);
+				}
+			}
+			if(m_compiled && (m_kernel == null || !m_kernel.isValid())) {
+				m_kernel = CompiledModel.compile(m_topLevelModel, m_single);
+				m_compiled = (m_kernel != null);
+				if(m_compiled)
+					configureKernel();
+			}
+		} finally {
+			m_sceneLock.unlock();
+		}
+	}
+
+	/**
+	 * Post a command to be applied by the simulation thread, between two steps. This is the safe way
+	 * to change the model from another thread (user interface, MIDI, or a thread that built a new
+	 * sub-model): adding or removing modules, rewiring, changing parameters, moving drivers...
+	 *
+	 * Posting never blocks, and the simulation thread never waits for the readers of the scene (see
+	 * getSceneLock()): the commands posted before a step are applied in order, all together, before
+	 * that step or one of the following ones. Several changes that must be seen together should be
+	 * posted as a single command, for instance:
+	 * phys.enqueue(() -> { mdl.removeMassAndConnectedInteractions("m_3"); mdl.addPhyModel(other); });
+	 * Sub-models built on another thread should be initialised there, before being posted.
+	 *
+	 * @param command the command.
+	 * @return 0 if success, -1 if the command is null.
+	 */
+	public int enqueue(Runnable command) {
+		if(command == null) {
+			System.out.println("Cannot enqueue a null command.");
+			return -1;
+		}
+		m_commands.offer(command);
+		return 0;
+	}
+
 	public Lock getLock(){
 		return m_lock;
 	}
 
+	/**
+	 * Get the scene lock, held by the simulation thread while it applies the posted commands (see
+	 * enqueue()). Threads that walk the model structure while the simulation runs should hold it: the
+	 * model topology then cannot change under them, and the simulation never waits for them, it only
+	 * postpones the commands to the following steps. The steps themselves are computed without it:
+	 * positions and forces should be read from getSnapshot().
+	 *
+	 * @return the scene lock.
+	 */
+	public Lock getSceneLock(){
+		return m_sceneLock;
+	}
+
+	/**
+	 * Get a copy of the scene taken between two steps (positions and forces of the masses, ends of the
+	 * interactions...), to display it from another thread than the simulation. Neither thread ever
+	 * waits for the other: the simulation fills a copy at the end of the steps following a call, so
+	 * each call returns the latest copy filled (the one of the previous call if the simulation has not
+	 * computed steps since). If the simulation is computed by the calling thread (or has not been
+	 * computed yet), the copy is taken at once.
+	 *
+	 * The copy belongs to the caller until its next call. A single thread should read the copies.
+	 *
+	 * @return the copy of the scene.
+	 */
+	public SceneSnapshot getSnapshot(){
+		Thread stepThread = m_stepThread;
+		if(stepThread == null || stepThread == Thread.currentThread()) {
+			m_snapshotFront.fill(m_topLevelModel, m_colEng);
+			return m_snapshotFront;
+		}
+		m_snapshotWanted = true;
+		if(m_snapshotReady.get().m_fresh) {
+			m_snapshotFront.m_fresh = false;
+			m_snapshotFront = m_snapshotReady.getAndSet(m_snapshotFront);
+		}
+		return m_snapshotFront;
+	}
+
 
 	public Medium getGlobalMedium(){
 		return this.m_medium;
@@ -254,6 +397,8 @@ public class PhysicsContext {
 	 * Initialise the physical model once all the modules have been created.
 	 */
 	public void init() {
+		if(m_kernel != null)
+			m_kernel.release();
 		m_topLevelModel.init();
 		System.out.println("Initialisation of the physical model: ");
 		System.out.println("Nb of Mats in model: " + m_topLevelModel.numberOfMassTypes());
@@ -261,6 +406,202 @@ public class PhysicsContext {
 		System.out.println("Finished model init.\n");
 	}
 
+	/**
+	 * Compile the physical model: all masses and interactions are flattened into primitive arrays,
+	 * and the following simulation steps run over these arrays rather than through the model hierarchy.
+	 * Should be called once the model creation is finished and the init() method has been called.
+	 * The modules remain accessible as usual, and the model is recompiled automatically
+	 * if its topology changes.
+	 *
+	 * @return 0 if success, -1 if the model could not be compiled.
+	 */
+	public int compile() {
+		synchronized (m_lock) {
+			if(m_kernel != null)
+				m_kernel.release();
+			m_kernel = CompiledModel.compile(m_topLevelModel, m_single);
+			m_compiled = (m_kernel != null);
+			if(m_compiled) {
+				configureKernel();
+				System.out.println("Compiled model: " + m_kernel.getNumberOfMasses() + " masses, "
+						+ m_kernel.getNumberOfInteractions() + " interactions ("
+						+ m_kernel.getNumberOfObjectModules() + " computed as objects).");
+			}
+			return m_compiled ? 0 : -1;
+		}
+	}
+
+	private void configureKernel() {
+		m_kernel.setWorkers(m_workers);
+		m_kernel.setSleeping(m_sleepThreshold, m_sleepSteps);
+	}
+
+	/**
+	 * Stop using the compiled model: steps are computed through the model hierarchy again.
+	 */
+	public void decompile() {
+		synchronized (m_lock) {
+			if(m_kernel != null)
+				m_kernel.release();
+			m_kernel = null;
+			m_compiled = false;
+		}
+	}
+
+	/**
+	 * Check if the simulation runs on a compiled model.
+	 * @return true if compiled.
+	 */
+	public boolean isCompiled() {
+		return m_compiled;
+	}
+
+	/**
+	 * Compute the simulation in single precision rather than double precision (the model is compiled
+	 * if needed): positions, forces and interaction parameters are stored as floats. This halves the
+	 * memory traffic of large models, and is meant for models simulated at visual rates (a few hundred
+	 * Hz), where rounding errors stay well below what can be seen. Audio-rate models should keep double
+	 * precision: their per-step displacements can be smaller than the float resolution of positions.
+	 *
+	 * @param single true for single precision, false for double precision.
+	 * @return 0 if success, -1 if the model could not be compiled.
+	 */
+	public int setSinglePrecision(boolean single) {
+		synchronized (m_lock) {
+			if(single == m_single && (m_compiled || !single))
+				return 0;
+			m_single = single;
+			if(m_compiled || single)
+				return compile();
+			return 0;
+		}
+	}
+
+	/**
+	 * Check if the state of the masses is stored in single precision.
+	 * @return true in single precision mode.
+	 */
+	public boolean isSinglePrecision() {
+		return m_single;
+	}
+
+	/**
+	 * Set the number of threads used to compute the simulation. With more than one thread, the model
+	 * is compiled and the mass phase is split into chunks. The sub-models (and colliders) that share no
+	 * mass are computed concurrently, and the interactions of large models are computed in colours
+	 * (groups of interactions that share no mass) distributed over the threads.
+	 *
+	 * Parallel results do not depend on the number of threads. Small models give the same results as
+	 * the serial computation, but in large models the forces applied to a mass are summed in colour
+	 * order: the two then differ by floating point rounding errors, which accumulate over time
+	 * (typically 1e-8 relative after a few thousand steps). Models whose interactions or InOut modules
+	 * are connected to masses of a following sibling model are always computed serially.
+	 *
+	 * @param nbThreads the number of threads (1 for serial computation).
+	 * @return 0 if success, -1 if the model could not be compiled.
+	 */
+	public int setNumberOfThreads(int nbThreads) {
+		return setNumberOfThreads(nbThreads, false);
+	}
+
+	/**
+	 * Set the number of threads used to compute the simulation (see setNumberOfThreads(int)).
+	 * In low latency mode, the worker threads busy-wait for work instead of sleeping between the phases
+	 * of a step, so that even small models stepped at audio rate can be split between cores. They only
+	 * go to sleep when the simulation is idle (between audio buffers), but keep their cores busy while
+	 * it runs: use at most one thread per available core.
+	 *
+	 * @param nbThreads the number of threads (1 for serial computation).
+	 * @param lowLatency true to use busy-waiting worker threads.
+	 * @return 0 if success, -1 if the model could not be compiled.
+	 */
+	public int setNumberOfThreads(int nbThreads, boolean lowLatency) {
+		synchronized (m_lock) {
+			if(m_workers != null) {
+				m_workers.shutdown();
+				m_workers = null;
+			}
+			if(nbThreads > 1)
+				m_workers = lowLatency ? new SpinWorkerPool(nbThreads) : new BlockingWorkerPool(nbThreads);
+			if(m_kernel != null)
+				m_kernel.setWorkers(m_workers);
+			if(m_workers != null && !m_compiled)
+				return compile();
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the number of threads used to compute the simulation.
+	 * @return the number of threads.
+	 */
+	public int getNumberOfThreads() {
+		return m_workers == null ? 1 : m_workers.getNumberOfWorkers();
+	}
+
+	/**
+	 * Let the parts of the model that are at rest go to sleep (the model is compiled if needed).
+	 * The model is divided into islands: groups of masses connected together by interactions, fixed
+	 * points and position inputs excepted. When the highest kinetic energy of the masses of an island
+	 * stays below a threshold for a number of steps, the island is no longer computed. It wakes up as
+	 * soon as a force is applied to one of its masses (drivers, collisions...), one of its masses is
+	 * moved, a fixed point or position input it is connected to moves, or one of its parameters (or
+	 * the medium) changes. Islands containing oscillators, haptic inputs or user-defined masses never
+	 * sleep. Sleeping is only used in single thread computation, and not in models whose interactions or
+	 * InOut modules are connected to masses of a following sibling model.
+	 *
+	 * @param energyThreshold kinetic energy threshold, in simulation units.
+	 * @param nbSteps number of steps an island must stay below the threshold before going to sleep.
+	 * @return 0 if success, -1 if the model could not be compiled.
+	 */
+	public int enableSleeping(double energyThreshold, int nbSteps) {
+		synchronized (m_lock) {
+			if(energyThreshold < 0) {
+				System.out.println("Sleeping threshold must be positive.");
+				return -1;
+			}
+			m_sleepThreshold = energyThreshold;
+			m_sleepSteps = nbSteps;
+			if(!m_compiled)
+				return compile();
+			m_kernel.setSleeping(m_sleepThreshold, m_sleepSteps);
+			return 0;
+		}
+	}
+
+	/**
+	 * Compute all parts of the model at every step again.
+	 */
+	public void disableSleeping() {
+		synchronized (m_lock) {
+			m_sleepThreshold = -1;
+			if(m_kernel != null)
+				m_kernel.setSleeping(-1, 0);
+		}
+	}
+
+	/**
+	 * Get the number of sleeping islands (see enableSleeping()).
+	 * @return the number of sleeping islands.
+	 */
+	public int getNumberOfSleepingIslands() {
+		synchronized (m_lock) {
+			return m_kernel == null ? 0 : m_kernel.getNumberOfSleepingIslands();
+		}
+	}
+
+	/**
+	 * Get the number of awake islands (see enableSleeping()).
+	 * @return the number of awake islands.
+	 */
+	public int getNumberOfAwakeIslands() {
+		synchronized (m_lock) {
+			if(m_kernel == null)
+				return 0;
+			return m_kernel.getNumberOfIslands() - m_kernel.getNumberOfSleepingIslands();
+		}
+	}
+
 	public void addParamController(String name,String subsetName,String paramName,float rampTime)
 	{
 		param_controllers.put(name,new ParamController(this,rampTime,subsetName,paramName));
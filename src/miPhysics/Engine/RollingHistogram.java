@@ -0,0 +1,142 @@
+package miPhysics.Engine;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of the last values of a quantity (a value per step), for monitoring: the values are
+ * counted in power-of-two bins, and the oldest value leaves the histogram when a new one is added
+ * once the window is full.
+ *
+ * Bin 0 counts the values of 0 (or less), and bin b > 0 the values from 2^(b-1) to 2^b - 1.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class RollingHistogram {
+
+    private static final int NB_BINS = 64;
+
+    private final long[] m_values;
+    private final int[] m_counts = new int[NB_BINS];
+    private int m_next = 0;
+    private int m_nb = 0;
+    private long m_sum = 0;
+
+    /**
+     * Create a histogram.
+     * @param window the number of values kept.
+     */
+    public RollingHistogram(int window){
+        m_values = new long[Math.max(1, window)];
+    }
+
+    /**
+     * Add a value (the oldest one is dropped if the window is full).
+     * @param value the value.
+     */
+    public void add(long value){
+        if(m_nb == m_values.length){
+            long old = m_values[m_next];
+            m_counts[bin(old)]--;
+            m_sum -= old;
+        }
+        else
+            m_nb++;
+        m_values[m_next] = value;
+        m_counts[bin(value)]++;
+        m_sum += value;
+        m_next = (m_next + 1) % m_values.length;
+    }
+
+    /**
+     * Forget all values.
+     */
+    public void clear(){
+        Arrays.fill(m_counts, 0);
+        m_next = 0;
+        m_nb = 0;
+        m_sum = 0;
+    }
+
+    public int getWindow(){
+        return m_values.length;
+    }
+
+    public int getNumberOfValues(){
+        return m_nb;
+    }
+
+    public int getNumberOfBins(){
+        return NB_BINS;
+    }
+
+    /**
+     * Get the number of values in a bin.
+     * @param bin the bin.
+     * @return the number of values.
+     */
+    public int getCount(int bin){
+        return m_counts[bin];
+    }
+
+    /**
+     * Get the lowest value of a bin.
+     * @param bin the bin.
+     * @return the lowest value.
+     */
+    public static long getBinStart(int bin){
+        return bin == 0 ? 0 : 1L << (bin - 1);
+    }
+
+    /**
+     * Get the last value added.
+     * @return the value (0 if there is none).
+     */
+    public long getLast(){
+        return m_nb == 0 ? 0 : m_values[(m_next + m_values.length - 1) % m_values.length];
+    }
+
+    public double getMean(){
+        return m_nb == 0 ? 0 : (double)m_sum / m_nb;
+    }
+
+    public long getMax(){
+        long max = 0;
+        for(int i = 0; i < m_nb; i++)
+            max = Math.max(max, m_values[i]);
+        return max;
+    }
+
+    /**
+     * Get an upper bound of a percentile of the values (the end of the bin it falls in).
+     * @param p the percentile (between 0 and 100).
+     * @return the upper bound.
+     */
+    public long getPercentile(double p){
+        long rank = (long)Math.ceil(p / 100. * m_nb);
+        long seen = 0;
+        for(int b = 0; b < NB_BINS; b++){
+            seen += m_counts[b];
+            if(seen >= rank && seen > 0)
+                return b == 0 ? 0 : (1L << b) - 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Get a one-line summary of the values (for logs).
+     * @return the summary.
+     */
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("mean %.1f, p50 <= %d, p99 <= %d, max %d |", getMean(), getPercentile(50), getPercentile(99), getMax()));
+        for(int b = 0; b < NB_BINS; b++)
+            if(m_counts[b] > 0)
+                sb.append(' ').append(getBinStart(b)).append(':').append(m_counts[b]);
+        return sb.toString();
+    }
+
+    private static int bin(long value){
+        return value <= 0 ? 0 : NB_BINS - Long.numberOfLeadingZeros(value);
+    }
+}
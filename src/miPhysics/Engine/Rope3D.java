@@ -14,7 +14,7 @@ package miPhysics.Engine;
 
 public class Rope3D extends Interaction {
 
-    private boolean prev_state = false;
+    boolean prev_state = false;
 
 
     public Rope3D(double distance, double K_param, double Z_param) {
@@ -44,13 +44,13 @@ public class Rope3D extends Interaction {
         switch(p){
             case STIFFNESS:
                 this.m_K = val;
-                return 0;
+                return paramChanged();
             case DAMPING:
                 this.m_Z = val;
-                return 0;
+                return paramChanged();
             case DISTANCE:
                 this.changeDRest(val);
-                return 0;
+                return paramChanged();
             default:
                 System.out.println("Cannot apply param " + val + " for "
                         + this + ": no " + p + " parameter");
@@ -0,0 +1,322 @@
+package miPhysics.Engine;
+
+import miPhysics.Utility.SpacePrint;
+
+import java.util.ArrayList;
+
+/**
+ * Copy of the state of a physics context for the threads that display it (see
+ * PhysicsContext.getSnapshot()): positions, forces and radii of the masses, ends and elongations
+ * of the interactions, intersection volumes of the colliders, all taken between two steps.
+ *
+ * A snapshot is filled by the thread that computes the steps, and read by one other thread at a
+ * time: it only reads the modules (their type and name), and never changes them. Modules are in
+ * the order of the model hierarchy: the masses and interactions of a model, then the ones of each
+ * of its sub-models.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public final class SceneSnapshot {
+
+    private static final int MASS_DATA = 7;
+    private static final int INTER_DATA = 7;
+
+    /* Modules of the model hierarchy, gathered again when its topology changes */
+    private PhyModel m_root;
+    private int m_version = -1;
+    private Mass[] m_masses = new Mass[0];
+    private Interaction[] m_inters = new Interaction[0];
+    private PhyModel[] m_models = new PhyModel[0];
+    private int m_nbMasses = 0;
+    private int m_nbInters = 0;
+    private int m_nbModels = 0;
+    /* Own masses of model j: m_modelStart[j] to m_modelEnd[j] - 1 */
+    private int[] m_modelStart = new int[0];
+    private int[] m_modelEnd = new int[0];
+
+    /* Position, force and radius of each mass; both ends and elongation of each interaction */
+    private double[] m_massData = new double[0];
+    private double[] m_interData = new double[0];
+
+    /* Intersection volume of each collider, and model (index in m_models) and cell size of each
+     * auto-collider (-1 if its model is not part of the hierarchy) */
+    private SpacePrint[] m_intersects = new SpacePrint[0];
+    private int m_nbColliders = 0;
+    private int[] m_autoModel = new int[0];
+    private double[] m_autoCell = new double[0];
+    private int m_nbAutoColliders = 0;
+
+    private final Vect3D m_tmp = new Vect3D();
+
+    /* Set when filled, cleared when handed back by the reader (see PhysicsContext.getSnapshot()) */
+    boolean m_fresh = false;
+
+    SceneSnapshot(){
+    }
+
+    public int getNumberOfMasses(){
+        return m_nbMasses;
+    }
+
+    public Mass getMass(int i){
+        return m_masses[i];
+    }
+
+    /**
+     * Get the position of a mass.
+     * @param i index of the mass.
+     * @param v vector receiving the position.
+     */
+    public void readPos(int i, Vect3D v){
+        v.set(m_massData[MASS_DATA * i], m_massData[MASS_DATA * i + 1], m_massData[MASS_DATA * i + 2]);
+    }
+
+    /**
+     * Get the force applied to a mass at the last step.
+     * @param i index of the mass.
+     * @param v vector receiving the force.
+     */
+    public void readFrc(int i, Vect3D v){
+        v.set(m_massData[MASS_DATA * i + 3], m_massData[MASS_DATA * i + 4], m_massData[MASS_DATA * i + 5]);
+    }
+
+    public double getRadius(int i){
+        return m_massData[MASS_DATA * i + 6];
+    }
+
+    public int getNumberOfInteractions(){
+        return m_nbInters;
+    }
+
+    public Interaction getInteraction(int i){
+        return m_inters[i];
+    }
+
+    /**
+     * Get the position of the first mass of an interaction.
+     * @param i index of the interaction.
+     * @param v vector receiving the position.
+     */
+    public void readEnd1(int i, Vect3D v){
+        v.set(m_interData[INTER_DATA * i], m_interData[INTER_DATA * i + 1], m_interData[INTER_DATA * i + 2]);
+    }
+
+    /**
+     * Get the position of the second mass of an interaction (the first one if it has none).
+     * @param i index of the interaction.
+     * @param v vector receiving the position.
+     */
+    public void readEnd2(int i, Vect3D v){
+        v.set(m_interData[INTER_DATA * i + 3], m_interData[INTER_DATA * i + 4], m_interData[INTER_DATA * i + 5]);
+    }
+
+    /**
+     * Get the elongation of an interaction, relative to its resting distance (the distance along Z
+     * for 1D interactions, 0 for contacts).
+     * @param i index of the interaction.
+     * @return the elongation.
+     */
+    public double getElongation(int i){
+        return m_interData[INTER_DATA * i + 6];
+    }
+
+    /**
+     * Get the number of models: the top-level model (index 0) and all of its sub-models.
+     * @return the number of models.
+     */
+    public int getNumberOfModels(){
+        return m_nbModels;
+    }
+
+    public PhyModel getModel(int j){
+        return m_models[j];
+    }
+
+    /**
+     * Get the volume of the own masses of a model (excluding its sub-models).
+     * @param j index of the model.
+     * @param sp space print receiving the volume (invalid if the model has no mass).
+     */
+    public void readModelBounds(int j, SpacePrint sp){
+        sp.reset();
+        for(int i = m_modelStart[j]; i < m_modelEnd[j]; i++)
+            sp.update(m_massData[MASS_DATA * i], m_massData[MASS_DATA * i + 1], m_massData[MASS_DATA * i + 2],
+                    m_massData[MASS_DATA * i + 6]);
+    }
+
+    public int getNumberOfMassColliders(){
+        return m_nbColliders;
+    }
+
+    /**
+     * Get the volume in which a collider looks for contacts (intersection of its two models).
+     * @param i index of the collider (in CollisionEngine.getMassColliders()).
+     * @param sp space print receiving the volume.
+     */
+    public void readColliderBounds(int i, SpacePrint sp){
+        sp.set(m_intersects[i]);
+    }
+
+    public int getNumberOfAutoColliders(){
+        return m_nbAutoColliders;
+    }
+
+    /**
+     * Get the cells of an auto-collider holding masses.
+     * @param i index of the auto-collider (in CollisionEngine.getAutoColliders()).
+     * @return a space print per cell.
+     */
+    public ArrayList<SpacePrint> getCellPrints(int i){
+        ArrayList<SpacePrint> spa = new ArrayList<>();
+        int j = m_autoModel[i];
+        double size = m_autoCell[i];
+        if(j < 0 || !(size > 0))
+            return spa;
+        LongHashSet cells = new LongHashSet();
+        for(int m = m_modelStart[j]; m < m_modelEnd[j]; m++){
+            double x = m_massData[MASS_DATA * m], y = m_massData[MASS_DATA * m + 1], z = m_massData[MASS_DATA * m + 2];
+            double r = m_massData[MASS_DATA * m + 6];
+            for(long a = cell(x - r, size); a <= cell(x + r, size); a++)
+                for(long b = cell(y - r, size); b <= cell(y + r, size); b++)
+                    for(long c = cell(z - r, size); c <= cell(z + r, size); c++)
+                        if(cells.add((a & 0x1FFFFF) << 42 | (b & 0x1FFFFF) << 21 | (c & 0x1FFFFF))){
+                            SpacePrint tmp = new SpacePrint();
+                            tmp.set(a * size, (a + 1) * size, b * size, (b + 1) * size, c * size, (c + 1) * size);
+                            spa.add(tmp);
+                        }
+        }
+        return spa;
+    }
+
+    private static long cell(double v, double size){
+        return (long)Math.floor(v / size);
+    }
+
+    /**
+     * Copy the state of a model and of its colliders (by the thread computing the steps, or while no
+     * step is computed). Only allocates when the topology of the model has changed.
+     * @param root the top-level model.
+     * @param col the collision engine.
+     */
+    void fill(PhyModel root, CollisionEngine col){
+        if(root != m_root || root.getTopologyVersion() != m_version){
+            gather(root);
+            m_root = root;
+            m_version = root.getTopologyVersion();
+        }
+
+        for(int i = 0; i < m_nbMasses; i++){
+            Mass m = m_masses[i];
+            int d = MASS_DATA * i;
+            // Read without going through the accessors, which refresh the buffers of the mass.
+            CompiledModel k = m.m_kernel;
+            if(k != null)
+                k.readPos(m.m_kernelIdx, m_tmp);
+            else
+                m_tmp.set(m.m_pos);
+            m_massData[d] = m_tmp.x;
+            m_massData[d + 1] = m_tmp.y;
+            m_massData[d + 2] = m_tmp.z;
+            if(k != null)
+                k.readFrc(m.m_kernelIdx, m_tmp);
+            else
+                m_tmp.set(m.m_frc);
+            m_massData[d + 3] = m_tmp.x;
+            m_massData[d + 4] = m_tmp.y;
+            m_massData[d + 5] = m_tmp.z;
+            m_massData[d + 6] = m.m_size;
+        }
+
+        for(int i = 0; i < m_nbInters; i++){
+            Interaction inter = m_inters[i];
+            Mass m1 = inter.getMat1();
+            Mass m2 = inter.getMat2() != null ? inter.getMat2() : m1;
+            int d = INTER_DATA * i;
+            readPos(m1, d);
+            readPos(m2, d + 3);
+            double dx = m_interData[d] - m_interData[d + 3];
+            double dy = m_interData[d + 1] - m_interData[d + 4];
+            double dz = m_interData[d + 2] - m_interData[d + 5];
+            interType t = inter.getType();
+            if(t == interType.SPRINGDAMPER1D)
+                m_interData[d + 6] = dz;
+            else if(t == interType.CONTACT3D || t == interType.PLANECONTACT3D)
+                m_interData[d + 6] = 0;
+            else
+                m_interData[d + 6] = (Math.sqrt(dx * dx + dy * dy + dz * dz) - inter.m_dRest) / inter.m_dRest;
+        }
+
+        ArrayList<MassCollider> colliders = col.getMassColliders();
+        m_nbColliders = colliders.size();
+        if(m_intersects.length < m_nbColliders){
+            SpacePrint[] prints = new SpacePrint[m_nbColliders];
+            for(int i = 0; i < prints.length; i++)
+                prints[i] = i < m_intersects.length ? m_intersects[i] : new SpacePrint();
+            m_intersects = prints;
+        }
+        for(int i = 0; i < m_nbColliders; i++)
+            m_intersects[i].set(colliders.get(i).getSpacePrint());
+
+        ArrayList<AutoCollider> autos = col.getAutoColliders();
+        m_nbAutoColliders = autos.size();
+        if(m_autoModel.length < m_nbAutoColliders){
+            m_autoModel = new int[m_nbAutoColliders];
+            m_autoCell = new double[m_nbAutoColliders];
+        }
+        for(int i = 0; i < m_nbAutoColliders; i++){
+            AutoCollider ac = autos.get(i);
+            m_autoModel[i] = -1;
+            for(int j = 0; j < m_nbModels; j++)
+                if(m_models[j] == ac.getFirstModel())
+                    m_autoModel[i] = j;
+            m_autoCell[i] = ac.getCellSize();
+        }
+    }
+
+    // Position of a mass (interaction data from index d).
+    private void readPos(Mass m, int d){
+        CompiledModel k = m.m_kernel;
+        if(k != null)
+            k.readPos(m.m_kernelIdx, m_tmp);
+        else
+            m_tmp.set(m.m_pos);
+        m_interData[d] = m_tmp.x;
+        m_interData[d + 1] = m_tmp.y;
+        m_interData[d + 2] = m_tmp.z;
+    }
+
+    private void gather(PhyModel root){
+        ArrayList<Mass> masses = new ArrayList<>();
+        ArrayList<Interaction> inters = new ArrayList<>();
+        ArrayList<PhyModel> models = new ArrayList<>();
+        ArrayList<Integer> ranges = new ArrayList<>();
+        gather(root, masses, inters, models, ranges);
+
+        m_nbMasses = masses.size();
+        m_nbInters = inters.size();
+        m_nbModels = models.size();
+        m_masses = masses.toArray(new Mass[0]);
+        m_inters = inters.toArray(new Interaction[0]);
+        m_models = models.toArray(new PhyModel[0]);
+        m_modelStart = new int[m_nbModels];
+        m_modelEnd = new int[m_nbModels];
+        for(int j = 0; j < m_nbModels; j++){
+            m_modelStart[j] = ranges.get(2 * j);
+            m_modelEnd[j] = ranges.get(2 * j + 1);
+        }
+        m_massData = new double[MASS_DATA * m_nbMasses];
+        m_interData = new double[INTER_DATA * m_nbInters];
+    }
+
+    private static void gather(PhyModel mdl, ArrayList<Mass> masses, ArrayList<Interaction> inters,
+                               ArrayList<PhyModel> models, ArrayList<Integer> ranges){
+        models.add(mdl);
+        ranges.add(masses.size());
+        masses.addAll(mdl.getMassList());
+        ranges.add(masses.size());
+        inters.addAll(mdl.getInteractionList());
+        for(PhyModel pm : mdl.getSubModels())
+            gather(pm, masses, inters, models, ranges);
+    }
+}
@@ -45,6 +45,10 @@ public class miPhyAudioClient implements  AudioClient{
 
     private Thread runner;
 
+    /* Observers of the model, refreshed only when the model topology changes */
+    private ArrayList<Observer3D> m_observers;
+    private int m_observersVersion;
+
     /**
      * Set up an audio client for Jack. Creates the audio thread.
      * @param sampleRate sample rate of the simulation
@@ -89,17 +93,22 @@ public class miPhyAudioClient implements  AudioClient{
 
     public miPhyAudioClient(float sampleRate, int inputChannelCount, int outputChannelCount, PhysicsContext c, int bufferSize, String serverType) throws Exception
     {
-        AudioServerProvider provider = null;
-        for (AudioServerProvider p : ServiceLoader.load(AudioServerProvider.class)) {
-            if (serverType.equals(p.getLibraryName())) {
-                provider = p;
-                break;
-            }
-        }
-        if (provider == null) {
-            throw new NullPointerException("No AudioServer found that matches : " + serverType);
-        }
+        this(sampleRate, inputChannelCount, outputChannelCount, c, bufferSize, findProvider(serverType));
+    }
 
+    /**
+     * Set up an audio client on a given audio server provider (for instance a provider that is not
+     * registered as a service). Creates the audio thread.
+     * @param sampleRate sample rate of the simulation
+     * @param inputChannelCount the number of input channels
+     * @param outputChannelCount the number of output channels
+     * @param c the physics context.
+     * @param bufferSize the buffer size
+     * @param provider the audio server provider.
+     * @throws Exception if the server cannot be created.
+     */
+    public miPhyAudioClient(float sampleRate, int inputChannelCount, int outputChannelCount, PhysicsContext c, int bufferSize, AudioServerProvider provider) throws Exception
+    {
         AudioConfiguration config = new AudioConfiguration(
                 sampleRate, //sample rate
                 inputChannelCount, // input channels
@@ -139,6 +148,14 @@ public class miPhyAudioClient implements  AudioClient{
         runner.setPriority(Thread.MAX_PRIORITY);
     }
 
+    private static AudioServerProvider findProvider(String serverType){
+        for (AudioServerProvider p : ServiceLoader.load(AudioServerProvider.class)) {
+            if (serverType.equals(p.getLibraryName()))
+                return p;
+        }
+        throw new NullPointerException("No AudioServer found that matches : " + serverType);
+    }
+
     public void configure(AudioConfiguration context) throws Exception {
         /* Check the configuration of the passed in context, and set up any
          * necessary resources. Throw an Exception if the sample rate, buffer
@@ -165,11 +182,22 @@ public class miPhyAudioClient implements  AudioClient{
         m_gain = g;
     }
 
+    /**
+     * Compute the physical model on several threads inside the audio callback, with low latency
+     * (busy-waiting) worker threads.
+     * @param nbThreads number of threads, including the audio thread (1 for serial computation).
+     * @return 0 if success, -1 if the model could not be compiled.
+     */
+    public int setNumberOfThreads(int nbThreads){
+        return phys.setNumberOfThreads(nbThreads, true);
+    }
+
 
     public boolean process(long time, List<FloatBuffer> inputs, List<FloatBuffer> outputs, int nframes) {
         if(!exit) {
-            for (float[] bf : buffers) {
-                if (bf == null || bf.length != nframes) bf = new float[nframes];
+            for (int c = 0; c < buffers.size(); c++) {
+                float[] bf = buffers.get(c);
+                if (bf == null || bf.length != nframes) buffers.set(c, new float[nframes]);
             }
             // always use nframes as the number of samples to process
             //System.out.println("input=" + inputs.get(0).get(0));
@@ -189,10 +217,11 @@ public class miPhyAudioClient implements  AudioClient{
 
 
                 // This stuff could surely be a bit cleaner / efficient, this is a start...
-                ArrayList<Observer3D> obs = phys.mdl().getObservers();
+                ArrayList<Observer3D> obs = observers();
                 Observer3D tmp;
 
-                for (float[] buff : buffers) {
+                for (int c = 0; c < buffers.size(); c++) {
+                    float[] buff = buffers.get(c);
 
                     if (currentChannel < obs.size()) {
                         if (obs.get(currentChannel) != null) {
@@ -238,8 +267,7 @@ public class miPhyAudioClient implements  AudioClient{
                     currentChannel++;
                 }
             }
-            int currentChannel = 0;
-            for (FloatBuffer buff : outputs) buff.put(buffers.get(currentChannel++));
+            for (int c = 0; c < outputs.size(); c++) outputs.get(c).put(buffers.get(c));
             return true;
         }
         else{
@@ -249,6 +277,16 @@ public class miPhyAudioClient implements  AudioClient{
 
     }
 
+    // The observer list is only rebuilt (allocated) when modules are added to or removed from the model.
+    private ArrayList<Observer3D> observers(){
+        PhyModel mdl = phys.mdl();
+        if(m_observers == null || m_observersVersion != mdl.getTopologyVersion()) {
+            m_observers = mdl.getObservers();
+            m_observersVersion = mdl.getTopologyVersion();
+        }
+        return m_observers;
+    }
+
     public void shutdown() {
         //dispose resources.
         exit = true;
@@ -0,0 +1,120 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over a list of masses, stored as a spatial hash, used to find the masses that may be
+ * touching a given position without testing every mass of the list.
+ *
+ * The cells are twice as large as the largest contact distance, so the masses touching a position
+ * are always within the 2x2x2 cells closest to it. Cells are hashed into a table of buckets sized
+ * from the number of masses, so the grid covers any extent without allocating per cell.
+ *
+ * The hash is rebuilt at each step it is used: building it is a single pass over the masses, and
+ * the buffers are kept from one step to the next. Once built, it can be queried by several threads,
+ * each with its own Found list.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class SpatialHash {
+
+    /* First mass of each bucket and next mass in the same bucket (-1 at the end of a bucket) */
+    private int[] m_head = new int[16];
+    private int[] m_next = new int[16];
+    private int m_mask;
+    private double m_invCell;
+    private int m_nbOccupied = 0;
+
+    /**
+     * Masses found by a query.
+     */
+    static final class Found {
+        /* Positions of the masses in the list given to build() */
+        int[] m_masses = new int[32];
+        int m_nb = 0;
+    }
+
+    /**
+     * Fill the hash with the masses of a list.
+     * @param masses the masses (found by their position in the list).
+     * @param contactDist the largest distance at which two masses touch (strictly positive).
+     */
+    void build(ArrayList<Mass> masses, double contactDist){
+        int n = masses.size();
+        int nbBuckets = 16;
+        while(nbBuckets < 2 * n)
+            nbBuckets <<= 1;
+        if(m_head.length < nbBuckets)
+            m_head = new int[nbBuckets];
+        if(m_next.length < n)
+            m_next = new int[Math.max(n, 2 * m_next.length)];
+        Arrays.fill(m_head, 0, nbBuckets, -1);
+        m_mask = nbBuckets - 1;
+        // (slightly more than twice the contact distance, against rounding at the cell borders)
+        m_invCell = 1. / (2.001 * contactDist);
+
+        // Inserted from the end, so that each bucket lists its masses in increasing order.
+        m_nbOccupied = 0;
+        for(int j = n - 1; j >= 0; j--){
+            Vect3D p = masses.get(j).m_pos;
+            int b = bucket(cell(p.x), cell(p.y), cell(p.z));
+            if(m_head[b] < 0)
+                m_nbOccupied++;
+            m_next[j] = m_head[b];
+            m_head[b] = j;
+        }
+    }
+
+    /**
+     * Find the masses that may be touching a position: the masses of the 2x2x2 cells closest to it.
+     * @param p the position.
+     * @param out the list receiving the masses, listed once each and in increasing order.
+     */
+    void query(Vect3D p, Found out){
+        // Lower cell of the pair of cells closest to the position, on each axis.
+        long cx = cell(p.x - 0.5 / m_invCell);
+        long cy = cell(p.y - 0.5 / m_invCell);
+        long cz = cell(p.z - 0.5 / m_invCell);
+        int[] found = out.m_masses;
+        int nb = 0;
+        for(long x = cx; x <= cx + 1; x++){
+            for(long y = cy; y <= cy + 1; y++){
+                for(long z = cz; z <= cz + 1; z++){
+                    for(int j = m_head[bucket(x, y, z)]; j >= 0; j = m_next[j]){
+                        if(nb == found.length)
+                            found = out.m_masses = Arrays.copyOf(found, 2 * nb);
+                        found[nb++] = j;
+                    }
+                }
+            }
+        }
+        out.m_nb = nb;
+        if(nb < 2)
+            return;
+        // Several cells can share a bucket: sort, then drop the repeated masses.
+        Arrays.sort(found, 0, nb);
+        int k = 1;
+        for(int i = 1; i < nb; i++)
+            if(found[i] != found[k - 1])
+                found[k++] = found[i];
+        out.m_nb = k;
+    }
+
+    /**
+     * Get the number of occupied buckets (about the number of occupied cells).
+     * @return number of buckets.
+     */
+    int getNumberOfOccupiedBuckets(){
+        return m_nbOccupied;
+    }
+
+    private long cell(double v){
+        return (long)Math.floor(v * m_invCell);
+    }
+
+    private int bucket(long x, long y, long z){
+        return (int)(x * 73856093L ^ y * 19349663L ^ z * 83492791L) & m_mask;
+    }
+}
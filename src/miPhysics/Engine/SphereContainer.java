@@ -0,0 +1,81 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+
+/**
+ * Sphere container: a spherical wall keeping masses inside a sphere.
+ * Same force as a Bubble3D interaction between a fixed mass at the center and each mass, with a
+ * radius reduced by the radius of the mass.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class SphereContainer extends Container {
+
+    private Vect3D m_center = new Vect3D();
+    private double m_radius;
+
+    /**
+     * Create a sphere container for all the masses of a physical model.
+     * @param mdl the physical model.
+     * @param center center of the sphere.
+     * @param radius radius of the sphere.
+     * @param K_param stiffness of the wall.
+     * @param Z_param damping of the wall.
+     */
+    public SphereContainer(PhyModel mdl, Vect3D center, double radius, double K_param, double Z_param){
+        super(mdl, K_param, Z_param);
+        setSphere(center, radius);
+    }
+
+    /**
+     * Create a sphere container for a set of masses.
+     * @param masses the masses.
+     * @param center center of the sphere.
+     * @param radius radius of the sphere.
+     * @param K_param stiffness of the wall.
+     * @param Z_param damping of the wall.
+     */
+    public SphereContainer(ArrayList<Mass> masses, Vect3D center, double radius, double K_param, double Z_param){
+        super(masses, K_param, Z_param);
+        setSphere(center, radius);
+    }
+
+    /**
+     * Move or resize the wall.
+     * @param center center of the sphere.
+     * @param radius radius of the sphere.
+     */
+    public void setSphere(Vect3D center, double radius){
+        m_center.set(center);
+        m_radius = radius;
+    }
+
+    public Vect3D getCenter(){
+        return new Vect3D(m_center);
+    }
+    public double getRadius(){
+        return m_radius;
+    }
+
+    void apply(ArrayList<Mass> masses){
+        double cx = m_center.x, cy = m_center.y, cz = m_center.z;
+        for(int i = 0; i < masses.size(); i++){
+            Mass m = masses.get(i);
+            Vect3D pos = m.m_pos;
+            double dx = pos.x - cx, dy = pos.y - cy, dz = pos.z - cz;
+            double inner = m_radius - m.m_size;
+            double distSquared = dx * dx + dy * dy + dz * dz;
+            if(inner > 0 && distSquared > inner * inner){
+                Vect3D posR = m.m_posR;
+                double dist = Math.sqrt(distSquared);
+                double rx = posR.x - cx, ry = posR.y - cy, rz = posR.z - cz;
+                double prevDist = Math.sqrt(rx * rx + ry * ry + rz * rz);
+                double lnkFrc = (-(dist - inner) * m_K - (dist - prevDist) * m_Z) / dist;
+                m.m_frc.x += lnkFrc * dx;
+                m.m_frc.y += lnkFrc * dy;
+                m.m_frc.z += lnkFrc * dz;
+            }
+        }
+    }
+}
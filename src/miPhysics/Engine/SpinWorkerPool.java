@@ -0,0 +1,131 @@
+package miPhysics.Engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Low latency worker pool, for parallel computation at audio rate.
+ *
+ * The workers are persistent high priority threads that busy-wait for the next task, so that handing
+ * a phase of the step over to them costs a few memory accesses rather than a thread wake-up. When no
+ * task comes for a while (between two audio buffers for instance), they first yield their core, then
+ * park until the next task. The calling thread waits for the end of a task in the same way.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class SpinWorkerPool implements WorkerPool {
+
+    /* Busy-wait iterations before yielding, then before parking */
+    private static final int SPINS = 2000;
+    private static final int YIELDS = 20000;
+
+    private final Thread[] m_threads;
+
+    private volatile WorkerPool.Task m_task;
+    private volatile long m_generation = 0;
+    private volatile boolean m_shutdown = false;
+    private volatile Throwable m_error;
+    private final AtomicInteger m_pending = new AtomicInteger();
+
+    /* Parking state (1 when parked or about to park), for the workers and for the calling thread */
+    private final AtomicIntegerArray m_parked;
+    private volatile Thread m_caller;
+    private volatile boolean m_callerParked = false;
+
+    /**
+     * Create a worker pool.
+     * @param nbWorkers number of workers, including the thread that will call execute().
+     */
+    SpinWorkerPool(int nbWorkers){
+        m_threads = new Thread[Math.max(nbWorkers, 1) - 1];
+        m_parked = new AtomicIntegerArray(m_threads.length);
+        for(int i = 0; i < m_threads.length; i++){
+            final int worker = i + 1;
+            m_threads[i] = new Thread(() -> work(worker), "miPhysics-spin-worker-" + worker);
+            m_threads[i].setDaemon(true);
+            m_threads[i].setPriority(Thread.MAX_PRIORITY);
+            m_threads[i].start();
+        }
+    }
+
+    public int getNumberOfWorkers(){
+        return m_threads.length + 1;
+    }
+
+    public int getMinimumTaskSize(){
+        return 64;
+    }
+
+    public void execute(WorkerPool.Task task){
+        m_caller = Thread.currentThread();
+        m_error = null;
+        m_task = task;
+        m_pending.set(m_threads.length);
+        m_generation++;
+        for(int i = 0; i < m_threads.length; i++)
+            if(m_parked.get(i) != 0)
+                LockSupport.unpark(m_threads[i]);
+
+        Throwable error = null;
+        try {
+            task.run(0, getNumberOfWorkers());
+        } catch (Throwable t) {
+            error = t;
+        }
+
+        int wait = 0;
+        while(m_pending.get() > 0){
+            if(++wait > SPINS + YIELDS){
+                m_callerParked = true;
+                if(m_pending.get() > 0)
+                    LockSupport.park(this);
+                m_callerParked = false;
+            }
+            else if(wait > SPINS)
+                Thread.yield();
+        }
+
+        if(error == null)
+            error = m_error;
+        m_task = null;
+        if(error != null)
+            throw new RuntimeException("Error in parallel computation: " + error, error);
+    }
+
+    public void shutdown(){
+        m_shutdown = true;
+        for(Thread t : m_threads)
+            LockSupport.unpark(t);
+    }
+
+    private void work(int worker){
+        long seen = 0;
+        while(true){
+            int wait = 0;
+            while(m_generation == seen){
+                if(m_shutdown)
+                    return;
+                if(++wait > SPINS + YIELDS){
+                    m_parked.set(worker - 1, 1);
+                    if(m_generation == seen && !m_shutdown)
+                        LockSupport.park(this);
+                    m_parked.set(worker - 1, 0);
+                }
+                else if(wait > SPINS)
+                    Thread.yield();
+            }
+            seen = m_generation;
+
+            try {
+                m_task.run(worker, getNumberOfWorkers());
+            } catch (Throwable t) {
+                m_error = t;
+            }
+
+            if(m_pending.decrementAndGet() == 0 && m_callerParked)
+                LockSupport.unpark(m_caller);
+        }
+    }
+}
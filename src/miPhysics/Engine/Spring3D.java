@@ -25,10 +25,10 @@ public class Spring3D extends Interaction {
     switch(p){
       case STIFFNESS:
         this.m_K = val;
-        return 0;
+        return paramChanged();
       case DISTANCE:
         this.changeDRest(val);
-        return 0;
+        return paramChanged();
       default:
         System.out.println("Cannot apply param " + val + " for "
                 + this + ": no " + p + " parameter");
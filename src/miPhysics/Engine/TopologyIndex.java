@@ -0,0 +1,173 @@
+package miPhysics.Engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Index of the topology of a physical model, so that masses can be removed or replaced in a time
+ * proportional to the number of modules connected to them rather than to the size of the model.
+ *
+ * For each mass, the index keeps the interactions of the model that are connected to it. For each
+ * mass and interaction of the model, it keeps its position in the model's list (by handle), so that
+ * a module can be removed by moving the last module of the list into its place.
+ *
+ * The index is built by the model the first time it is needed, then kept up to date by the
+ * additions and removals of the model.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+final class TopologyIndex {
+
+    private static final Interaction[] NONE = new Interaction[0];
+
+    /* Interactions connected to each mass, and position of each module in its list (by handle) */
+    private final IdentityHashMap<Mass, ArrayList<Interaction>> m_connected;
+    private int[] m_position;
+
+    /**
+     * Build the index of a model.
+     * @param masses the masses of the model.
+     * @param inters the interactions of the model.
+     * @param nbHandles the number of handles allocated by the model.
+     */
+    TopologyIndex(ArrayList<Mass> masses, ArrayList<Interaction> inters, int nbHandles){
+        m_connected = new IdentityHashMap<>(masses.size());
+        m_position = new int[Math.max(nbHandles, 16)];
+        for(int i = 0; i < masses.size(); i++)
+            setPosition(masses.get(i), i);
+        for(int i = 0; i < inters.size(); i++)
+            addInteraction(inters.get(i), i);
+    }
+
+    /**
+     * Record the position of a module in its list.
+     * @param m the module (with a handle).
+     * @param pos its position.
+     */
+    void setPosition(Module m, int pos){
+        int h = m.m_handle;
+        if(h < 0)
+            return;
+        if(h >= m_position.length)
+            m_position = Arrays.copyOf(m_position, Math.max(h + 1, m_position.length * 2));
+        m_position[h] = pos;
+    }
+
+    /**
+     * Find the position of a module in its list.
+     * @param list the list of the model holding the module.
+     * @param m the module.
+     * @param <T> type of the module.
+     * @return its position, or -1 if it is not in the list.
+     */
+    <T extends Module> int positionOf(ArrayList<T> list, T m){
+        int h = m.m_handle;
+        if(h >= 0 && h < m_position.length){
+            int pos = m_position[h];
+            if(pos < list.size() && list.get(pos) == m)
+                return pos;
+        }
+        // Module without a handle (or not in this model).
+        return list.indexOf(m);
+    }
+
+    /**
+     * Remove a module from its list, moving the last module of the list into its place.
+     * @param list the list of the model holding the module.
+     * @param m the module.
+     * @param <T> type of the module.
+     * @return true if the module was in the list.
+     */
+    <T extends Module> boolean swapRemove(ArrayList<T> list, T m){
+        int pos = positionOf(list, m);
+        if(pos < 0)
+            return false;
+        T last = list.remove(list.size() - 1);
+        if(last != m){
+            list.set(pos, last);
+            setPosition(last, pos);
+        }
+        return true;
+    }
+
+    /**
+     * Record an interaction added to the model.
+     * @param i the interaction (connected to its masses).
+     * @param pos its position in the list of interactions.
+     */
+    void addInteraction(Interaction i, int pos){
+        setPosition(i, pos);
+        link(i.getMat1(), i);
+        if(i.getMat2() != i.getMat1())
+            link(i.getMat2(), i);
+    }
+
+    /**
+     * Forget an interaction removed from the model.
+     * @param i the interaction.
+     */
+    void removeInteraction(Interaction i){
+        unlink(i.getMat1(), i);
+        if(i.getMat2() != i.getMat1())
+            unlink(i.getMat2(), i);
+    }
+
+    /**
+     * Forget a mass removed from the model.
+     * @param m the mass.
+     */
+    void removeMass(Mass m){
+        m_connected.remove(m);
+    }
+
+    /**
+     * Move the interactions connected to a mass over to the mass replacing it
+     * (the interactions themselves must be rewired by the caller).
+     * @param old the replaced mass.
+     * @param m the replacing mass.
+     */
+    void replaceMass(Mass old, Mass m){
+        ArrayList<Interaction> list = m_connected.remove(old);
+        if(list != null)
+            m_connected.put(m, list);
+    }
+
+    /**
+     * Get the interactions of the model connected to a mass.
+     * @param m the mass.
+     * @return a copy of the list of interactions (can be used while removing them).
+     */
+    Interaction[] connectedTo(Mass m){
+        ArrayList<Interaction> list = m_connected.get(m);
+        return list == null ? NONE : list.toArray(NONE);
+    }
+
+    private void link(Mass m, Interaction i){
+        if(m == null)
+            return;
+        ArrayList<Interaction> list = m_connected.get(m);
+        if(list == null){
+            list = new ArrayList<>(4);
+            m_connected.put(m, list);
+        }
+        list.add(i);
+    }
+
+    private void unlink(Mass m, Interaction i){
+        ArrayList<Interaction> list = m_connected.get(m);
+        if(list == null)
+            return;
+        // Few interactions per mass: a linear search is enough.
+        for(int k = list.size() - 1; k >= 0; k--){
+            if(list.get(k) == i){
+                list.set(k, list.get(list.size() - 1));
+                list.remove(list.size() - 1);
+                break;
+            }
+        }
+        if(list.isEmpty())
+            m_connected.remove(m);
+    }
+}
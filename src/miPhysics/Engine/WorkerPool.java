@@ -0,0 +1,44 @@
+package miPhysics.Engine;
+
+/**
+ * Pool of threads used to compute the phases of a simulation step in parallel.
+ *
+ * The thread calling execute() takes part in the computation as worker 0, and execute() only
+ * returns once every worker has finished: it acts as a barrier between two phases of the step.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+interface WorkerPool {
+
+    /**
+     * A parallel task: each worker computes its own share of the work.
+     */
+    interface Task {
+        void run(int worker, int nbWorkers);
+    }
+
+    /**
+     * Get the number of workers (including the calling thread).
+     * @return number of workers.
+     */
+    int getNumberOfWorkers();
+
+    /**
+     * Get the smallest number of elements (masses or interactions) worth distributing over the workers
+     * in a single task: smaller phases are computed directly by the calling thread.
+     * @return minimum task size.
+     */
+    int getMinimumTaskSize();
+
+    /**
+     * Run a task on all workers and wait for all of them to finish.
+     * @param task the task to run.
+     */
+    void execute(Task task);
+
+    /**
+     * Stop the worker threads.
+     */
+    void shutdown();
+}
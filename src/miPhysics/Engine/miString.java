@@ -2,6 +2,7 @@ package miPhysics.Engine;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.stream.IntStream;
 
 /**
  * A basic integrated string class.
@@ -15,12 +16,26 @@ public class miString extends PhyModel {
     double m_len;
     double m_dist;
 
+    /* Compact naming: names derived from the handles (masses, then interactions, from m_massBase) */
+    private boolean m_namedOnDemand = false;
+    private int m_massBase;
+
     public miString(String name, Medium m, int len, float size, double M, double K, double Z, double dist, double l0){
         this(name, m, len, size, M, K, Z, dist, l0, "3D");
     }
 
 
     public miString(String name, Medium m, int len, float size, double M, double K, double Z, double dist, double l0, String twoD){
+        this(name, m, len, size, M, K, Z, dist, l0, twoD, false);
+    }
+
+    /**
+     * Create a string.
+     * @param compactNaming true to name the masses (m_[i]) and interactions (i_[i]) on demand, from
+     * their index, rather than storing a name for each of them.
+     */
+    public miString(String name, Medium m, int len, float size, double M, double K, double Z, double dist, double l0, String twoD,
+                    boolean compactNaming){
         super(name, m);
         m_len  = len;
         m_size = size;
@@ -29,35 +44,69 @@ public class miString extends PhyModel {
         m_Z = Z;
         m_dist  = dist;
 
-        // Quick hack: a placeholder module to keep the compiler happy.
-        Mass prev = new Ground3D(1, new Vect3D());
-
         System.out.println(this.getName() + ": creating mass elements with naming pattern: "
                 + "m_[i]");
         System.out.println(this.getName() + ": creating mass elements with naming pattern: "
                 + "i_[i]");
 
-        // should definitely to some try catching in here...
-        for(int i = 0; i < len; i++) {
+        // Masses, then the springs between consecutive masses, created in parallel.
+        Mass[] masses = new Mass[len];
+        IntStream.range(0, len).parallel().forEach(i -> {
             Mass tmp;
             if(twoD.equals("2D"))
                 tmp = new Mass2DPlane(M, size, new Vect3D(0,0,i*dist), new Vect3D(0,0,i*dist));
             else
                 tmp = new Mass3D(M, size, new Vect3D(0,0,i*dist), new Vect3D(0,0,i*dist));
-
-            tmp.setName("m_"+i);
+            if(compactNaming) {
+                tmp.m_name = null;
+                tmp.m_owner = this;
+            }
+            else
+                tmp.setName("m_"+i);
             tmp.setMedium(m_medium);
-            this.m_masses.add(tmp);
-            this.m_massLabels.put(tmp.getName(), tmp);
-            if(i>0){
-                SpringDamper3D inter = new SpringDamper3D(l0, K, Z);
+            masses[i] = tmp;
+        });
+
+        Interaction[] inters = new Interaction[Math.max(len - 1, 0)];
+        IntStream.range(1, len).parallel().forEach(i -> {
+            SpringDamper3D inter = new SpringDamper3D(l0, K, Z);
+            if(compactNaming)
+                inter.m_name = null;
+            else
                 inter.setName("i_"+(i-1));
-                inter.connect(prev, tmp);
-                this.m_interactions.add(inter);
-                this.m_intLabels.put(inter.getName(), inter);
-            }
-            prev = tmp;
-        }
+            inter.connect(masses[i-1], masses[i]);
+            inters[i-1] = inter;
+        });
+
+        m_massBase = getNumberOfHandles();
+        if(addModules(masses, inters) == 0)
+            m_namedOnDemand = compactNaming;
+    }
+
+    String generatedName(Module m){
+        if(m instanceof Interaction)
+            return "i_" + (m.m_handle - m_massBase - (int)m_len);
+        return "m_" + (m.m_handle - m_massBase);
+    }
+
+    boolean isReservedHandle(int handle){
+        return m_namedOnDemand && handle >= m_massBase && handle < m_massBase + 2 * (int)m_len - 1;
+    }
+
+    Mass generatedMass(String name){
+        int[] idx = new int[1];
+        if(!m_namedOnDemand || !parseIndices(name, "m_", idx) || idx[0] >= m_len)
+            return null;
+        Module m = fromHandle(m_massBase + idx[0]);
+        return (m instanceof Mass) ? (Mass)m : null;
+    }
+
+    Interaction generatedInteraction(String name){
+        int[] idx = new int[1];
+        if(!m_namedOnDemand || !parseIndices(name, "i_", idx) || idx[0] >= m_len - 1)
+            return null;
+        Module m = fromHandle(m_massBase + (int)m_len + idx[0]);
+        return (m instanceof Interaction) ? (Interaction)m : null;
     }
 
 
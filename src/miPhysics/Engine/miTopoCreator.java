@@ -1,5 +1,6 @@
 package miPhysics.Engine;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Topology Creator Model class. This allows to procedurally generate regular topologies.
@@ -30,6 +31,15 @@ public class miTopoCreator extends PhyModel {
 
     private boolean m_generated = false;
 
+    /* Compact naming: names are derived from the grid position of the modules, from the handles of the
+     * first mass and first interaction, and from the first interaction of each X slab */
+    private boolean m_compactNaming = false;
+    private boolean m_namedOnDemand = false;
+    private int m_massBase;
+    private int m_interBase;
+    private int m_handleEnd;
+    private int[] m_slabStart;
+
     public miTopoCreator(String name, Medium m){
         super(name, m);
         bCond = EnumSet.noneOf(Bound.class);
@@ -72,107 +82,114 @@ public class miTopoCreator extends PhyModel {
         m_l0 = l;
     }
 
+    /**
+     * Name the generated modules on demand (to be set before generate()): no name is stored for the
+     * masses and interactions, their names (m_[X]_[Y]_[Z], i_[X1]_[Y1]_[Z1]_[X2]_[Y2]_[Z2]) are built
+     * from their grid position when asked for, and parsed back into grid positions when looking them
+     * up. This saves most of the memory used by large meshes outside of the physical state.
+     * @param val true for compact naming.
+     */
+    public void setCompactNaming(boolean val){
+        m_compactNaming = val;
+    }
 
-    public void generate() {
-
-        String masName;
-        Vect3D X0, U1;
-
-        //int nbBefore = mdl.getNumberOfMasses();
-
-        /*
-        if(!matSubName.isEmpty())
-            mdl.createMassSubset(matSubName);
 
-        if(!linkSubName.isEmpty())
-            mdl.createInteractionSubset(linkSubName);
-        */
+    /**
+     * Generate the masses and interactions of the topology. Masses (and the interactions starting from
+     * them) are created in parallel, one X slab per task, and added to the model in a single operation.
+     * Boundary conditions are applied during the generation: the boundary masses are directly created
+     * as fixed points.
+     */
+    public void generate() {
 
         System.out.println(this.getName() + ": creating mass elements with naming pattern: "
                 + m_mLabel + "_[X]_[Y]_[Z]");
 
+        final int nbMasses = m_dimX * m_dimY * m_dimZ;
+        final Mass[] masses = new Mass[nbMasses];
+        final boolean compact = m_compactNaming;
+        final String[] coords = compact ? null : new String[nbMasses];
 
-        for (int i = 0; i < m_dimX; i++) {
+        IntStream.range(0, m_dimX).parallel().forEach(i -> {
             for (int j = 0; j < m_dimY; j++) {
                 for (int k = 0; k < m_dimZ; k++) {
-
-                    X0 = new Vect3D(i*m_dist, j*m_dist, k*m_dist);
-
-                    masName = m_mLabel + "_" +(i+"_"+j+"_"+k);
-
-                    if(plane2D){
-                        this.addMass(masName, new Mass2DPlane(m_M, m_size, X0));
-                        //if(!matSubName.isEmpty())
-                        //    mdl.addMassToSubset(tmp, matSubName);
+                    int id = index(i, j, k);
+                    Vect3D X0 = new Vect3D(i*m_dist, j*m_dist, k*m_dist);
+                    Mass mass;
+                    if(isFixed(i, j, k))
+                        mass = new Ground3D(m_size, X0);
+                    else if(plane2D)
+                        mass = new Mass2DPlane(m_M, m_size, X0, X0);
+                    else
+                        mass = new Mass3D(m_M, m_size, X0, X0);
+                    if(compact) {
+                        mass.m_name = null;
+                        mass.m_owner = this;
                     }
                     else {
-                        this.addMass(masName, new Mass3D(m_M, m_size, X0));
-                        //if(!matSubName.isEmpty())
-                        //    mdl.addMassToSubset(tmp, matSubName);
+                        coords[id] = i + "_" + j + "_" + k;
+                        mass.setName(m_mLabel + "_" + coords[id]);
                     }
-                    //System.out.println("Created mass: " + masName);
+                    mass.setMedium(m_medium);
+                    masses[id] = mass;
                 }
             }
-        }
+        });
 
         System.out.println(this.getName() + ": creating interaction elements with naming pattern: "
                 + m_iLabel + "_[X1]_[Y1]_[Z1]_[X2]_[Y2]_[Z2]");
 
-        // add the springs to the model: length, stiffness, connected mats
-        String masName1, masName2;
-        int idx = 0, idy = 0, idz = 0;
+        // Each mass is connected to the neighbours at the offsets of the stencil that fall in the grid.
+        final int[][] stencil = stencil();
+        final double[] restLength = new double[stencil.length];
+        for(int s = 0; s < stencil.length; s++)
+            restLength[s] = new Vect3D(stencil[s][0], stencil[s][1], stencil[s][2]).norm() * m_l0;
 
+        // Interactions of each slab are stored contiguously, in the order of the masses.
+        final int[] slabStart = new int[m_dimX + 1];
         for (int i = 0; i < m_dimX; i++) {
+            int nb = 0;
+            for (int[] o : stencil)
+                if(i + o[0] < m_dimX)
+                    nb += inRange(m_dimY, o[1]) * inRange(m_dimZ, o[2]);
+            slabStart[i + 1] = slabStart[i] + nb;
+        }
+        final Interaction[] inters = new Interaction[slabStart[m_dimX]];
+
+        IntStream.range(0, m_dimX).parallel().forEach(i -> {
+            int n = slabStart[i];
             for (int j = 0; j < m_dimY; j++) {
                 for (int k = 0; k < m_dimZ; k++) {
-
-                    //println("Looking at: " + mLabel +(i+"_"+j+"_"+k));
-                    masName1 = m_mLabel + "_" +(i+"_"+j+"_"+k);
-
-                    for (int l = 0; l < m_neighbors+1; l++) {
-                        for (int m = - m_neighbors; m < m_neighbors+1; m++) {
-                            for (int n = -m_neighbors; n < m_neighbors+1; n++) {
-                                idx = i+l;
-                                idy = j+m;
-                                idz = k+n;
-
-                                if((l==0) && (m<0) && (n < 0))
-                                    break;
-
-                                else if ((idx < m_dimX) && (idy < m_dimY) && (idz < m_dimZ)) {
-                                    if ((idx>=0) && (idy>=0) && (idz>=0)) {
-                                        if ((idx==i) && (idy == j) && (idz == k)) {
-                                            //println("Superposed at same point" + idx + " " + idy + " " + idz);
-                                            break;
-                                        } else {
-
-                                            U1 = new Vect3D(l, m, n);
-
-                                            double d = U1.norm() * m_l0;
-
-                                            //println("distance: " + d + ", " + l + " " + m + " " + n);
-
-                                            masName2 = m_mLabel + "_" +(idx+"_"+idy+"_"+idz);
-                                            String ln = m_iLabel + "_" + (i+"_"+j+"_"+k) + "_" + (idx+"_"+idy+"_"+idz) ;
-
-                                            addInteraction(ln, new SpringDamper3D(d, m_K, m_Z), masName1, masName2);
-
-                                            //if(!linkSubName.isEmpty())
-                                            //    mdl.addInteractionToSubset(tmp, linkSubName);
-
-                                            //System.out.println("Created interaction: " + ln);
-                                        }
-                                    }
-                                }
-                            }
+                    int id1 = index(i, j, k);
+                    for (int s = 0; s < stencil.length; s++) {
+                        int idx = i + stencil[s][0];
+                        int idy = j + stencil[s][1];
+                        int idz = k + stencil[s][2];
+                        if ((idx < m_dimX) && (idy >= 0) && (idy < m_dimY) && (idz >= 0) && (idz < m_dimZ)) {
+                            int id2 = index(idx, idy, idz);
+                            SpringDamper3D inter = new SpringDamper3D(restLength[s], m_K, m_Z);
+                            if(compact)
+                                inter.m_name = null;
+                            else
+                                inter.setName(m_iLabel + "_" + coords[id1] + "_" + coords[id2]);
+                            inter.connect(masses[id1], masses[id2]);
+                            inters[n++] = inter;
                         }
                     }
                 }
             }
+        });
+
+        m_massBase = getNumberOfHandles();
+        m_interBase = m_massBase + nbMasses;
+        m_handleEnd = m_interBase + inters.length;
+        if(addModules(masses, inters) != 0)
+            System.out.println(this.getName() + ": could not add the generated topology to the model.");
+        else if(compact) {
+            m_namedOnDemand = true;
+            m_slabStart = slabStart;
         }
 
-        this.applyBoundaryConditions();
-
         m_generated = true;
     }
 
@@ -180,76 +197,113 @@ public class miTopoCreator extends PhyModel {
         bCond.add(b);
     }
 
-    private void applyBoundaryConditions() {
+    private int index(int i, int j, int k){
+        return (i * m_dimY + j) * m_dimZ + k;
+    }
 
-        if (bCond.contains(Bound.X_LEFT)) {
-            for (int j = 0; j < m_dimY; j++) {
-                for (int k = 0; k < m_dimZ; k++) {
-                    String name = m_mLabel + ("_0_"+j+"_"+k);
-                    this.changeToFixedPoint(name);
-                }
-            }
-        }
-        if (bCond.contains(Bound.X_RIGHT)) {
-            for (int j = 0; j < m_dimY; j++) {
-                for (int k = 0; k < m_dimZ; k++) {
-                    String name = m_mLabel + ("_" + (m_dimX-1) + "_"+j+"_"+k);
-                    this.changeToFixedPoint(name);
-                }
-            }
+    String generatedName(Module m){
+        if(m instanceof Interaction) {
+            Interaction inter = (Interaction)m;
+            return m_iLabel + "_" + gridPosition(inter.getMat1()) + "_" + gridPosition(inter.getMat2());
         }
+        return m_mLabel + "_" + gridPosition(m);
+    }
 
-        if (bCond.contains(Bound.Y_LEFT)) {
-            for (int i = 0; i < m_dimX; i++) {
-                for (int k = 0; k < m_dimZ; k++) {
-                    String name = m_mLabel + ("_" + i + "_"+0+"_"+k);
-                    this.changeToFixedPoint(name);
-                }
-            }
-        }
-        if (bCond.contains(Bound.Y_RIGHT)) {
-            for (int i = 0; i < m_dimX; i++) {
-                for (int k = 0; k < m_dimZ; k++) {
-                    String name = m_mLabel + ("_" + i + "_"+(m_dimY-1)+"_"+k);
-                    this.changeToFixedPoint(name);
-                }
-            }
-        }
+    boolean isReservedHandle(int handle){
+        return m_namedOnDemand && handle >= m_massBase && handle < m_handleEnd;
+    }
 
-        if (bCond.contains(Bound.Z_LEFT)) {
-            for (int i = 0; i < m_dimX; i++) {
-                for (int j = 0; j < m_dimY; j++) {
-                    String name = m_mLabel + ("_" + i + "_"+j+"_"+0);
-                    this.changeToFixedPoint(name);
-                }
-            }
-        }
-        if (bCond.contains(Bound.Z_RIGHT)) {
-            for (int i = 0; i < m_dimX; i++) {
-                for (int j = 0; j < m_dimY; j++) {
-                    String name = m_mLabel + ("_" + i + "_"+j+"_"+(m_dimZ-1));
-                    this.changeToFixedPoint(name);
-                }
-            }
+    // Grid position of a generated mass ("X_Y_Z"), from its handle.
+    private String gridPosition(Module m){
+        int id = m.m_handle - m_massBase;
+        if(m.m_handle < 0 || id >= m_dimX * m_dimY * m_dimZ)
+            return m.getName();
+        int k = id % m_dimZ;
+        int j = (id / m_dimZ) % m_dimY;
+        int i = id / (m_dimZ * m_dimY);
+        return i + "_" + j + "_" + k;
+    }
+
+    // Generated mass at a grid position (null if out of the grid or removed).
+    private Mass gridMass(int i, int j, int k){
+        if(i >= m_dimX || j >= m_dimY || k >= m_dimZ)
+            return null;
+        Module m = fromHandle(m_massBase + index(i, j, k));
+        return (m instanceof Mass) ? (Mass)m : null;
+    }
+
+    Mass generatedMass(String name){
+        int[] pos = new int[3];
+        if(!m_namedOnDemand || !parseIndices(name, m_mLabel + "_", pos))
+            return null;
+        return gridMass(pos[0], pos[1], pos[2]);
+    }
+
+    Interaction generatedInteraction(String name){
+        int[] pos = new int[6];
+        if(!m_namedOnDemand || !parseIndices(name, m_iLabel + "_", pos))
+            return null;
+        Mass m1 = gridMass(pos[0], pos[1], pos[2]);
+        Mass m2 = gridMass(pos[3], pos[4], pos[5]);
+        if(m1 == null || m2 == null)
+            return null;
+        // The interactions starting from the masses of a slab are stored together.
+        for(int h = m_interBase + m_slabStart[pos[0]]; h < m_interBase + m_slabStart[pos[0] + 1]; h++) {
+            Module m = fromHandle(h);
+            if(m instanceof Interaction && ((Interaction)m).getMat1() == m1 && ((Interaction)m).getMat2() == m2)
+                return (Interaction)m;
         }
+        return null;
+    }
 
-        if (bCond.contains(Bound.FIXED_CORNERS)) {
+    // Number of positions p in [0, dim[ such that p + offset is also in [0, dim[.
+    private static int inRange(int dim, int offset){
+        return Math.max(dim - Math.abs(offset), 0);
+    }
 
-            for (int i = 0; i < 2; i++) {
-                for (int j = 0; j < 2; j++) {
-                    for (int k = 0; k < 2; k++) {
-                        String name = m_mLabel + ("_" + (i*(m_dimX-1)) + "_"+(j*(m_dimY-1))+"_"+(k*(m_dimZ-1)));
-                        this.changeToFixedPoint(name);
-                    }
+    /**
+     * Get the offsets (in grid positions) from a mass to the neighbours it is connected to: each pair
+     * of neighbours within the span is connected once, from the mass with the lowest X (then Y) index.
+     * @return the list of offsets.
+     */
+    private int[][] stencil(){
+        ArrayList<int[]> offsets = new ArrayList<>();
+        for (int l = 0; l < m_neighbors+1; l++) {
+            for (int m = - m_neighbors; m < m_neighbors+1; m++) {
+                for (int n = -m_neighbors; n < m_neighbors+1; n++) {
+                    if((l==0) && (m<0))
+                        break;
+                    if((l==0) && (m==0) && (n==0))
+                        break;
+                    offsets.add(new int[]{l, m, n});
                 }
             }
         }
+        return offsets.toArray(new int[0][]);
+    }
 
-        if (bCond.contains(Bound.FIXED_CENTRE)) {
-
-            String name = m_mLabel + ("_" + (Math.floor(m_dimX/2)) + "_"+(Math.floor(m_dimY/2))+"_"+(Math.floor(m_dimZ/2)));
-            this.changeToFixedPoint(name);
-        }
+    /**
+     * Check if a mass of the grid is a fixed point, according to the boundary conditions.
+     */
+    private boolean isFixed(int i, int j, int k) {
+        if (bCond.contains(Bound.X_LEFT) && i == 0)
+            return true;
+        if (bCond.contains(Bound.X_RIGHT) && i == m_dimX-1)
+            return true;
+        if (bCond.contains(Bound.Y_LEFT) && j == 0)
+            return true;
+        if (bCond.contains(Bound.Y_RIGHT) && j == m_dimY-1)
+            return true;
+        if (bCond.contains(Bound.Z_LEFT) && k == 0)
+            return true;
+        if (bCond.contains(Bound.Z_RIGHT) && k == m_dimZ-1)
+            return true;
+        if (bCond.contains(Bound.FIXED_CORNERS)
+                && (i == 0 || i == m_dimX-1) && (j == 0 || j == m_dimY-1) && (k == 0 || k == m_dimZ-1))
+            return true;
+        if (bCond.contains(Bound.FIXED_CENTRE) && i == m_dimX/2 && j == m_dimY/2 && k == m_dimZ/2)
+            return true;
+        return false;
     }
 
     public int setParam(param p, double val ){
@@ -1,5 +1,6 @@
 package miPhysics.Renderer;
 
+import miPhysics.Engine.SceneSnapshot;
 import miPhysics.Engine.Vect3D;
 import miPhysics.Engine.interType;
 import miPhysics.Engine.Interaction;
@@ -32,7 +33,23 @@ public class LinkDataHolder{
         this.m_p2 = element.getMat2().getPos().toPVector();
         this.setElongation(dist);
         this.setType(element.getType());
-        this.setName(element.getName());
+        this.m_element = element;
+    }
+
+    /**
+     * Copy an interaction from a snapshot of the scene.
+     * @param snap the snapshot.
+     * @param i index of the interaction in the snapshot.
+     */
+    public LinkDataHolder(SceneSnapshot snap, int i){
+        Vect3D v = new Vect3D();
+        snap.readEnd1(i, v);
+        this.m_p1 = v.toPVector();
+        snap.readEnd2(i, v);
+        this.m_p2 = v.toPVector();
+        this.m_element = snap.getInteraction(i);
+        this.setElongation(snap.getElongation(i));
+        this.setType(m_element.getType());
     }
 
     public LinkDataHolder(Vect3D p1, Vect3D p2, double elong, interType t){
@@ -68,6 +85,9 @@ public class LinkDataHolder{
         m_name = n;
     }
     public String getName(){
+        // Names are only built when displayed (they may be derived on demand).
+        if(m_name == null && m_element != null)
+            m_name = m_element.getName();
         return m_name;
     }
 
@@ -76,6 +96,7 @@ public class LinkDataHolder{
 
     private double m_elong;
     private String m_name;
+    private Interaction m_element;
 
     private interType m_type;
 
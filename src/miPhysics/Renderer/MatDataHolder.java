@@ -1,6 +1,7 @@
 package miPhysics.Renderer;
 
 import miPhysics.Engine.Mass;
+import miPhysics.Engine.SceneSnapshot;
 import miPhysics.Engine.Vect3D;
 import miPhysics.Engine.massType;
 import miPhysics.Engine.param;
@@ -21,7 +22,24 @@ public class MatDataHolder{
         this.m_type = element.getType();
         this.m_radius = element.getParam(param.RADIUS);
         this.m_frc = element.getFrc().toPVector();
-        this.m_name = element.getName();
+        this.m_element = element;
+    }
+
+    /**
+     * Copy a mass from a snapshot of the scene.
+     * @param snap the snapshot.
+     * @param i index of the mass in the snapshot.
+     */
+    public MatDataHolder(SceneSnapshot snap, int i){
+        Vect3D v = new Vect3D();
+        snap.readPos(i, v);
+        this.m_pos = v.toPVector();
+        snap.readFrc(i, v);
+        this.m_frc = v.toPVector();
+        this.m_mass = 1;
+        this.m_element = snap.getMass(i);
+        this.m_type = m_element.getType();
+        this.m_radius = snap.getRadius(i);
     }
 
     public MatDataHolder(Vect3D p, double m, double radius, massType t){
@@ -55,6 +73,9 @@ public class MatDataHolder{
     public double getRadius(){return this.m_radius;}
 
     public String getName(){
+        // Names are only built when displayed (they may be derived on demand).
+        if(m_name == null && m_element != null)
+            m_name = m_element.getName();
         return m_name;
     }
 
@@ -67,5 +88,6 @@ public class MatDataHolder{
     private double m_radius;
     private PVector m_frc;
     private String m_name;
+    private Mass m_element;
 
 }
\ No newline at end of file
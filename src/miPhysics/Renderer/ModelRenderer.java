@@ -32,7 +32,6 @@ public class ModelRenderer implements PConstants{
     private PVector m_zoomRatio = new PVector(1,1,1);
     private boolean m_matDisplay = true;
     private boolean m_interactionDisplay = true;
-    private boolean m_topSceneFlag = true;
 
     private boolean m_showObjectBoxes = false;
     private boolean m_showIntersectionBoxes = false;
@@ -179,16 +178,17 @@ public class ModelRenderer implements PConstants{
 
 
     public void renderScene(PhysicsContext c){
+        // The scene is drawn from a copy taken by the simulation between two steps: neither thread
+        // ever waits for the other (see PhysicsContext.getSnapshot()).
+        SceneSnapshot snap = c.getSnapshot();
         m_matHolders.clear();
         m_linkHolders.clear();
         m_intersecPrints.clear();
         m_objectPrints.clear();
-        m_topSceneFlag = true;
+        m_autoColPrints.clear();
 
-        synchronized (c.getLock()) {
-            addCollisionVolumes(c.colEngine());
-            addElementsToScene(c.mdl());
-        }
+        addCollisionVolumes(snap);
+        addElementsToScene(snap);
         drawScene();
     }
 
@@ -208,16 +208,17 @@ public class ModelRenderer implements PConstants{
         }
     }
 
-    private void addCollisionVolumes(CollisionEngine col){
+    private void addCollisionVolumes(SceneSnapshot snap){
         if(m_showIntersectionBoxes) {
-            for (MassCollider mc : col.getMassColliders()) {
-                m_intersecPrints.add(new SpacePrint(mc.getSpacePrint()));
+            for (int i = 0; i < snap.getNumberOfMassColliders(); i++) {
+                SpacePrint sp = new SpacePrint();
+                snap.readColliderBounds(i, sp);
+                m_intersecPrints.add(sp);
             }
         }
         if(m_showAutoCollisionBoxes){
-            for(AutoCollider ac : col.getAutoColliders()){
-                m_autoColPrints = ac.activeVoxelSpacePrints();
-            }
+            for(int i = 0; i < snap.getNumberOfAutoColliders(); i++)
+                m_autoColPrints.addAll(snap.getCellPrints(i));
         }
     }
 
@@ -255,50 +256,25 @@ public class ModelRenderer implements PConstants{
 
 
 
-    private void addElementsToScene(PhyModel mdl) {
-            double dist;
-
-            if(m_showObjectBoxes) {
-                if (!m_topSceneFlag)
-                    m_objectPrints.add(new SpacePrint(mdl.getSpacePrint()));
-                else
-                    m_topSceneFlag = false;
+    private void addElementsToScene(SceneSnapshot snap) {
+        // Object volumes of the sub-models (the top-level model is not shown).
+        if(m_showObjectBoxes) {
+            for(int j = 1; j < snap.getNumberOfModels(); j++){
+                SpacePrint sp = new SpacePrint();
+                snap.readModelBounds(j, sp);
+                m_objectPrints.add(sp);
             }
+        }
 
-            if(m_matDisplay) {
-                for(int i = 0; i < mdl.getNumberOfMasses(); i++){
-                    Mass m_tmp = mdl.getMassList().get(i);
-                    m_matHolders.add(new MatDataHolder(m_tmp));
-                    /*m_matHolders.add(new MatDataHolder(
-                            m_tmp.getPos(),
-                            1,
-                            m_tmp.getParam(param.RADIUS),
-                            m_tmp.getType()));*/
-                }
-            }
+        if(m_matDisplay) {
+            for(int i = 0; i < snap.getNumberOfMasses(); i++)
+                m_matHolders.add(new MatDataHolder(snap, i));
+        }
 
-            if(m_interactionDisplay) {
-                for (Interaction inter : mdl.getInteractionList()) {
-                    m_linkHolders.add(new LinkDataHolder(inter));
-                /*
-                if(inter.getType() == interType.SPRINGDAMPER1D)
-                    dist = inter.calcDist1D();
-                else if(inter.getType() == interType.CONTACT3D)
-                    dist = 0;
-                else if(inter.getType() == interType.PLANECONTACT3D)
-                    dist = 0;
-                else
-                    dist = inter.getElongation() / inter.getParam(param.DISTANCE);
-                m_linkHolders.add(new LinkDataHolder(
-                        inter.getMat1().getPos(),
-                        inter.getMat2().getPos(),
-                        dist,
-                        inter.getType()));
-                 */
-                }
-            }
-        for(PhyModel pm : mdl.getSubModels())
-            addElementsToScene(pm);
+        if(m_interactionDisplay) {
+            for(int i = 0; i < snap.getNumberOfInteractions(); i++)
+                m_linkHolders.add(new LinkDataHolder(snap, i));
+        }
     }
 
     private void drawMassesAndInteractions(){
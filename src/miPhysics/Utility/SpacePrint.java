@@ -56,15 +56,18 @@ public class SpacePrint {
 
     public void update(Mass m){
         Vect3D pos = m.getPos();
-        double size = m.getParam(param.RADIUS);
-        x_min = Math.min(x_min, pos.x - size);
-        x_max = Math.max(x_max, pos.x + size);
+        this.update(pos.x, pos.y, pos.z, m.getParam(param.RADIUS));
+    }
 
-        y_min = Math.min(y_min, pos.y - size);
-        y_max = Math.max(y_max, pos.y + size);
+    public void update(double x, double y, double z, double size){
+        x_min = Math.min(x_min, x - size);
+        x_max = Math.max(x_max, x + size);
 
-        z_min = Math.min(z_min, pos.z - size);
-        z_max = Math.max(z_max, pos.z + size);
+        y_min = Math.min(y_min, y - size);
+        y_max = Math.max(y_max, y + size);
+
+        z_min = Math.min(z_min, z - size);
+        z_max = Math.max(z_max, z + size);
         valid = true;
     }
 
@@ -85,6 +88,31 @@ public class SpacePrint {
         return valid;
     }
 
+    public double getXMin(){ return x_min; }
+    public double getXMax(){ return x_max; }
+    public double getYMin(){ return y_min; }
+    public double getYMax(){ return y_max; }
+    public double getZMin(){ return z_min; }
+    public double getZMax(){ return z_max; }
+
+    // Enlarge the print by a margin on every side.
+    public void grow(double margin){
+        x_min -= margin;
+        x_max += margin;
+        y_min -= margin;
+        y_max += margin;
+        z_min -= margin;
+        z_max += margin;
+    }
+
+    // Check that a sphere is entirely inside the print.
+    public boolean contains(double x, double y, double z, double size){
+        return valid
+                && x - size >= x_min && x + size <= x_max
+                && y - size >= y_min && y + size <= y_max
+                && z - size >= z_min && z + size <= z_max;
+    }
+
 
     public boolean intersectsWithMass(Mass m){
 
@@ -0,0 +1,182 @@
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jaudiolibs.audioservers.*;
+
+import miPhysics.Engine.*;
+import miPhysics.Engine.Sound.miPhyAudioClient;
+
+/**
+ * Checks that the simulation step and the audio callback do not allocate: runs 100k steps of
+ * representative models (object and compiled computation, with and without collisions), each one
+ * reading an observer, then 100k frames of the audio callback (miPhyAudioClient.process()) on the
+ * same models, and measures the bytes allocated by the calling thread, which must be 0.
+ *
+ * Not part of the library build (it relies on the HotSpot com.sun.management API): see the README
+ * of this folder to run it. The exit status is 1 if a model allocates.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class AllocationCheck {
+
+    private static final int STEPS = 100000;
+
+    private static final com.sun.management.ThreadMXBean m_mx =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int FRAMES = 100000;
+    private static final int BUFFER = 256;
+
+    public static void main(String[] args) throws Exception {
+        boolean failed = false;
+        for(int mode = 0; mode < 4; mode++){
+            boolean collide = mode >= 2;
+            boolean compiled = mode % 2 == 1;
+            PhysicsContext phys = buildModel(collide);
+            if(compiled)
+                phys.compile();
+            Observer3D obs = phys.mdl().getPhyModel("str").getObservers().get(0);
+
+            // Let the JIT compile the step (and load the classes of its slow paths) before measuring.
+            for(int i = 0; i < 200; i++)
+                run(phys, obs, 100);
+            run(phys, obs, STEPS);
+
+            long bytes = run(phys, obs, STEPS);
+            System.out.println((compiled ? "compiled" : "object") + (collide ? " with collisions" : "")
+                    + ": " + bytes + " bytes allocated over " + STEPS + " steps");
+            failed |= bytes != 0;
+        }
+
+        // The audio callback: steps, then the observers copied to the output buffers.
+        for(int mode = 0; mode < 4; mode++){
+            boolean collide = mode >= 2;
+            boolean compiled = mode % 2 == 1;
+            PhysicsContext phys = buildModel(collide);
+            if(compiled)
+                phys.compile();
+            miPhyAudioClient client = new miPhyAudioClient(44100, 0, 2, phys, BUFFER, new NullServerProvider());
+            List<FloatBuffer> outputs = new ArrayList<>();
+            outputs.add(FloatBuffer.allocate(BUFFER));
+            outputs.add(FloatBuffer.allocate(BUFFER));
+
+            for(int i = 0; i < 200; i++)
+                process(client, outputs, 4 * BUFFER);
+            process(client, outputs, FRAMES);
+
+            long bytes = process(client, outputs, FRAMES);
+            System.out.println("audio callback, " + (compiled ? "compiled" : "object") + (collide ? " with collisions" : "")
+                    + ": " + bytes + " bytes allocated over " + FRAMES + " frames");
+            failed |= bytes != 0;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    // Bytes allocated by this thread while the audio callback computes a number of frames.
+    private static long process(miPhyAudioClient client, List<FloatBuffer> outputs, int nbFrames){
+        List<FloatBuffer> inputs = Collections.emptyList();
+        long tid = Thread.currentThread().getId();
+        long start = m_mx.getThreadAllocatedBytes(tid);
+        boolean ok = true;
+        for(int f = 0; f < nbFrames; f += BUFFER){
+            for(int c = 0; c < outputs.size(); c++)
+                outputs.get(c).clear();
+            ok &= client.process(f, inputs, outputs, BUFFER);
+        }
+        long bytes = m_mx.getThreadAllocatedBytes(tid) - start;
+        return ok ? bytes : -1;
+    }
+
+    // Bytes allocated by this thread while computing steps.
+    private static long run(PhysicsContext phys, Observer3D obs, int nbSteps){
+        long tid = Thread.currentThread().getId();
+        long start = m_mx.getThreadAllocatedBytes(tid);
+        double out = 0;
+        for(int i = 0; i < nbSteps; i++){
+            phys.computeSingleStep();
+            out += obs.observePos().x;
+        }
+        long bytes = m_mx.getThreadAllocatedBytes(tid) - start;
+        return Double.isNaN(out) ? -1 : bytes;
+    }
+
+    // Audio server that is never run: process() is called by the check itself (also used by
+    // AudioRateBenchmark).
+    static class NullServerProvider extends AudioServerProvider {
+        public String getLibraryName(){
+            return "AllocationCheck";
+        }
+
+        public AudioServer createServer(final AudioConfiguration config, AudioClient client){
+            return new AudioServer() {
+                public void run(){
+                }
+                public AudioConfiguration getAudioContext(){
+                    return config;
+                }
+                public boolean isActive(){
+                    return false;
+                }
+                public void shutdown(){
+                }
+            };
+        }
+    }
+
+    private static PhysicsContext buildModel(boolean collide){
+        PhysicsContext phys = new PhysicsContext(44100, 60);
+        phys.setGlobalGravity(0, 0, 0.0001);
+        phys.setGlobalFriction(0.0001);
+        Medium med = new Medium(0.00002, new Vect3D(0, -0.00001, 0));
+
+        miString str = new miString("str", med, 60, 10, 1, 0.05, 0.01, 10, 8);
+        str.changeToFixedPoint("m_0");
+        str.changeToFixedPoint("m_59");
+        str.addInOut("driver", new Driver3D(), "m_10");
+        str.addInOut("obs", new Observer3D(filterType.HIGH_PASS), "m_20");
+
+        miTopoCreator plate = new miTopoCreator("plate", med);
+        plate.setDim(6, 5, 1, 1);
+        plate.setParams(1, 0.05, 0.01);
+        plate.setGeometry(10, 10);
+        plate.addBoundaryCondition(Bound.X_LEFT);
+        plate.generate();
+        plate.translate(0, 200, 0);
+
+        PhyModel misc = new PhyModel("misc", med);
+        misc.addMass("a", new Mass3D(2, 10, new Vect3D(0, -100, 0), new Vect3D(0.3, 0.1, 0)));
+        misc.addMass("b", new Mass2DPlane(2, 10, new Vect3D(20, -100, 0)));
+        misc.addMass("c", new Mass3D(2, 10, new Vect3D(15, -95, 3)));
+        misc.addMass("g", new Ground3D(10, new Vect3D(-40, -100, 0)));
+        misc.addMass("p", new PosInput3D(10, new Vect3D(-20, -120, 0), 10));
+        misc.addMass("osc", new Osc3D(10, 4, 0.01, 0.001, new Vect3D(40, -100, 0)));
+        misc.addInteraction("rope", new Rope3D(25, 0.05, 0.02), "a", "g");
+        misc.addInteraction("bubble", new Bubble3D(30, 0.05, 0.02), "b", "g");
+        misc.addInteraction("contact", new Contact3D(0.1, 0.02), "a", "c");
+        misc.addInteraction("spring", new Spring3D(22, 0.02), "b", "c");
+        misc.addInteraction("damper", new Damper3D(0.02), "a", "b");
+        misc.addInteraction("attractor", new Attractor3D(3, 0.1), "c", "osc");
+        misc.addInteraction("plane", new PlaneContact3D(0.1, 0.01, 1, -110), "a");
+        misc.addMass("z1", new Mass1D(1, 1, new Vect3D(0, 0, 1)));
+        misc.addMass("z2", new Osc1D(1, 1, 0.01, 0.001, new Vect3D(0, 0, 3)));
+        misc.addMass("z3", new Ground1D(1, new Vect3D(0, 0, 0)));
+        misc.addInteraction("s1", new SpringDamper1D(1, 0.1, 0.01), "z1", "z2");
+        misc.addInteraction("s2", new SpringDamper1D(1, 0.1, 0.01), "z3", "z1");
+        misc.addInOut("driver", new Driver3D(), "c");
+
+        phys.mdl().addPhyModel(str);
+        phys.mdl().addPhyModel(plate);
+        phys.mdl().addPhyModel(misc);
+        if(collide) {
+            phys.colEngine().addCollision(str, misc, 0.1, 0.01);
+            phys.colEngine().addAutoCollision(plate, 0.1, 0.01);
+            phys.colEngine().addHalfSpace(misc, new Vect3D(0, 1, 0), -130, 0.1, 0.01);
+        }
+        phys.init();
+        return phys;
+    }
+}
@@ -0,0 +1,95 @@
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import miPhysics.Engine.*;
+import miPhysics.Engine.Sound.miPhyAudioClient;
+
+/**
+ * Measures how large a model can be stepped at audio rate: for square membranes of growing size
+ * (fixed on two sides, observed at the centre), times the audio callback (miPhyAudioClient.process())
+ * computing 256-frame buffers at 44.1 kHz, and compares the time per buffer to its duration.
+ * Prints the mean and worst time per buffer over 400 buffers, after 200 warm-up buffers, and the
+ * largest membrane whose mean time fits in a buffer.
+ *
+ * The argument is the number of threads (default 1): with more than one, the model is computed by
+ * the low latency worker pool (miPhyAudioClient.setNumberOfThreads()). Run it with 1 thread, then
+ * with as many threads as available cores, to compare the number of masses per buffer.
+ * Not part of the library build: see the README of this folder to run it.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class AudioRateBenchmark {
+
+    private static final int BUFFER = 256;
+    private static final float RATE = 44100;
+    private static final int[] SIDES = {8, 12, 16, 24, 32, 48, 64, 96, 128};
+
+    public static void main(String[] args) throws Exception {
+        int nbThreads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        long deadline = (long)(BUFFER / RATE * 1e9);
+        System.out.println(Runtime.getRuntime().availableProcessors() + " available cores, " + nbThreads
+                + " threads, " + BUFFER + "-frame buffers: " + deadline / 1000 + " us per buffer");
+
+        int largest = 0;
+        for(int side : SIDES){
+            PhysicsContext phys = membrane(side);
+            miPhyAudioClient client = new miPhyAudioClient(RATE, 0, 1, phys, BUFFER,
+                    new AllocationCheck.NullServerProvider());
+            if(nbThreads > 1)
+                client.setNumberOfThreads(nbThreads);
+            else
+                phys.compile();
+            List<FloatBuffer> inputs = Collections.emptyList();
+            List<FloatBuffer> outputs = new ArrayList<>();
+            outputs.add(FloatBuffer.allocate(BUFFER));
+
+            for(int b = 0; b < 200; b++)
+                process(client, inputs, outputs);
+            long total = 0, worst = 0;
+            for(int b = 0; b < 400; b++){
+                long t = process(client, inputs, outputs);
+                total += t;
+                worst = Math.max(worst, t);
+            }
+            phys.setNumberOfThreads(1);
+            long mean = total / 400;
+            System.out.println(side * side + " masses: mean " + mean / 1000 + " us, worst " + worst / 1000
+                    + " us per buffer");
+            if(mean <= deadline)
+                largest = side * side;
+            else if(mean > 2 * deadline)
+                break;
+        }
+        System.out.println("largest membrane computed in real time: " + largest + " masses");
+        System.exit(0);
+    }
+
+    // Time taken by the audio callback to compute one buffer.
+    private static long process(miPhyAudioClient client, List<FloatBuffer> inputs, List<FloatBuffer> outputs){
+        outputs.get(0).clear();
+        long start = System.nanoTime();
+        client.process(0, inputs, outputs, BUFFER);
+        return System.nanoTime() - start;
+    }
+
+    private static PhysicsContext membrane(int side){
+        PhysicsContext phys = new PhysicsContext((int)RATE, 60);
+        Medium med = new Medium(0.00002, new Vect3D(0, 0, 0));
+        miTopoCreator mesh = new miTopoCreator("mesh", med);
+        mesh.setDim(side, side, 1, 1);
+        mesh.setParams(1, 0.05, 0.01);
+        mesh.setGeometry(10, 10);
+        mesh.addBoundaryCondition(Bound.X_LEFT);
+        mesh.addBoundaryCondition(Bound.X_RIGHT);
+        mesh.generate();
+        mesh.addInOut("obs", new Observer3D(filterType.HIGH_PASS), "m_" + side / 2 + "_" + side / 2 + "_0");
+        mesh.addInOut("drv", new Driver3D(), "m_" + side / 3 + "_" + side / 3 + "_0");
+        mesh.getDrivers().get(0).applyFrc(0, 0, 1);
+        phys.mdl().addPhyModel(mesh);
+        phys.init();
+        return phys;
+    }
+}
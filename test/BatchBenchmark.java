@@ -0,0 +1,65 @@
+import java.util.Random;
+
+import miPhysics.Engine.*;
+
+/**
+ * Measures the step time of a model mixing all the common module types: 2000 masses, each held by
+ * a bubble and moved by a driver (as in the AutoCollision example), linked by 2000 each of
+ * SpringDamper3D, Rope3D, Contact3D, Damper3D, Spring3D and Attractor3D. Prints the time per step
+ * of 6 runs of 2000 steps, computed with module objects (or compiled, with the "compiled" argument).
+ *
+ * Only uses the API that existed before masses and interactions were computed in per-type batches,
+ * so that it can be run on both revisions to compare them. Not part of the library build: see the
+ * README of this folder to run it.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class BatchBenchmark {
+
+    private static final int MASSES = 2000;
+    private static final int STEPS = 2000;
+
+    public static void main(String[] args){
+        PhysicsContext phys = buildModel();
+        boolean compiled = args.length > 0 && args[0].equals("compiled");
+        if(compiled)
+            phys.compile();
+        for(int rep = 0; rep < 6; rep++){
+            long start = System.nanoTime();
+            phys.computeNSteps(STEPS);
+            double us = (System.nanoTime() - start) / STEPS / 1000.;
+            System.out.println((compiled ? "compiled" : "object") + ": " + us + " us/step");
+        }
+    }
+
+    private static PhysicsContext buildModel(){
+        PhysicsContext phys = new PhysicsContext(300, 60);
+        phys.setGlobalFriction(0.005);
+        phys.setGlobalGravity(0, -0.01, 0.);
+        PhyModel mdl = phys.mdl();
+        Random r = new Random(1);
+        mdl.addMass("ground", new Ground3D(1, new Vect3D(0., 0., 0.)));
+        for(int i = 0; i < MASSES; i++){
+            Vect3D pos = new Vect3D(r.nextDouble() * 100, r.nextDouble() * 100, r.nextDouble() * 100);
+            mdl.addMass("mass" + i, new Mass3D(1, 6, pos, new Vect3D(0, 0, 0)));
+            mdl.addInteraction("bub" + i, new Bubble3D(100, 0.1, 0.01), "ground", "mass" + i);
+            mdl.addInOut("drive" + i, new Driver3D(), "mass" + i);
+        }
+        // Each type links the masses in its own pattern, in runs of the same type.
+        for(int i = 1; i < MASSES; i++)
+            mdl.addInteraction("sd" + i, new SpringDamper3D(5, 0.01, 0.001), "mass" + i, "mass" + (i - 1));
+        for(int i = 1; i < MASSES; i++)
+            mdl.addInteraction("rp" + i, new Rope3D(20, 0.01, 0.001), "mass" + i, "mass" + ((i * 7) % MASSES));
+        for(int i = 1; i < MASSES; i++)
+            mdl.addInteraction("ct" + i, new Contact3D(0.01, 0.001), "mass" + i, "mass" + ((i * 13) % MASSES));
+        for(int i = 1; i < MASSES; i++)
+            mdl.addInteraction("dp" + i, new Damper3D(0.001), "mass" + i, "mass" + ((i * 3) % MASSES));
+        for(int i = 1; i < MASSES; i++)
+            mdl.addInteraction("sp" + i, new Spring3D(5, 0.01), "mass" + i, "mass" + ((i * 5) % MASSES));
+        for(int i = 1; i < MASSES; i++)
+            mdl.addInteraction("at" + i, new Attractor3D(5, 0.0001), "mass" + i, "mass" + ((i * 11) % MASSES));
+        phys.init();
+        return phys;
+    }
+}
@@ -0,0 +1,40 @@
+import miPhysics.Engine.*;
+
+/**
+ * Measures the time taken by miTopoCreator.generate() to build n^3 cubes (span 1, fixed on the
+ * X_LEFT side): the best of 5 runs up to 20^3, a single run for larger cubes. The arguments are the
+ * sizes n (default: 10 20 40).
+ *
+ * Only uses API older than the bulk generation of topologies, so that it can be run on both
+ * revisions to compare them. Not part of the library build: see the README of this folder to run
+ * it (a 60^3 cube needs about 4 GB of heap).
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class GenerationBenchmark {
+
+    public static void main(String[] args){
+        String[] sizes = args.length > 0 ? args : new String[]{"10", "20", "40"};
+        for(String size : sizes){
+            int n = Integer.parseInt(size);
+            long best = Long.MAX_VALUE;
+            int nbMasses = 0, nbInters = 0;
+            for(int rep = 0; rep < (n <= 20 ? 5 : 1); rep++){
+                System.gc();
+                long start = System.nanoTime();
+                miTopoCreator topo = new miTopoCreator("topo", new Medium());
+                topo.setDim(n, n, n, 1);
+                topo.setParams(1, 0.05, 0.01);
+                topo.setGeometry(10, 10);
+                topo.addBoundaryCondition(Bound.X_LEFT);
+                topo.generate();
+                best = Math.min(best, System.nanoTime() - start);
+                nbMasses = topo.getNumberOfMasses();
+                nbInters = topo.getNumberOfInteractions();
+            }
+            System.out.println(n + "^3: " + nbMasses + " masses, " + nbInters + " interactions, generated in "
+                    + best / 1000000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import miPhysics.Engine.*;
+
+/**
+ * Measures the step time of the compiled model on rows of 1k, 10k and 100k Mass3D sharing a
+ * medium, alone (mass integration only) and chained by SpringDamper3D interactions, at 44.1 kHz.
+ * Each measurement is the best of 5 runs of 2e7 / n steps (n masses), after one warm-up run.
+ *
+ * Not part of the library build: see the README of this folder to run it.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class IntegrationBenchmark {
+
+    public static void main(String[] args){
+        for(int n : new int[]{1000, 10000, 100000}){
+            for(int springs = 0; springs < 2; springs++){
+                PhysicsContext phys = buildRow(n, springs == 1);
+                int steps = 20000000 / n;
+                for(int s = 0; s < steps; s++)
+                    phys.computeSingleStep();
+                long best = Long.MAX_VALUE;
+                for(int rep = 0; rep < 5; rep++){
+                    long start = System.nanoTime();
+                    for(int s = 0; s < steps; s++)
+                        phys.computeSingleStep();
+                    best = Math.min(best, (System.nanoTime() - start) / steps);
+                }
+                System.out.println(n + (springs == 1 ? " masses + springs: " : " masses: ") + best / 1000.0 + " us/step");
+            }
+        }
+    }
+
+    private static PhysicsContext buildRow(int n, boolean springs){
+        PhysicsContext phys = new PhysicsContext(44100, 60);
+        Medium med = new Medium(0.0001, new Vect3D(0, 0, 0.00001));
+        PhyModel row = new PhyModel("row", med);
+        for(int i = 0; i < n; i++)
+            row.addMass("m" + i, new Mass3D(1, 1, new Vect3D(i * 10, 0, 0)));
+        if(springs)
+            for(int i = 1; i < n; i++)
+                row.addInteraction("s" + i, new SpringDamper3D(10, 0.05, 0.01), "m" + (i - 1), "m" + i);
+        phys.mdl().addPhyModel(row);
+        phys.init();
+        phys.compile();
+        return phys;
+    }
+}
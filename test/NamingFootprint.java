@@ -0,0 +1,74 @@
+import miPhysics.Engine.*;
+
+/**
+ * Measures the memory taken by a 50x50x50 miTopoCreator cube (125k masses, 1.56M interactions)
+ * with named modules and with compact naming (miTopoCreator.setCompactNaming()): the heap retained
+ * by the model, after garbage collection.
+ *
+ * Also checks on a 6x6x6 cube that both modes give the same names, and find the same modules from
+ * their names, including after a change to a fixed point and a removal. Not part of the library
+ * build: see the README of this folder to run it (needs about 2 GB of heap). The exit status is 1
+ * if the names differ.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class NamingFootprint {
+
+    public static void main(String[] args){
+        boolean same = sameNames();
+        System.out.println("names and lookups identical in both modes: " + same);
+
+        for(int mode = 0; mode < 2; mode++){
+            boolean compact = mode == 1;
+            long before = usedHeap();
+            miTopoCreator cube = cube(50, compact);
+            long after = usedHeap();
+            System.out.println((compact ? "compact naming" : "named") + ", 50^3 cube (" + cube.getNumberOfMasses()
+                    + " masses, " + cube.getNumberOfInteractions() + " interactions): "
+                    + (after - before) / (1 << 20) + " MB");
+        }
+        System.exit(same ? 0 : 1);
+    }
+
+    private static boolean sameNames(){
+        miTopoCreator named = cube(6, false), compact = cube(6, true);
+        boolean same = true;
+        for(int i = 0; i < named.getNumberOfMasses(); i++){
+            Mass m = compact.getMassList().get(i);
+            same &= named.getMassList().get(i).getName().equals(m.getName());
+            same &= compact.getMass(m.getName()) == m;
+        }
+        for(int i = 0; i < named.getNumberOfInteractions(); i++){
+            Interaction inter = compact.getInteractionList().get(i);
+            same &= named.getInteractionList().get(i).getName().equals(inter.getName());
+            same &= compact.getInteraction(inter.getName()) == inter;
+        }
+        for(miTopoCreator cube : new miTopoCreator[]{named, compact}){
+            cube.changeToFixedPoint("m_3_3_3");
+            same &= cube.getMass("m_3_3_3") instanceof Ground3D && cube.getMass("m_3_3_3").getName().equals("m_3_3_3");
+            cube.removeMassAndConnectedInteractions("m_2_2_2");
+            same &= !cube.massExists("m_2_2_2");
+        }
+        return same;
+    }
+
+    // Heap in use after garbage collection.
+    private static long usedHeap(){
+        for(int i = 0; i < 4; i++)
+            System.gc();
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    private static miTopoCreator cube(int n, boolean compact){
+        miTopoCreator cube = new miTopoCreator("cube", new Medium());
+        cube.setDim(n, n, n, 1);
+        cube.setParams(1, 0.05, 0.01);
+        cube.setGeometry(10, 10);
+        cube.addBoundaryCondition(Bound.X_LEFT);
+        cube.setCompactNaming(compact);
+        cube.generate();
+        return cube;
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import miPhysics.Engine.*;
+
+/**
+ * Measures the parallel step mode (PhysicsContext.setNumberOfThreads()) on miTopoCreator cubes:
+ * - consistency: after 3000 steps of a 14^3 cube, the largest position difference relative to the
+ *   serial computation, and whether 2, 3 and 8 threads give identical results;
+ * - speed: step time of a 40^3 cube (64k masses) with 1, 2, 4 and 8 threads, timing 500 steps after
+ *   200 warm-up steps.
+ * With the "lowLatency" argument, the threads are those of the busy-waiting pool.
+ *
+ * Not part of the library build: see the README of this folder to run it. Only the timings with
+ * up to as many threads as available cores are meaningful.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class ParallelBenchmark {
+
+    public static void main(String[] args){
+        boolean lowLatency = args.length > 0 && args[0].equals("lowLatency");
+        System.out.println(Runtime.getRuntime().availableProcessors() + " available cores"
+                + (lowLatency ? ", low latency pool" : ""));
+
+        double[] serial = null, parallel = null;
+        for(int th : new int[]{1, 2, 3, 8}){
+            PhysicsContext phys = cube(14);
+            setThreads(phys, th, lowLatency);
+            for(int s = 0; s < 3000; s++)
+                phys.computeSingleStep();
+            double[] pos = positions(phys);
+            phys.setNumberOfThreads(1);
+            if(th == 1)
+                serial = pos;
+            else if(parallel == null){
+                parallel = pos;
+                System.out.println("14^3 cube, 3000 steps: largest relative difference to serial "
+                        + maxRelative(serial, pos));
+            }
+            else
+                System.out.println("14^3 cube, 3000 steps: " + th + " threads identical to 2 threads: "
+                        + Arrays.equals(parallel, pos));
+        }
+
+        for(int th : new int[]{1, 2, 4, 8}){
+            PhysicsContext phys = cube(40);
+            setThreads(phys, th, lowLatency);
+            for(int s = 0; s < 200; s++)
+                phys.computeSingleStep();
+            long start = System.nanoTime();
+            for(int s = 0; s < 500; s++)
+                phys.computeSingleStep();
+            long us = (System.nanoTime() - start) / 500 / 1000;
+            phys.setNumberOfThreads(1);
+            System.out.println("40^3 cube, " + th + " threads: " + us + " us/step");
+        }
+        System.exit(0);
+    }
+
+    // Compiled in all cases, so that one thread is the serial kernel.
+    private static void setThreads(PhysicsContext phys, int nbThreads, boolean lowLatency){
+        phys.setNumberOfThreads(nbThreads, lowLatency);
+        if(nbThreads == 1)
+            phys.compile();
+    }
+
+    private static double[] positions(PhysicsContext phys){
+        ArrayList<Mass> masses = phys.mdl().getPhyModel("cube").getMassList();
+        double[] pos = new double[3 * masses.size()];
+        for(int i = 0; i < masses.size(); i++){
+            Vect3D p = masses.get(i).getPos();
+            pos[3 * i] = p.x;
+            pos[3 * i + 1] = p.y;
+            pos[3 * i + 2] = p.z;
+        }
+        return pos;
+    }
+
+    private static double maxRelative(double[] a, double[] b){
+        double max = 0;
+        for(int i = 0; i < a.length; i++){
+            double scale = Math.max(Math.abs(a[i]), Math.abs(b[i]));
+            if(scale > 0)
+                max = Math.max(max, Math.abs(a[i] - b[i]) / scale);
+        }
+        return max;
+    }
+
+    private static PhysicsContext cube(int n){
+        PhysicsContext phys = new PhysicsContext(1000, 60);
+        phys.setGlobalGravity(0, 0, 0.0001);
+        phys.setGlobalFriction(0.0001);
+        miTopoCreator cube = new miTopoCreator("cube", phys.getGlobalMedium());
+        cube.setDim(n, n, n, 1);
+        cube.setParams(1, 0.05, 0.01);
+        cube.setGeometry(10, 10);
+        cube.addBoundaryCondition(Bound.X_LEFT);
+        cube.generate();
+        phys.mdl().addPhyModel(cube);
+        phys.init();
+        return phys;
+    }
+}
@@ -0,0 +1,36 @@
+import miPhysics.Engine.*;
+
+/**
+ * Measures the step time of a 100x100x10 mesh (100k masses, about 1.2M springs) compiled in double
+ * and in single precision (PhysicsContext.setSinglePrecision()), on the calling thread. Each
+ * measurement times 500 steps after 200 warm-up steps, and is repeated 3 times.
+ *
+ * Not part of the library build: see the README of this folder to run it (with PrecisionCheck,
+ * which builds the mesh). Needs about 2 GB of heap.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class PrecisionBenchmark {
+
+    private static final int WARMUP = 200;
+    private static final int STEPS = 500;
+
+    public static void main(String[] args){
+        for(int rep = 0; rep < 3; rep++){
+            for(int mode = 0; mode < 2; mode++){
+                boolean single = mode == 1;
+                PhysicsContext phys = PrecisionCheck.buildMesh(100, 100, 10);
+                phys.compile();
+                phys.setSinglePrecision(single);
+                for(int s = 0; s < WARMUP; s++)
+                    phys.computeSingleStep();
+                long start = System.nanoTime();
+                for(int s = 0; s < STEPS; s++)
+                    phys.computeSingleStep();
+                long us = (System.nanoTime() - start) / STEPS / 1000;
+                System.out.println((single ? "single" : "double") + " precision, 100000 masses: " + us + " us/step");
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+
+import miPhysics.Engine.*;
+
+/**
+ * Checks the accuracy of the single precision mode of the compiled model
+ * (PhysicsContext.setSinglePrecision()): drives the same mesh in double and in single precision
+ * for 3000 steps (10 s at 300 Hz), and compares the positions of all its masses at the end. The
+ * largest difference must stay under MAX_ERROR, a thousandth of the mesh spacing.
+ *
+ * Not part of the library build: see the README of this folder to run it. The exit status is 1
+ * if the difference is too large.
+ *
+ * @author James Leonard / james.leonard@gipsa-lab.fr
+ *
+ */
+public class PrecisionCheck {
+
+    private static final int STEPS = 3000;
+    private static final double SPACING = 10;
+    private static final double MAX_ERROR = SPACING * 1e-3;
+
+    public static void main(String[] args){
+        double[] ref = run(false);
+        double[] single = run(true);
+        double error = 0;
+        for(int i = 0; i < ref.length; i++)
+            error = Math.max(error, Math.abs(ref[i] - single[i]));
+        System.out.println("largest position difference after " + STEPS + " steps: " + error
+                + " (bound " + MAX_ERROR + ", mesh spacing " + SPACING + ")");
+        System.exit(error < MAX_ERROR ? 0 : 1);
+    }
+
+    // Positions of the masses of the mesh after driving it.
+    private static double[] run(boolean single){
+        PhysicsContext phys = buildMesh(10, 10, 4);
+        phys.compile();
+        phys.setSinglePrecision(single);
+        for(int s = 0; s < STEPS; s++){
+            if(s % 300 == 0)
+                for(Driver3D d : phys.mdl().getDrivers())
+                    d.applyFrc(0.5, 0.3, 1);
+            phys.computeSingleStep();
+        }
+        ArrayList<Mass> masses = phys.mdl().getPhyModel("mesh").getMassList();
+        double[] pos = new double[3 * masses.size()];
+        for(int i = 0; i < masses.size(); i++){
+            Vect3D p = masses.get(i).getPos();
+            pos[3 * i] = p.x;
+            pos[3 * i + 1] = p.y;
+            pos[3 * i + 2] = p.z;
+        }
+        return pos;
+    }
+
+    /**
+     * Build a mesh fixed on one side and driven from the opposite corner (also used by
+     * PrecisionBenchmark).
+     * @param nx number of masses along X.
+     * @param ny number of masses along Y.
+     * @param nz number of masses along Z.
+     * @return the physics context, initialised.
+     */
+    static PhysicsContext buildMesh(int nx, int ny, int nz){
+        PhysicsContext phys = new PhysicsContext(300, 60);
+        Medium med = new Medium(0.001, new Vect3D(0, 0, 0.001));
+        miTopoCreator mesh = new miTopoCreator("mesh", med);
+        mesh.setDim(nx, ny, nz, 1);
+        mesh.setParams(1, 0.05, 0.01);
+        mesh.setGeometry(SPACING, SPACING);
+        mesh.addBoundaryCondition(Bound.X_LEFT);
+        mesh.generate();
+        mesh.addInOut("drv", new Driver3D(), "m_" + (nx - 1) + "_" + (ny - 1) + "_" + (nz - 1));
+        phys.mdl().addPhyModel(mesh);
+        phys.init();
+        return phys;
+    }
+}